@@ -3,56 +3,41 @@ package xyz.srclab.common.bean
 import xyz.srclab.common.convert.Converter
 import java.lang.reflect.Type
 
+/**
+ * Map view of a bean, keys are property names (except `class`), values are property values converted to [valueType].
+ *
+ * This is a flyweight view: property arrays and name index of a bean class are shared by all [BeanMap]s of the class,
+ * entries are created only while iterating. If [valueType] is [Any], values are returned without conversion.
+ */
 open class BeanMap(
     private val bean: Any,
     private val valueType: Type,
-    private val beanResolver: BeanResolver,
+    beanResolver: BeanResolver,
     private val converter: Converter
 ) : AbstractMutableMap<String, Any?>() {
 
-    private val properties: Map<String, PropertyType> = run {
-        beanResolver.resolve(bean.javaClass).properties.filter { it.key != "class" }
-    }
+    private val schema: Schema = Schema.of(bean.javaClass, beanResolver)
 
     override val size: Int
-        get() = entries.size
-
-    override val entries: MutableSet<MutableMap.MutableEntry<String, Any?>> by lazy {
-        properties.entries
-            .filter { it.value.isReadable }
-            .mapTo(LinkedHashSet()) {
-                val propertyType = it.value
-                object : MutableMap.MutableEntry<String, Any?> {
-
-                    override val key: String = it.key
+        get() = schema.readableIndexes.size
 
-                    override val value: Any?
-                        get() = converter.convert(propertyType.getValue(bean), valueType)
-
-                    override fun setValue(newValue: Any?): Any? {
-                        return propertyType.setValueAndReturnOld(
-                            bean,
-                            converter.convert(newValue, propertyType.type)
-                        )
-                    }
-                }
-            }
-    }
+    override val entries: MutableSet<MutableMap.MutableEntry<String, Any?>>
+        get() = EntrySet()
 
     override fun containsKey(key: String): Boolean {
-        return properties.containsKey(key)
+        return schema.indexOf(key) >= 0
     }
 
     override fun get(key: String): Any? {
-        val propertyType = properties[key]
-        if (propertyType === null) {
+        val index = schema.indexOf(key)
+        if (index < 0) {
             return null
         }
-        return converter.convert(propertyType.getValue(bean), valueType)
+        return getValue(index)
     }
 
     override fun isEmpty(): Boolean {
-        return properties.isEmpty()
+        return schema.readableIndexes.isEmpty()
     }
 
     override fun clear() {
@@ -60,17 +45,173 @@ open class BeanMap(
     }
 
     override fun put(key: String, value: Any?): Any? {
-        val propertyType = properties[key]
-        if (propertyType === null) {
+        val index = schema.indexOf(key)
+        if (index < 0) {
             throw UnsupportedOperationException("Property $key doesn't exist.")
         }
-        return propertyType.setValueAndReturnOld(
-            bean,
-            converter.convert(value, propertyType.type)
-        )
+        return setValue(index, value)
     }
 
     override fun remove(key: String): Any? {
         throw UnsupportedOperationException()
     }
-}
\ No newline at end of file
+
+    private fun getValue(index: Int): Any? {
+        val value = schema.properties[index].getValue<Any?>(bean)
+        if (valueType == Any::class.java) {
+            return value
+        }
+        return converter.convert(value, valueType)
+    }
+
+    private fun setValue(index: Int, value: Any?): Any? {
+        val propertyType = schema.properties[index]
+        return propertyType.setValueAndReturnOld(bean, converter.convert(value, propertyType.type))
+    }
+
+    private inner class EntrySet : AbstractMutableSet<MutableMap.MutableEntry<String, Any?>>() {
+
+        override val size: Int
+            get() = schema.readableIndexes.size
+
+        override fun add(element: MutableMap.MutableEntry<String, Any?>): Boolean {
+            throw UnsupportedOperationException()
+        }
+
+        override fun iterator(): MutableIterator<MutableMap.MutableEntry<String, Any?>> {
+            return object : MutableIterator<MutableMap.MutableEntry<String, Any?>> {
+
+                private var cursor = 0
+
+                override fun hasNext(): Boolean {
+                    return cursor < schema.readableIndexes.size
+                }
+
+                override fun next(): MutableMap.MutableEntry<String, Any?> {
+                    if (!hasNext()) {
+                        throw NoSuchElementException()
+                    }
+                    return Entry(schema.readableIndexes[cursor++])
+                }
+
+                override fun remove() {
+                    throw UnsupportedOperationException()
+                }
+            }
+        }
+    }
+
+    private inner class Entry(private val index: Int) : MutableMap.MutableEntry<String, Any?> {
+
+        override val key: String
+            get() = schema.names[index]
+
+        override val value: Any?
+            get() = getValue(index)
+
+        override fun setValue(newValue: Any?): Any? {
+            return setValue(index, newValue)
+        }
+
+        override fun equals(other: Any?): Boolean {
+            if (other !is Map.Entry<*, *>) return false
+            return key == other.key && value == other.value
+        }
+
+        override fun hashCode(): Int {
+            return key.hashCode() xor (value?.hashCode() ?: 0)
+        }
+
+        override fun toString(): String {
+            return "$key=$value"
+        }
+    }
+
+    /**
+     * Shared metadata of [BeanMap]s of a bean type: properties (except `class`), indexes of readable properties, and
+     * an open-addressing hash table from property name to index.
+     */
+    private class Schema(val beanType: BeanType) {
+
+        val names: Array<String>
+        val properties: Array<PropertyType>
+        val readableIndexes: IntArray
+
+        /**
+         * Slots of index + 1, 0 means empty slot. Size is at least 4 times of number of names, so load factor is at
+         * most 25%.
+         */
+        private val table: IntArray
+        private val tableMask: Int
+
+        init {
+            val propertyList = beanType.properties.values.filter { it.name != "class" }
+            names = Array(propertyList.size) { propertyList[it].name }
+            properties = propertyList.toTypedArray()
+            readableIndexes = propertyList.indices.filter { propertyList[it].isReadable }.toIntArray()
+            table = IntArray(Integer.highestOneBit(maxOf(names.size, 1) * 8 - 1))
+            tableMask = table.size - 1
+            for (i in names.indices) {
+                var slot = spread(names[i].hashCode()) and tableMask
+                while (table[slot] != 0) {
+                    slot = (slot + 1) and tableMask
+                }
+                table[slot] = i + 1
+            }
+        }
+
+        fun indexOf(name: String): Int {
+            var slot = spread(name.hashCode()) and tableMask
+            while (true) {
+                val index = table[slot] - 1
+                if (index < 0) {
+                    return -1
+                }
+                if (names[index] == name) {
+                    return index
+                }
+                slot = (slot + 1) and tableMask
+            }
+        }
+
+        private fun spread(h: Int): Int {
+            return h xor (h ushr 16)
+        }
+
+        companion object {
+
+            private const val MAX_SCHEMAS = 4
+
+            private val schemas: ClassValue<SchemaHolder> = object : ClassValue<SchemaHolder>() {
+                override fun computeValue(type: Class<*>): SchemaHolder {
+                    return SchemaHolder()
+                }
+            }
+
+            /**
+             * Returns schema of [type], a schema is reused while [beanResolver] returns same [BeanType]. Schemas of
+             * [MAX_SCHEMAS] recent [BeanType]s are kept for each class, so that resolvers used in turn share them.
+             */
+            fun of(type: Class<*>, beanResolver: BeanResolver): Schema {
+                val beanType = beanResolver.resolve(type)
+                val holder = schemas.get(type)
+                val recent = holder.schemas
+                for (schema in recent) {
+                    if (schema.beanType === beanType) {
+                        return schema
+                    }
+                }
+                val newSchema = Schema(beanType)
+                //Racing writes may drop a schema, which is only rebuilt later
+                holder.schemas = arrayOf(newSchema) + recent.sliceArray(0 until minOf(recent.size, MAX_SCHEMAS - 1))
+                return newSchema
+            }
+        }
+    }
+
+    private class SchemaHolder {
+
+        @Volatile
+        var schemas: Array<Schema> = emptyArray()
+    }
+}
@@ -6,6 +6,10 @@ import xyz.srclab.common.invoke.Invoker.Companion.toInvoker
 import xyz.srclab.common.lang.NamingCase
 import xyz.srclab.common.lang.Next
 import xyz.srclab.common.reflect.eraseTypeParameters
+import xyz.srclab.common.reflect.rawClass
+import java.lang.reflect.Field
+import java.lang.reflect.Method
+import java.lang.reflect.Modifier
 import java.lang.reflect.Type
 
 /**
@@ -14,6 +18,7 @@ import java.lang.reflect.Type
  * @see AbstractBeanResolveHandler
  * @see BeanStyleBeanResolveHandler
  * @see NamingStyleBeanResolveHandler
+ * @see FieldStyleBeanResolveHandler
  */
 interface BeanResolveHandler {
 
@@ -55,7 +60,7 @@ abstract class AbstractBeanResolveHandler : BeanResolveHandler {
 
             if (setter === null) {
                 properties[propertyName] =
-                    createProperty(propertyName, getter.type, getter.invoker, null)
+                    createProperty(propertyName, getter.type, getter.invoker, null, getter.field)
                 continue
             }
 
@@ -64,7 +69,9 @@ abstract class AbstractBeanResolveHandler : BeanResolveHandler {
 
             if (getter.type == setter.type) {
                 properties[propertyName] =
-                    createProperty(propertyName, getter.type, getter.invoker, setter.invoker)
+                    createProperty(
+                        propertyName, getter.type, getter.invoker, setter.invoker, getter.field ?: setter.field
+                    )
                 continue
             }
         }
@@ -72,7 +79,7 @@ abstract class AbstractBeanResolveHandler : BeanResolveHandler {
             val propertyName = setterEntry.key
             val setter = setterEntry.value
             properties[propertyName] =
-                createProperty(propertyName, setter.type, null, setter.invoker)
+                createProperty(propertyName, setter.type, null, setter.invoker, setter.field)
         }
         return Next.CONTINUE
     }
@@ -81,12 +88,19 @@ abstract class AbstractBeanResolveHandler : BeanResolveHandler {
         name: String,
         type: Type,
         getterInvoker: Invoker?,
-        setterInvoker: Invoker?
+        setterInvoker: Invoker?,
+        field: Field?
     ): PropertyTypeBuilder {
+        if (field !== null) {
+            return PropertyTypeBuilder.newPropertyTypeBuilder(name, type, getterInvoker, setterInvoker) { field }
+        }
         return PropertyTypeBuilder.newPropertyTypeBuilder(name, type, getterInvoker, setterInvoker)
     }
 
-    class PropertyInvoker(val type: Type, val invoker: Invoker)
+    /**
+     * Type and invoker of a getter or setter, [field] is backing field if it is known.
+     */
+    class PropertyInvoker @JvmOverloads constructor(val type: Type, val invoker: Invoker, val field: Field? = null)
 }
 
 
@@ -102,29 +116,43 @@ object BeanStyleBeanResolveHandler : AbstractBeanResolveHandler() {
         getters: MutableMap<String, PropertyInvoker>,
         setters: MutableMap<String, PropertyInvoker>,
     ) {
-        val methods = builder.methods
-        for (method in methods) {
-            if (method.isBridge || method.isSynthetic) {
-                continue
-            }
-            val name = method.name
-            if (name.length <= 3) {
-                continue
-            }
-            if (name.startsWith("get") && method.parameterCount == 0) {
-                val propertyName =
-                    NamingCase.UPPER_CAMEL.convertTo(name.substring(3, name.length), NamingCase.LOWER_CAMEL)
-                val type = method.genericReturnType.eraseTypeParameters(builder.typeArguments)
-                getters[propertyName] = PropertyInvoker(type, method.toInvoker())
-                continue
-            }
-            if (name.startsWith("set") && method.parameterCount == 1) {
-                val propertyName =
-                    NamingCase.UPPER_CAMEL.convertTo(name.substring(3, name.length), NamingCase.LOWER_CAMEL)
-                val type = method.genericParameterTypes[0].eraseTypeParameters(builder.typeArguments)
-                setters[propertyName] = PropertyInvoker(type, method.toInvoker())
-                continue
-            }
+        resolveBeanStyleAccessors(builder, getters, setters) { method, type, _ ->
+            PropertyInvoker(type, method.toInvoker())
+        }
+    }
+}
+
+/**
+ * Scans getXxx() and setXxx(Xxx) methods of [builder], puts invoker created by [invokerOf] for each getter (or setter)
+ * into [getters] (or [setters]) by property name.
+ */
+private inline fun resolveBeanStyleAccessors(
+    builder: BeanTypeBuilder,
+    getters: MutableMap<String, AbstractBeanResolveHandler.PropertyInvoker>,
+    setters: MutableMap<String, AbstractBeanResolveHandler.PropertyInvoker>,
+    invokerOf: (method: Method, type: Type, isGetter: Boolean) -> AbstractBeanResolveHandler.PropertyInvoker,
+) {
+    for (method in builder.methods) {
+        if (method.isBridge || method.isSynthetic) {
+            continue
+        }
+        val name = method.name
+        if (name.length <= 3) {
+            continue
+        }
+        if (name.startsWith("get") && method.parameterCount == 0) {
+            val propertyName =
+                NamingCase.UPPER_CAMEL.convertTo(name.substring(3, name.length), NamingCase.LOWER_CAMEL)
+            val type = method.genericReturnType.eraseTypeParameters(builder.typeArguments)
+            getters[propertyName] = invokerOf(method, type, true)
+            continue
+        }
+        if (name.startsWith("set") && method.parameterCount == 1) {
+            val propertyName =
+                NamingCase.UPPER_CAMEL.convertTo(name.substring(3, name.length), NamingCase.LOWER_CAMEL)
+            val type = method.genericParameterTypes[0].eraseTypeParameters(builder.typeArguments)
+            setters[propertyName] = invokerOf(method, type, false)
+            continue
         }
     }
 }
@@ -159,4 +187,125 @@ object NamingStyleBeanResolveHandler : AbstractBeanResolveHandler() {
             }
         }
     }
-}
\ No newline at end of file
+}
+
+/**
+ * Field style of [AbstractBeanResolveHandler], reads and writes fields directly through cached method handles instead
+ * of reflective getter and setter calls:
+ *
+ * * If [fromAccessors] is false, properties are non-static and non-transient fields of bean type and its super
+ * classes, final fields are read-only;
+ * * If [fromAccessors] is true, properties are getXxx() and setXxx(Xxx) like [BeanStyleBeanResolveHandler], but a
+ * getter (or setter) which only reads (or writes) a field of its class, and can't be overridden, is replaced by direct
+ * access of the field. Trivial accessors are found from class file, such as getters of Kotlin data classes.
+ */
+open class FieldStyleBeanResolveHandler @JvmOverloads constructor(
+    private val fromAccessors: Boolean = false
+) : AbstractBeanResolveHandler() {
+
+    override fun resolveAccessors(
+        builder: BeanTypeBuilder,
+        getters: MutableMap<String, PropertyInvoker>,
+        setters: MutableMap<String, PropertyInvoker>,
+    ) {
+        if (fromAccessors) {
+            resolveFromAccessors(builder, getters, setters)
+        } else {
+            resolveFromFields(builder, getters, setters)
+        }
+    }
+
+    private fun resolveFromFields(
+        builder: BeanTypeBuilder,
+        getters: MutableMap<String, PropertyInvoker>,
+        setters: MutableMap<String, PropertyInvoker>,
+    ) {
+        var rawClass: Class<*>? = builder.type.rawClass
+        while (rawClass !== null && rawClass != Any::class.java) {
+            for (field in rawClass.declaredFields) {
+                val modifiers = field.modifiers
+                if (field.isSynthetic || Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                    continue
+                }
+                val name = field.name
+                //Fields of subclass hide same name fields of super class
+                if (getters.containsKey(name)) {
+                    continue
+                }
+                val getter = FieldAccessors.getterOrNull(field) ?: continue
+                val type = field.genericType.eraseTypeParameters(builder.typeArguments)
+                getters[name] = PropertyInvoker(type, getter, field)
+                if (Modifier.isFinal(modifiers)) {
+                    continue
+                }
+                val setter = FieldAccessors.setterOrNull(field) ?: continue
+                setters[name] = PropertyInvoker(type, setter, field)
+            }
+            rawClass = rawClass.superclass
+        }
+    }
+
+    private fun resolveFromAccessors(
+        builder: BeanTypeBuilder,
+        getters: MutableMap<String, PropertyInvoker>,
+        setters: MutableMap<String, PropertyInvoker>,
+    ) {
+        val trivialAccessors: MutableMap<Class<*>, Map<String, String>> = HashMap()
+        resolveBeanStyleAccessors(builder, getters, setters) { method, type, isGetter ->
+            val field = trivialFieldOrNull(method, trivialAccessors)
+            val accessor = when {
+                field === null -> null
+                isGetter -> FieldAccessors.getterOrNull(field)
+                else -> FieldAccessors.setterOrNull(field)
+            }
+            if (accessor === null)
+                PropertyInvoker(type, method.toInvoker())
+            else
+                PropertyInvoker(type, accessor, field)
+        }
+    }
+
+    private fun trivialFieldOrNull(
+        method: Method,
+        trivialAccessors: MutableMap<Class<*>, Map<String, String>>
+    ): Field? {
+        if (!TrivialAccessors.isNotOverridable(method)) {
+            return null
+        }
+        val declaringClass = method.declaringClass
+        //Class files of JDK and Kotlin classes such as Object are not scanned
+        if (isPlatformClass(declaringClass)) {
+            return null
+        }
+        val accessors = trivialAccessors.getOrPut(declaringClass) { TrivialAccessors.scan(declaringClass) }
+        val fieldName = accessors[method.name + TrivialAccessors.descriptorOf(method)] ?: return null
+        return try {
+            declaringClass.getDeclaredField(fieldName)
+        } catch (e: NoSuchFieldException) {
+            null
+        }
+    }
+
+    private fun isPlatformClass(type: Class<*>): Boolean {
+        if (type.classLoader === null) {
+            return true
+        }
+        val name = type.name
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("kotlin.")
+    }
+
+    companion object {
+
+        /**
+         * Resolves properties from fields.
+         */
+        @JvmField
+        val DEFAULT: FieldStyleBeanResolveHandler = FieldStyleBeanResolveHandler(false)
+
+        /**
+         * Resolves properties from getters and setters, trivial accessors are replaced by field access.
+         */
+        @JvmField
+        val ACCESSORS: FieldStyleBeanResolveHandler = FieldStyleBeanResolveHandler(true)
+    }
+}
@@ -3,16 +3,25 @@ package xyz.srclab.common.bean
 import xyz.srclab.common.cache.Cache
 import xyz.srclab.common.collect.asToList
 import xyz.srclab.common.invoke.Invoker
+import xyz.srclab.common.lang.Environment
 import xyz.srclab.common.lang.INAPPLICABLE_JVM_NAME
 import xyz.srclab.common.lang.Next
 import xyz.srclab.common.reflect.rawClass
 import xyz.srclab.common.reflect.searchFieldOrNull
 import xyz.srclab.common.reflect.typeArguments
+import xyz.srclab.common.run.Runner
+import xyz.srclab.common.run.runInChunksAsync
 import java.lang.reflect.Field
+import java.lang.reflect.GenericArrayType
 import java.lang.reflect.Method
+import java.lang.reflect.ParameterizedType
 import java.lang.reflect.Type
 import java.lang.reflect.TypeVariable
+import java.lang.reflect.WildcardType
 import java.util.*
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
 
 /**
  * Resolver for bean object.
@@ -42,6 +51,31 @@ interface BeanResolver {
         return builder.build()
     }
 
+    /**
+     * Resolves [types] ahead on [Runner.ASYNC_RUNNER].
+     *
+     * @see preload
+     */
+    @JvmDefault
+    fun preload(types: Iterable<Type>): CompletableFuture<Void> {
+        return preload(types, Runner.ASYNC_RUNNER)
+    }
+
+    /**
+     * Resolves [types] ahead on [runner] in parallel chunks, returns a future which completes when all of them have
+     * been resolved. For caching resolver such as [AbstractCachingBeanResolver], resolving of preloaded types is just
+     * a lookup.
+     */
+    @JvmDefault
+    fun preload(types: Iterable<Type>, runner: Runner): CompletableFuture<Void> {
+        val typeList = types.asToList()
+        return runInChunksAsync(typeList.size, runner, Environment.availableProcessors) { start, end ->
+            for (type in typeList.subList(start, end)) {
+                resolve(type)
+            }
+        }
+    }
+
     @JvmDefault
     fun withPreResolveHandler(preResolveHandler: BeanResolveHandler): BeanResolver {
         return newBeanResolver(listOf(preResolveHandler).plus(resolveHandlers))
@@ -217,14 +251,105 @@ interface PropertyTypeBuilder {
 
 /**
  * Abstract [BeanResolver] which can cache resolved [BeanType] previous created.
+ *
+ * If [cache] is null, resolved [BeanType]s are kept in a [ClassValue] of class: [BeanType] of a raw class is stored
+ * directly, [BeanType]s of parameterized (or other generic) types are stored in a map of the class whose class loader
+ * is the deepest among classes in the type, such as `PluginDto` of `List<PluginDto>`. So resolved [BeanType]s are
+ * never collected while their classes are alive, and do not pin class loaders after their classes are unloaded. Generic
+ * types of classes from unrelated class loaders are not cached.
  */
 abstract class AbstractCachingBeanResolver @JvmOverloads constructor(
-    private val cache: Cache<Type, BeanType> = Cache.newFastCache()
+    private val cache: Cache<Type, BeanType>? = null
 ) : BeanResolver {
 
+    private val classCache: ClassValue<ClassCacheEntry> = object : ClassValue<ClassCacheEntry>() {
+        override fun computeValue(type: Class<*>): ClassCacheEntry {
+            return ClassCacheEntry()
+        }
+    }
+
     override fun resolve(type: Type): BeanType {
-        return cache.getOrLoad(type) {
+        val cache = this.cache
+        if (cache !== null) {
+            return cache.getOrLoad(type) {
+                super.resolve(type)
+            }
+        }
+        if (type is Class<*>) {
+            val entry = classCache.get(type)
+            val beanType = entry.beanType
+            if (beanType !== null) {
+                return beanType
+            }
+            val newBeanType = super.resolve(type)
+            entry.beanType = newBeanType
+            return newBeanType
+        }
+        val anchorClass = anchorClassOrNull(type) ?: return super.resolve(type)
+        return classCache.get(anchorClass).genericBeanTypes.getOrPut(type) {
             super.resolve(type)
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns class in [type] whose class loader is same as or a descendant of loaders of all other classes in [type],
+     * or null if there are classes from unrelated class loaders.
+     */
+    private fun anchorClassOrNull(type: Type): Class<*>? {
+        var anchor: Class<*> = type.rawClass
+        val types = LinkedList<Type>()
+        types.add(type)
+        while (types.isNotEmpty()) {
+            when (val t = types.removeFirst()) {
+                is Class<*> -> {
+                    var componentClass: Class<*> = t
+                    while (componentClass.isArray) {
+                        componentClass = componentClass.componentType
+                    }
+                    anchor = when {
+                        isAncestorLoader(componentClass.classLoader, anchor.classLoader) -> anchor
+                        isAncestorLoader(anchor.classLoader, componentClass.classLoader) -> componentClass
+                        else -> return null
+                    }
+                }
+                is ParameterizedType -> {
+                    types.add(t.rawType)
+                    val ownerType = t.ownerType
+                    if (ownerType !== null) {
+                        types.add(ownerType)
+                    }
+                    types.addAll(t.actualTypeArguments)
+                }
+                is GenericArrayType -> types.add(t.genericComponentType)
+                is WildcardType -> {
+                    types.addAll(t.upperBounds)
+                    types.addAll(t.lowerBounds)
+                }
+                //Bounds of type variables are declared by classes in type
+            }
+        }
+        return anchor
+    }
+
+    private fun isAncestorLoader(ancestor: ClassLoader?, loader: ClassLoader?): Boolean {
+        if (ancestor === null) {
+            return true
+        }
+        var current = loader
+        while (current !== null) {
+            if (current === ancestor) {
+                return true
+            }
+            current = current.parent
+        }
+        return false
+    }
+
+    private class ClassCacheEntry {
+
+        @Volatile
+        var beanType: BeanType? = null
+
+        val genericBeanTypes: ConcurrentMap<Type, BeanType> = ConcurrentHashMap()
+    }
+}
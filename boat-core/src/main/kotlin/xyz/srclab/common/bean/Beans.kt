@@ -5,9 +5,15 @@ package xyz.srclab.common.bean
 
 import xyz.srclab.annotations.Written
 import xyz.srclab.common.collect.MapType.Companion.toMapType
+import xyz.srclab.common.convert.BeanConvertHandler
 import xyz.srclab.common.convert.Converter
+import xyz.srclab.common.lang.Environment
 import xyz.srclab.common.lang.asAny
+import xyz.srclab.common.run.Runner
+import xyz.srclab.common.run.runInChunks
 import java.lang.reflect.Type
+import java.util.IdentityHashMap
+import java.util.LinkedList
 
 @JvmOverloads
 fun Type.resolve(beanResolver: BeanResolver = BeanResolver.DEFAULT): BeanType {
@@ -128,4 +134,365 @@ fun <T : Any> Any.copyProperties(
         }
         else -> throw IllegalStateException("Unknown type, failed to copy properties from $this to $to.")
     }
-}
\ No newline at end of file
+}
+
+/**
+ * Returns a deep copy of [this] by [deepCopier].
+ *
+ * @see DeepCopier
+ */
+@JvmOverloads
+fun <T : Any> T.deepCopy(deepCopier: DeepCopier = DeepCopier.DEFAULT): T {
+    return deepCopier.copy(this)
+}
+
+/**
+ * Returns changes of readable properties (except `class`) from [this] to [new], in iteration order of properties of
+ * [BeanType] of [this]. Property values are compared by:
+ *
+ * * identity, then [Any.equals];
+ * * content for arrays, including primitive arrays;
+ * * if [deep] is true, elements of lists, arrays, sets and maps, and properties of beans which don't override
+ * `equals`, recursively. Elements of sets are first matched by `contains`, the rest are matched by deep comparison.
+ *
+ * If class of [new] is different, its property of same name is compared, properties it doesn't have are skipped.
+ * [PropertyChange]s are only created for changed properties. Primitive properties read directly from fields (see
+ * [FieldStyleBeanResolveHandler]) are compared without boxing, values of them are only boxed for changes.
+ */
+@JvmOverloads
+fun Any.diff(
+    new: Any,
+    deep: Boolean = false,
+    beanResolver: BeanResolver = BeanResolver.DEFAULT,
+): List<PropertyChange> {
+    val oldProperties = beanResolver.resolve(this.javaClass).properties
+    val newProperties = if (new.javaClass == this.javaClass) null else beanResolver.resolve(new.javaClass).properties
+    var changes: MutableList<PropertyChange>? = null
+    for (property in oldProperties.values) {
+        if (!property.isReadable || property.name == "class") {
+            continue
+        }
+        val newProperty = if (newProperties === null) property else newProperties[property.name]
+        if (newProperty === null || !newProperty.isReadable) {
+            continue
+        }
+        val primitiveEquals = primitiveEqualsOrNull(property, this, newProperty, new)
+        if (primitiveEquals == true) {
+            continue
+        }
+        val oldValue = property.getValue<Any?>(this)
+        val newValue = newProperty.getValue<Any?>(new)
+        if (primitiveEquals === null && valueEquals(oldValue, newValue, deep, beanResolver, null)) {
+            continue
+        }
+        if (changes === null) {
+            changes = ArrayList()
+        }
+        changes.add(PropertyChange(property, oldValue, newValue))
+    }
+    return changes ?: emptyList()
+}
+
+private val equalsOverridden: ClassValue<Boolean> = object : ClassValue<Boolean>() {
+    override fun computeValue(type: Class<*>): Boolean {
+        return type.getMethod("equals", Any::class.java).declaringClass != Any::class.java
+    }
+}
+
+/**
+ * Compares values of primitive properties which are read directly from fields, returns null if either property is not
+ * such one, or their types are different.
+ */
+private fun primitiveEqualsOrNull(
+    oldProperty: PropertyType,
+    old: Any,
+    newProperty: PropertyType,
+    new: Any,
+): Boolean? {
+    val oldField = FieldAccessors.fieldOf(oldProperty.getter) ?: return null
+    val type = oldField.type
+    if (!type.isPrimitive) {
+        return null
+    }
+    val newField = if (newProperty === oldProperty) oldField else FieldAccessors.fieldOf(newProperty.getter)
+    if (newField === null || newField.type != type) {
+        return null
+    }
+    //Same as equals of wrappers
+    return when (type) {
+        Boolean::class.javaPrimitiveType -> oldField.getBoolean(old) == newField.getBoolean(new)
+        Byte::class.javaPrimitiveType -> oldField.getByte(old) == newField.getByte(new)
+        Short::class.javaPrimitiveType -> oldField.getShort(old) == newField.getShort(new)
+        Char::class.javaPrimitiveType -> oldField.getChar(old) == newField.getChar(new)
+        Int::class.javaPrimitiveType -> oldField.getInt(old) == newField.getInt(new)
+        Long::class.javaPrimitiveType -> oldField.getLong(old) == newField.getLong(new)
+        Float::class.javaPrimitiveType -> oldField.getFloat(old).toBits() == newField.getFloat(new).toBits()
+        Double::class.javaPrimitiveType -> oldField.getDouble(old).toBits() == newField.getDouble(new).toBits()
+        else -> null
+    }
+}
+
+/**
+ * [visiting] maps beans being compared to their counterparts, to stop at cycles.
+ */
+private fun valueEquals(
+    a: Any?,
+    b: Any?,
+    deep: Boolean,
+    beanResolver: BeanResolver,
+    visiting: IdentityHashMap<Any, Any>?,
+): Boolean {
+    if (a === b) {
+        return true
+    }
+    if (a === null || b === null) {
+        return false
+    }
+    if (a == b) {
+        return true
+    }
+    val type = a.javaClass
+    if (type != b.javaClass) {
+        return false
+    }
+    if (type.isArray) {
+        return arrayEquals(a, b, deep, beanResolver, visiting)
+    }
+    if (!deep) {
+        return false
+    }
+    return when (a) {
+        is List<*> -> listEquals(a, b as List<*>, beanResolver, visiting)
+        is Set<*> -> setEquals(a, b as Set<*>, beanResolver, visiting)
+        is Map<*, *> -> mapEquals(a, b as Map<*, *>, beanResolver, visiting)
+        else -> !equalsOverridden.get(type) && beanEquals(a, b, beanResolver, visiting)
+    }
+}
+
+private fun arrayEquals(
+    a: Any,
+    b: Any,
+    deep: Boolean,
+    beanResolver: BeanResolver,
+    visiting: IdentityHashMap<Any, Any>?,
+): Boolean {
+    return when (a) {
+        is BooleanArray -> a.contentEquals(b as BooleanArray)
+        is ByteArray -> a.contentEquals(b as ByteArray)
+        is ShortArray -> a.contentEquals(b as ShortArray)
+        is CharArray -> a.contentEquals(b as CharArray)
+        is IntArray -> a.contentEquals(b as IntArray)
+        is LongArray -> a.contentEquals(b as LongArray)
+        is FloatArray -> a.contentEquals(b as FloatArray)
+        is DoubleArray -> a.contentEquals(b as DoubleArray)
+        else -> {
+            val arrayA = a.asAny<Array<Any?>>()
+            val arrayB = b.asAny<Array<Any?>>()
+            if (!deep) {
+                return arrayA.contentDeepEquals(arrayB)
+            }
+            if (arrayA.size != arrayB.size) {
+                return false
+            }
+            for (i in arrayA.indices) {
+                if (!valueEquals(arrayA[i], arrayB[i], true, beanResolver, visiting)) {
+                    return false
+                }
+            }
+            true
+        }
+    }
+}
+
+private fun listEquals(
+    a: List<*>,
+    b: List<*>,
+    beanResolver: BeanResolver,
+    visiting: IdentityHashMap<Any, Any>?,
+): Boolean {
+    if (a.size != b.size) {
+        return false
+    }
+    val iteratorB = b.iterator()
+    for (elementA in a) {
+        if (!valueEquals(elementA, iteratorB.next(), true, beanResolver, visiting)) {
+            return false
+        }
+    }
+    return true
+}
+
+private fun setEquals(
+    a: Set<*>,
+    b: Set<*>,
+    beanResolver: BeanResolver,
+    visiting: IdentityHashMap<Any, Any>?,
+): Boolean {
+    if (a.size != b.size) {
+        return false
+    }
+    var unmatched: MutableList<Any?>? = null
+    for (elementA in a) {
+        if (!b.contains(elementA)) {
+            if (unmatched === null) {
+                unmatched = ArrayList()
+            }
+            unmatched.add(elementA)
+        }
+    }
+    if (unmatched === null) {
+        return true
+    }
+    //Each element not found by contains is matched by deep comparison with a remaining element
+    val remaining = b.filterTo(LinkedList()) { !a.contains(it) }
+    for (elementA in unmatched) {
+        val iterator = remaining.iterator()
+        var matched = false
+        while (iterator.hasNext()) {
+            if (valueEquals(elementA, iterator.next(), true, beanResolver, visiting)) {
+                iterator.remove()
+                matched = true
+                break
+            }
+        }
+        if (!matched) {
+            return false
+        }
+    }
+    return true
+}
+
+private fun mapEquals(
+    a: Map<*, *>,
+    b: Map<*, *>,
+    beanResolver: BeanResolver,
+    visiting: IdentityHashMap<Any, Any>?,
+): Boolean {
+    if (a.size != b.size) {
+        return false
+    }
+    for ((key, valueA) in a) {
+        if (!b.containsKey(key) || !valueEquals(valueA, b[key], true, beanResolver, visiting)) {
+            return false
+        }
+    }
+    return true
+}
+
+private fun beanEquals(a: Any, b: Any, beanResolver: BeanResolver, visiting: IdentityHashMap<Any, Any>?): Boolean {
+    val stack = visiting ?: IdentityHashMap()
+    if (stack[a] === b) {
+        return true
+    }
+    stack[a] = b
+    try {
+        for (property in beanResolver.resolve(a.javaClass).properties.values) {
+            if (!property.isReadable || property.name == "class") {
+                continue
+            }
+            if (!valueEquals(property.getValue(a), property.getValue(b), true, beanResolver, stack)) {
+                return false
+            }
+        }
+        return true
+    } finally {
+        stack.remove(a)
+    }
+}
+
+/**
+ * Copies properties of each element of [this] into a new instance of [toType], returns list of new instances in same
+ * order. Null elements are copied as null.
+ *
+ * Pairs of readable and writeable properties are resolved once for class of first element, and reused for elements of
+ * same class; other elements are copied by [copyProperties]. If [runner] is not null, elements are split into chunks
+ * and copied on [runner] in parallel, results are written into a presized list.
+ *
+ * New instances are created by no-arg constructor of [toType]. If there is no such a constructor, such as for
+ * immutable beans, each instance is generated by [BeanConvertHandler.BeanGenerator.CONSTRUCTOR] instead, and
+ * [copyNull] is ignored.
+ */
+@JvmOverloads
+fun <T : Any> List<*>.copyAll(
+    toType: Class<T>,
+    runner: Runner? = null,
+    parallelism: Int = Environment.availableProcessors,
+    copyNull: Boolean = true,
+    beanResolver: BeanResolver = BeanResolver.DEFAULT,
+    converter: Converter = Converter.DEFAULT,
+): List<T> {
+    val elements = if (this is RandomAccess) this else this.toList()
+    val results = arrayOfNulls<Any?>(elements.size)
+    val first = elements.firstOrNull { it !== null }
+    if (first === null) {
+        return results.asList().asAny()
+    }
+    val constructor = toType.declaredConstructors.firstOrNull { it.parameterCount == 0 }
+    if (constructor === null) {
+        val beanGenerator = BeanConvertHandler.BeanGenerator.CONSTRUCTOR
+        runInChunks(elements.size, runner, parallelism) { start, end ->
+            for (i in start until end) {
+                val element = elements[i] ?: continue
+                results[i] = beanGenerator.generate(element, toType, beanResolver, converter)
+            }
+        }
+        return results.asList().asAny()
+    }
+    constructor.isAccessible = true
+    val copyPlan = if (first is Map<*, *>) null else CopyPlan.newCopyPlan(first.javaClass, toType, beanResolver)
+    runInChunks(elements.size, runner, parallelism) { start, end ->
+        for (i in start until end) {
+            val element = elements[i] ?: continue
+            val to = constructor.newInstance()
+            if (copyPlan !== null && element.javaClass == copyPlan.fromClass) {
+                copyPlan.copy(element, to, copyNull, converter)
+            } else {
+                element.copyProperties(to, toType, copyNull, beanResolver, converter)
+            }
+            results[i] = to
+        }
+    }
+    return results.asList().asAny()
+}
+
+/**
+ * Pairs of readable properties of [fromClass] and writeable properties of target type with same names.
+ */
+private class CopyPlan(
+    val fromClass: Class<*>,
+    private val fromProperties: Array<PropertyType>,
+    private val toProperties: Array<PropertyType>,
+) {
+
+    fun copy(from: Any, to: Any, copyNull: Boolean, converter: Converter) {
+        for (i in fromProperties.indices) {
+            val value = fromProperties[i].getValue<Any?>(from)
+            if (value === null && !copyNull) {
+                continue
+            }
+            val toProperty = toProperties[i]
+            toProperty.setValue(to, converter.convert(value, toProperty.type))
+        }
+    }
+
+    companion object {
+
+        fun newCopyPlan(fromClass: Class<*>, toType: Type, beanResolver: BeanResolver): CopyPlan {
+            val toPropertyTypes = beanResolver.resolve(toType).properties
+            val fromProperties = ArrayList<PropertyType>()
+            val toProperties = ArrayList<PropertyType>()
+            for ((name, fromProperty) in beanResolver.resolve(fromClass).properties) {
+                if (!fromProperty.isReadable) {
+                    continue
+                }
+                val toProperty = toPropertyTypes[name]
+                if (toProperty === null || !toProperty.isWriteable) {
+                    continue
+                }
+                fromProperties.add(fromProperty)
+                toProperties.add(toProperty)
+            }
+            return CopyPlan(fromClass, fromProperties.toTypedArray(), toProperties.toTypedArray())
+        }
+    }
+}
@@ -0,0 +1,486 @@
+package xyz.srclab.common.bean
+
+import com.google.common.collect.ImmutableCollection
+import com.google.common.collect.ImmutableList
+import com.google.common.collect.ImmutableMap
+import com.google.common.collect.ImmutableMultiset
+import com.google.common.collect.ImmutableSet
+import com.google.common.collect.ImmutableSortedMap
+import com.google.common.collect.ImmutableSortedMultiset
+import com.google.common.collect.ImmutableSortedSet
+import xyz.srclab.common.lang.asAny
+import java.lang.reflect.Constructor
+import java.math.BigDecimal
+import java.math.BigInteger
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Deep copier of object graph, built on [BeanResolver]:
+ *
+ * * Objects of immutable types are shared rather than copied, including primitive wrappers, [String], enums, types of
+ * `java.time` and [immutableTypes];
+ * * Arrays are copied into arrays of same component type;
+ * * [Collection]s and [Map]s are copied into presized containers of same class if possible, else [ArrayList],
+ * [LinkedHashSet], [TreeSet], [LinkedHashMap] or [TreeMap];
+ * * Unmodifiable collections of JDK (such as [Collections.unmodifiableList], [Collections.singletonList] and `List.of`)
+ * are copied into unmodifiable wrappers of above containers, lists of [Arrays.asList] are copied by [Arrays.asList],
+ * and empty collections of [Collections] are shared;
+ * * Guava immutable collections are rebuilt as immutable collections of same kind from copies of their elements;
+ * * Other objects are beans, created by no-arg constructor, then readable and writeable properties are copied.
+ *
+ * How to copy a class is decided once and cached. An identity map of copies is kept during copying, so shared
+ * references and cycles are kept in copy. If an element of a set (or a key of a map) is an object whose copy is still
+ * being filled, because of a cycle, the set is filled after whole graph is copied, so that elements are hashed with
+ * their final state. Guava immutable collections are built after their elements are copied, so
+ * [IllegalStateException] will be thrown for a cycle through them, or an element of a Guava immutable set (or a key of
+ * map) whose copy is still being filled.
+ *
+ * @see deepCopy
+ */
+open class DeepCopier @JvmOverloads constructor(
+    immutableTypes: Iterable<Class<*>> = DEFAULT_IMMUTABLE_TYPES,
+    private val beanResolver: BeanResolver = BeanResolver.DEFAULT,
+) {
+
+    private val immutableTypes: Set<Class<*>> = immutableTypes.toHashSet()
+
+    private val typeCopiers: ClassValue<TypeCopier> = object : ClassValue<TypeCopier>() {
+        override fun computeValue(type: Class<*>): TypeCopier {
+            return newTypeCopier(type)
+        }
+    }
+
+    /**
+     * Returns deep copy of [obj].
+     */
+    fun <T : Any> copy(obj: T): T {
+        val context = CopyContext(this)
+        val copy = copyValue(obj, context)
+        for (fill in context.pendingFills) {
+            fill()
+        }
+        return copy!!.asAny()
+    }
+
+    /**
+     * Returns a new [DeepCopier] which also shares objects of [types].
+     */
+    fun withImmutableTypes(vararg types: Class<*>): DeepCopier {
+        return withImmutableTypes(types.asList())
+    }
+
+    /**
+     * Returns a new [DeepCopier] which also shares objects of [types].
+     */
+    fun withImmutableTypes(types: Iterable<Class<*>>): DeepCopier {
+        return DeepCopier(immutableTypes.plus(types), beanResolver)
+    }
+
+    /**
+     * Returns whether objects of [type] are immutable and can be shared.
+     */
+    protected open fun isImmutable(type: Class<*>): Boolean {
+        return immutableTypes.contains(type)
+            || Enum::class.java.isAssignableFrom(type)
+            || type.name.startsWith("java.time.")
+    }
+
+    private fun copyValue(value: Any?, context: CopyContext): Any? {
+        if (value === null) {
+            return null
+        }
+        val typeCopier = typeCopiers.get(value.javaClass)
+        if (typeCopier === SharedCopier) {
+            return value
+        }
+        val copied = context.copies[value]
+        if (copied !== null) {
+            return copied
+        }
+        //Only copies which are built after their members are not in copies while in progress
+        if (context.inProgress.put(value, value) !== null) {
+            throw IllegalStateException("Cycle through ${value.javaClass.name} can't be deep copied.")
+        }
+        try {
+            return typeCopier.copy(value, context)
+        } finally {
+            context.inProgress.remove(value)
+        }
+    }
+
+    private fun newTypeCopier(type: Class<*>): TypeCopier {
+        return when {
+            isImmutable(type) -> SharedCopier
+            type.isArray && type.componentType.isPrimitive -> PrimitiveArrayCopier
+            type.isArray -> ObjectArrayCopier(type.componentType)
+            EnumSet::class.java.isAssignableFrom(type) -> EnumSetCopier
+            ImmutableCollection::class.java.isAssignableFrom(type) -> ImmutableCollectionCopier
+            ImmutableMap::class.java.isAssignableFrom(type) -> ImmutableMapCopier
+            Collection::class.java.isAssignableFrom(type) -> when {
+                type.name.startsWith(EMPTY_PREFIX) -> SharedCopier
+                type.name == ARRAYS_LIST_NAME -> ArraysListCopier
+                else -> CollectionCopier(collectionFactory(type), collectionWrapper(type))
+            }
+            Map::class.java.isAssignableFrom(type) -> when {
+                type.name.startsWith(EMPTY_PREFIX) -> SharedCopier
+                else -> MapCopier(mapFactory(type), mapWrapper(type))
+            }
+            else -> BeanCopier(type, beanResolver)
+        }
+    }
+
+    private fun collectionWrapper(type: Class<*>): (MutableCollection<Any?>) -> Collection<Any?> {
+        if (!isUnmodifiable(type)) {
+            return { c -> c }
+        }
+        return when {
+            NavigableSet::class.java.isAssignableFrom(type) -> { c ->
+                Collections.unmodifiableNavigableSet(c as NavigableSet<Any?>)
+            }
+            SortedSet::class.java.isAssignableFrom(type) -> { c ->
+                Collections.unmodifiableSortedSet(c as SortedSet<Any?>)
+            }
+            Set::class.java.isAssignableFrom(type) -> { c -> Collections.unmodifiableSet(c as Set<Any?>) }
+            List::class.java.isAssignableFrom(type) -> { c -> Collections.unmodifiableList(c as List<Any?>) }
+            else -> { c -> Collections.unmodifiableCollection(c) }
+        }
+    }
+
+    private fun mapWrapper(type: Class<*>): (MutableMap<Any?, Any?>) -> Map<Any?, Any?> {
+        if (!isUnmodifiable(type)) {
+            return { m -> m }
+        }
+        return when {
+            NavigableMap::class.java.isAssignableFrom(type) -> { m ->
+                Collections.unmodifiableNavigableMap(m as NavigableMap<Any?, Any?>)
+            }
+            SortedMap::class.java.isAssignableFrom(type) -> { m ->
+                Collections.unmodifiableSortedMap(m as SortedMap<Any?, Any?>)
+            }
+            else -> { m -> Collections.unmodifiableMap(m) }
+        }
+    }
+
+    private fun isUnmodifiable(type: Class<*>): Boolean {
+        val name = type.name
+        return UNMODIFIABLE_PREFIXES.any { name.startsWith(it) }
+    }
+
+    private fun collectionFactory(type: Class<*>): (Collection<*>) -> MutableCollection<Any?> {
+        return when (type) {
+            ArrayList::class.java -> { c -> ArrayList(c.size) }
+            LinkedList::class.java -> { _ -> LinkedList() }
+            HashSet::class.java -> { c -> HashSet(capacityOf(c.size)) }
+            LinkedHashSet::class.java -> { c -> LinkedHashSet(capacityOf(c.size)) }
+            TreeSet::class.java -> { c -> TreeSet((c as SortedSet<Any?>).comparator()) }
+            else -> {
+                val constructor = noArgConstructorOrNull(type)
+                when {
+                    constructor !== null -> { _ -> constructor.newInstance().asAny() }
+                    SortedSet::class.java.isAssignableFrom(type) -> { c ->
+                        TreeSet((c as SortedSet<Any?>).comparator())
+                    }
+                    Set::class.java.isAssignableFrom(type) -> { c -> LinkedHashSet(capacityOf(c.size)) }
+                    else -> { c -> ArrayList(c.size) }
+                }
+            }
+        }
+    }
+
+    private fun mapFactory(type: Class<*>): (Map<*, *>) -> MutableMap<Any?, Any?> {
+        return when (type) {
+            HashMap::class.java -> { m -> HashMap(capacityOf(m.size)) }
+            LinkedHashMap::class.java -> { m -> LinkedHashMap(capacityOf(m.size)) }
+            TreeMap::class.java -> { m -> TreeMap((m as SortedMap<Any?, Any?>).comparator()) }
+            ConcurrentHashMap::class.java -> { m -> ConcurrentHashMap<Any?, Any?>(capacityOf(m.size)) }
+            EnumMap::class.java -> { m -> m.asAny<EnumMap<*, *>>().clone().apply { clear() }.asAny() }
+            else -> {
+                val constructor = noArgConstructorOrNull(type)
+                when {
+                    constructor !== null -> { _ -> constructor.newInstance().asAny() }
+                    SortedMap::class.java.isAssignableFrom(type) -> { m ->
+                        TreeMap((m as SortedMap<Any?, Any?>).comparator())
+                    }
+                    else -> { m -> LinkedHashMap(capacityOf(m.size)) }
+                }
+            }
+        }
+    }
+
+    /**
+     * Copiers are cached as values of a [ClassValue] of [copier], so they must not refer to [copier] itself, or
+     * [copier] will never be collected; they copy members through [copy] of this context instead.
+     */
+    private class CopyContext(private val copier: DeepCopier) {
+
+        val copies: IdentityHashMap<Any, Any> = IdentityHashMap()
+
+        /**
+         * Objects whose copies are being filled.
+         */
+        val inProgress: IdentityHashMap<Any, Any> = IdentityHashMap()
+
+        /**
+         * Fills of sets and maps which are deferred after whole graph is copied.
+         */
+        val pendingFills: MutableList<() -> Unit> = ArrayList()
+
+        fun isInProgress(value: Any?): Boolean {
+            return value !== null && inProgress.containsKey(value)
+        }
+
+        fun copy(value: Any?): Any? {
+            return copier.copyValue(value, this)
+        }
+    }
+
+    private abstract class TypeCopier {
+
+        /**
+         * Copies [obj], the copy should be put into copies of [context] before copying its members if possible.
+         */
+        abstract fun copy(obj: Any, context: CopyContext): Any
+    }
+
+    private object SharedCopier : TypeCopier() {
+        override fun copy(obj: Any, context: CopyContext): Any {
+            return obj
+        }
+    }
+
+    private object PrimitiveArrayCopier : TypeCopier() {
+        override fun copy(obj: Any, context: CopyContext): Any {
+            val copy: Any = when (obj) {
+                is BooleanArray -> obj.clone()
+                is ByteArray -> obj.clone()
+                is ShortArray -> obj.clone()
+                is CharArray -> obj.clone()
+                is IntArray -> obj.clone()
+                is LongArray -> obj.clone()
+                is FloatArray -> obj.clone()
+                is DoubleArray -> obj.clone()
+                else -> throw IllegalArgumentException("Not a primitive array: ${obj.javaClass}")
+            }
+            context.copies[obj] = copy
+            return copy
+        }
+    }
+
+    private object EnumSetCopier : TypeCopier() {
+        override fun copy(obj: Any, context: CopyContext): Any {
+            val copy = obj.asAny<EnumSet<*>>().clone()
+            context.copies[obj] = copy
+            return copy
+        }
+    }
+
+    private class ObjectArrayCopier(private val componentType: Class<*>) : TypeCopier() {
+        override fun copy(obj: Any, context: CopyContext): Any {
+            val array = obj.asAny<Array<Any?>>()
+            val copy = java.lang.reflect.Array.newInstance(componentType, array.size).asAny<Array<Any?>>()
+            context.copies[obj] = copy
+            for (i in array.indices) {
+                copy[i] = context.copy(array[i])
+            }
+            return copy
+        }
+    }
+
+    private class CollectionCopier(
+        private val factory: (Collection<*>) -> MutableCollection<Any?>,
+        private val wrapper: (MutableCollection<Any?>) -> Collection<Any?>,
+    ) : TypeCopier() {
+        override fun copy(obj: Any, context: CopyContext): Any {
+            val collection = obj.asAny<Collection<*>>()
+            val copy = factory(collection)
+            val result = wrapper(copy)
+            context.copies[obj] = result
+            if (copy !is Set<*>) {
+                for (element in collection) {
+                    copy.add(context.copy(element))
+                }
+                return result
+            }
+            //Elements being filled are not hashed until whole graph is copied, and once a fill is deferred, following
+            //fills are deferred too, to keep order of filling
+            var deferred = context.pendingFills.isNotEmpty()
+            val elements = ArrayList<Any?>(collection.size)
+            for (element in collection) {
+                elements.add(context.copy(element))
+                deferred = deferred || context.isInProgress(element)
+            }
+            if (deferred) {
+                context.pendingFills.add { copy.addAll(elements) }
+            } else {
+                copy.addAll(elements)
+            }
+            return result
+        }
+    }
+
+    private class MapCopier(
+        private val factory: (Map<*, *>) -> MutableMap<Any?, Any?>,
+        private val wrapper: (MutableMap<Any?, Any?>) -> Map<Any?, Any?>,
+    ) : TypeCopier() {
+        override fun copy(obj: Any, context: CopyContext): Any {
+            val map = obj.asAny<Map<*, *>>()
+            val copy = factory(map)
+            val result = wrapper(copy)
+            context.copies[obj] = result
+            //Same as CollectionCopier
+            var deferred = context.pendingFills.isNotEmpty()
+            val entries = ArrayList<Any?>(map.size * 2)
+            for ((key, value) in map) {
+                entries.add(context.copy(key))
+                entries.add(context.copy(value))
+                deferred = deferred || context.isInProgress(key)
+            }
+            if (deferred) {
+                context.pendingFills.add { putEntries(copy, entries) }
+            } else {
+                putEntries(copy, entries)
+            }
+            return result
+        }
+
+        private fun putEntries(copy: MutableMap<Any?, Any?>, entries: List<Any?>) {
+            for (i in entries.indices step 2) {
+                copy[entries[i]] = entries[i + 1]
+            }
+        }
+    }
+
+    private object ArraysListCopier : TypeCopier() {
+        override fun copy(obj: Any, context: CopyContext): Any {
+            val list = obj.asAny<List<*>>()
+            val copy: MutableList<Any?> = Arrays.asList(*arrayOfNulls<Any?>(list.size))
+            context.copies[obj] = copy
+            for (i in list.indices) {
+                copy[i] = context.copy(list[i])
+            }
+            return copy
+        }
+    }
+
+    private object ImmutableCollectionCopier : TypeCopier() {
+        override fun copy(obj: Any, context: CopyContext): Any {
+            val collection = obj.asAny<ImmutableCollection<Any>>()
+            val elements = ArrayList<Any>(collection.size)
+            for (element in collection) {
+                elements.add(context.copy(element)!!)
+                if (collection !is ImmutableList<*> && context.isInProgress(element)) {
+                    throw IllegalStateException(
+                        "Element of ${obj.javaClass.name} is being copied and can't be hashed: ${element.javaClass}"
+                    )
+                }
+            }
+            val copy: Any = when (collection) {
+                is ImmutableSortedSet<*> -> ImmutableSortedSet.copyOf(
+                    collection.comparator().asAny<Comparator<Any>>(), elements
+                )
+                is ImmutableSet<*> -> ImmutableSet.copyOf(elements)
+                is ImmutableSortedMultiset<*> -> ImmutableSortedMultiset.copyOf(
+                    collection.comparator().asAny<Comparator<Any>>(), elements
+                )
+                is ImmutableMultiset<*> -> ImmutableMultiset.copyOf(elements)
+                else -> ImmutableList.copyOf(elements)
+            }
+            context.copies[obj] = copy
+            return copy
+        }
+    }
+
+    private object ImmutableMapCopier : TypeCopier() {
+        override fun copy(obj: Any, context: CopyContext): Any {
+            val map = obj.asAny<ImmutableMap<Any, Any>>()
+            val entries = LinkedHashMap<Any, Any>(capacityOf(map.size))
+            for ((key, value) in map) {
+                val keyCopy = context.copy(key)!!
+                if (context.isInProgress(key)) {
+                    throw IllegalStateException(
+                        "Key of ${obj.javaClass.name} is being copied and can't be hashed: ${key.javaClass}"
+                    )
+                }
+                entries[keyCopy] = context.copy(value)!!
+            }
+            val copy: Any = when (map) {
+                is ImmutableSortedMap<*, *> -> ImmutableSortedMap.copyOf(
+                    entries, map.comparator().asAny<Comparator<Any>>()
+                )
+                else -> ImmutableMap.copyOf(entries)
+            }
+            context.copies[obj] = copy
+            return copy
+        }
+    }
+
+    private class BeanCopier(type: Class<*>, beanResolver: BeanResolver) : TypeCopier() {
+
+        private val constructor: Constructor<*>? = noArgConstructorOrNull(type)
+        private val properties: Array<PropertyType> = beanResolver.resolve(type).properties.values
+            .filter { it.isReadable && it.isWriteable }
+            .toTypedArray()
+
+        override fun copy(obj: Any, context: CopyContext): Any {
+            val constructor = this.constructor
+                ?: throw IllegalStateException("Deep copy needs a no-arg constructor: ${obj.javaClass}")
+            val copy = constructor.newInstance()
+            context.copies[obj] = copy
+            for (property in properties) {
+                property.setValue(copy, context.copy(property.getValue(obj)))
+            }
+            return copy
+        }
+    }
+
+    companion object {
+
+        /**
+         * Immutable types shared by default, in addition to enums and types of `java.time`.
+         */
+        @JvmField
+        val DEFAULT_IMMUTABLE_TYPES: Set<Class<*>> = setOf(
+            String::class.java,
+            Boolean::class.javaObjectType,
+            Byte::class.javaObjectType,
+            Short::class.javaObjectType,
+            Char::class.javaObjectType,
+            Int::class.javaObjectType,
+            Long::class.javaObjectType,
+            Float::class.javaObjectType,
+            Double::class.javaObjectType,
+            BigInteger::class.java,
+            BigDecimal::class.java,
+            UUID::class.java,
+            Locale::class.java,
+            Class::class.java,
+            Any::class.java,
+        )
+
+        @JvmField
+        val DEFAULT: DeepCopier = DeepCopier()
+
+        private const val EMPTY_PREFIX = "java.util.Collections\$Empty"
+        private const val ARRAYS_LIST_NAME = "java.util.Arrays\$ArrayList"
+        private val UNMODIFIABLE_PREFIXES = arrayOf(
+            "java.util.Collections\$Unmodifiable",
+            "java.util.Collections\$Singleton",
+            "java.util.ImmutableCollections\$",
+        )
+
+        private fun noArgConstructorOrNull(type: Class<*>): Constructor<*>? {
+            return try {
+                val constructor = type.getDeclaredConstructor()
+                constructor.isAccessible = true
+                constructor
+            } catch (e: Exception) {
+                null
+            }
+        }
+
+        private fun capacityOf(size: Int): Int {
+            return maxOf((size / 0.75f).toInt() + 1, 16)
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package xyz.srclab.common.bean
+
+import xyz.srclab.common.invoke.Invoker
+import xyz.srclab.common.lang.asAny
+import java.io.BufferedInputStream
+import java.io.DataInputStream
+import java.io.IOException
+import java.lang.invoke.MethodHandle
+import java.lang.invoke.MethodHandles
+import java.lang.invoke.MethodType
+import java.lang.reflect.Field
+import java.lang.reflect.Method
+import java.lang.reflect.Modifier
+
+/**
+ * Direct field access for [FieldStyleBeanResolveHandler].
+ *
+ * Field getters and setters are method handles adapted to `(Object)Object` and `(Object, Object)Object`, so that they
+ * are called by `invokeExact` without reflective argument boxing.
+ */
+internal object FieldAccessors {
+
+    private val GETTER_TYPE: MethodType = MethodType.methodType(Any::class.java, Any::class.java)
+    private val SETTER_TYPE: MethodType = MethodType.methodType(Any::class.java, Any::class.java, Any::class.java)
+
+    /**
+     * Returns getter of [field], or null if [field] is not accessible.
+     */
+    fun getterOrNull(field: Field): Invoker? {
+        return try {
+            field.isAccessible = true
+            FieldGetter(MethodHandles.lookup().unreflectGetter(field).asType(GETTER_TYPE), field)
+        } catch (e: Exception) {
+            null
+        }
+    }
+
+    /**
+     * Returns setter of [field], or null if [field] is not accessible.
+     */
+    fun setterOrNull(field: Field): Invoker? {
+        return try {
+            field.isAccessible = true
+            FieldSetter(MethodHandles.lookup().unreflectSetter(field).asType(SETTER_TYPE))
+        } catch (e: Exception) {
+            null
+        }
+    }
+
+    /**
+     * Returns the accessible field read by [getter] if [getter] is returned by [getterOrNull], else null.
+     */
+    fun fieldOf(getter: Invoker?): Field? {
+        return if (getter is FieldGetter) getter.field else null
+    }
+
+    private class FieldGetter(private val handle: MethodHandle, val field: Field) : Invoker {
+
+        override fun <T> invokeWith(`object`: Any?, force: Boolean, vararg args: Any?): T {
+            val value = handle.invokeExact(`object`) as Any?
+            return value.asAny()
+        }
+    }
+
+    private class FieldSetter(private val handle: MethodHandle) : Invoker {
+
+        override fun <T> invokeWith(`object`: Any?, force: Boolean, vararg args: Any?): T {
+            val value = handle.invokeExact(`object`, args[0]) as Any?
+            return value.asAny()
+        }
+    }
+}
+
+/**
+ * Finds trivial accessors from class file: a getter whose code is only `aload_0; getfield; xreturn`, or a setter whose
+ * code is only `aload_0; xload_1; putfield; return`, and the field is declared in the same class.
+ */
+internal object TrivialAccessors {
+
+    private const val ACC_STATIC = 0x0008
+
+    //iload_1, lload_1, fload_1, dload_1, aload_1
+    private val LOAD_1 = intArrayOf(0x1b, 0x1f, 0x23, 0x27, 0x2b)
+
+    /**
+     * Returns map of method (name + descriptor) to field name of trivial accessors declared in [type]. Returns empty
+     * map if class file of [type] is not available.
+     */
+    fun scan(type: Class<*>): Map<String, String> {
+        val input = type.getResourceAsStream("/" + type.name.replace('.', '/') + ".class") ?: return emptyMap()
+        return try {
+            DataInputStream(BufferedInputStream(input)).use { read(it) }
+        } catch (e: IOException) {
+            emptyMap()
+        }
+    }
+
+    fun descriptorOf(method: Method): String {
+        val builder = StringBuilder("(")
+        for (parameterType in method.parameterTypes) {
+            builder.append(descriptorOf(parameterType))
+        }
+        return builder.append(')').append(descriptorOf(method.returnType)).toString()
+    }
+
+    private fun descriptorOf(type: Class<*>): String {
+        return when {
+            type == Void.TYPE -> "V"
+            type == Boolean::class.javaPrimitiveType -> "Z"
+            type == Byte::class.javaPrimitiveType -> "B"
+            type == Char::class.javaPrimitiveType -> "C"
+            type == Short::class.javaPrimitiveType -> "S"
+            type == Int::class.javaPrimitiveType -> "I"
+            type == Long::class.javaPrimitiveType -> "J"
+            type == Float::class.javaPrimitiveType -> "F"
+            type == Double::class.javaPrimitiveType -> "D"
+            type.isArray -> type.name.replace('.', '/')
+            else -> "L" + type.name.replace('.', '/') + ";"
+        }
+    }
+
+    private fun read(input: DataInputStream): Map<String, String> {
+        if (input.readInt() != 0xCAFEBABE.toInt()) {
+            return emptyMap()
+        }
+        //minor and major version
+        input.readInt()
+
+        //Constant pool: utf8 strings, and indexes of other entries (two indexes are packed into one int)
+        val constantCount = input.readUnsignedShort()
+        val utf8s = arrayOfNulls<String>(constantCount)
+        val refs = IntArray(constantCount)
+        var i = 1
+        while (i < constantCount) {
+            when (input.readUnsignedByte()) {
+                1 -> utf8s[i] = input.readUTF()
+                7, 8, 16, 19, 20 -> refs[i] = input.readUnsignedShort()
+                3, 4 -> input.readInt()
+                5, 6 -> {
+                    input.readLong()
+                    i++
+                }
+                9, 10, 11, 12, 17, 18 -> refs[i] = (input.readUnsignedShort() shl 16) or input.readUnsignedShort()
+                15 -> {
+                    input.readUnsignedByte()
+                    input.readUnsignedShort()
+                }
+                else -> return emptyMap()
+            }
+            i++
+        }
+
+        //access flags
+        input.readUnsignedShort()
+        val thisName = utf8s[refs[input.readUnsignedShort()]]
+        //super class
+        input.readUnsignedShort()
+        skipFully(input, input.readUnsignedShort() * 2)
+        val fieldCount = input.readUnsignedShort()
+        for (f in 0 until fieldCount) {
+            skipFully(input, 6)
+            skipAttributes(input)
+        }
+
+        val result: MutableMap<String, String> = HashMap()
+        val methodCount = input.readUnsignedShort()
+        for (m in 0 until methodCount) {
+            val access = input.readUnsignedShort()
+            val name = utf8s[input.readUnsignedShort()]
+            val descriptor = utf8s[input.readUnsignedShort()]
+            val attributeCount = input.readUnsignedShort()
+            for (a in 0 until attributeCount) {
+                val attributeName = utf8s[input.readUnsignedShort()]
+                val length = input.readInt()
+                if (attributeName != "Code" || (access and ACC_STATIC) != 0) {
+                    skipFully(input, length)
+                    continue
+                }
+                val code = ByteArray(length)
+                input.readFully(code)
+                val fieldRef = trivialFieldRef(code) ?: continue
+                val ref = refs[fieldRef]
+                if (utf8s[refs[ref ushr 16]] != thisName) {
+                    continue
+                }
+                val fieldName = utf8s[refs[ref and 0xffff] ushr 16] ?: continue
+                result[name + descriptor] = fieldName
+            }
+        }
+        return result
+    }
+
+    /**
+     * Returns constant index of field ref if [attribute] (a Code attribute) is a trivial getter or setter.
+     */
+    private fun trivialFieldRef(attribute: ByteArray): Int? {
+        //max_stack: u2, max_locals: u2, code_length: u4, code
+        if (attribute.size < 8) {
+            return null
+        }
+        val codeLength = (u2(attribute, 4) shl 16) or u2(attribute, 6)
+        if (codeLength == 5
+            && u1(attribute, 8) == 0x2a
+            && u1(attribute, 9) == 0xb4
+            && u1(attribute, 12) in 0xac..0xb0
+        ) {
+            return u2(attribute, 10)
+        }
+        if (codeLength == 6
+            && u1(attribute, 8) == 0x2a
+            && u1(attribute, 9) in LOAD_1
+            && u1(attribute, 10) == 0xb5
+            && u1(attribute, 13) == 0xb1
+        ) {
+            return u2(attribute, 11)
+        }
+        return null
+    }
+
+    private fun skipAttributes(input: DataInputStream) {
+        val attributeCount = input.readUnsignedShort()
+        for (a in 0 until attributeCount) {
+            input.readUnsignedShort()
+            skipFully(input, input.readInt())
+        }
+    }
+
+    private fun skipFully(input: DataInputStream, length: Int) {
+        var remaining = length
+        while (remaining > 0) {
+            val skipped = input.skipBytes(remaining)
+            if (skipped <= 0) {
+                input.readByte()
+                remaining--
+            } else {
+                remaining -= skipped
+            }
+        }
+    }
+
+    private fun u1(bytes: ByteArray, index: Int): Int {
+        return bytes[index].toInt() and 0xff
+    }
+
+    private fun u2(bytes: ByteArray, index: Int): Int {
+        return (u1(bytes, index) shl 8) or u1(bytes, index + 1)
+    }
+
+    /**
+     * Returns whether [method] can't be overridden, so its code is what will be called on any instance.
+     */
+    fun isNotOverridable(method: Method): Boolean {
+        return Modifier.isFinal(method.modifiers) || Modifier.isFinal(method.declaringClass.modifiers)
+    }
+}
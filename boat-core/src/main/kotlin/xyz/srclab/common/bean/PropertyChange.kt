@@ -0,0 +1,42 @@
+package xyz.srclab.common.bean
+
+/**
+ * Change of a property between old and new beans.
+ *
+ * @see diff
+ */
+class PropertyChange(
+    @get:JvmName("propertyType")
+    val propertyType: PropertyType,
+    @get:JvmName("oldValue")
+    val oldValue: Any?,
+    @get:JvmName("newValue")
+    val newValue: Any?,
+) {
+
+    @get:JvmName("name")
+    val name: String
+        get() = propertyType.name
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is PropertyChange) return false
+
+        if (name != other.name) return false
+        if (oldValue != other.oldValue) return false
+        if (newValue != other.newValue) return false
+
+        return true
+    }
+
+    override fun hashCode(): Int {
+        var result = name.hashCode()
+        result = 31 * result + (oldValue?.hashCode() ?: 0)
+        result = 31 * result + (newValue?.hashCode() ?: 0)
+        return result
+    }
+
+    override fun toString(): String {
+        return "$name: $oldValue -> $newValue"
+    }
+}
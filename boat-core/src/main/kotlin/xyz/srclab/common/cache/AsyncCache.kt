@@ -0,0 +1,132 @@
+package xyz.srclab.common.cache
+
+import xyz.srclab.common.run.Runner
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+
+/**
+ * Asynchronous cache, values are loaded on a [Runner] and returned as [CompletableFuture].
+ *
+ * Concurrent [getAsync] calls for a same absent key share one in-flight load, and a future completed exceptionally
+ * will be removed from the cache, so next call will load again.
+ *
+ * @see CaffeineAsyncCache
+ * @see MapAsyncCache
+ */
+interface AsyncCache<K : Any, V> {
+
+    /**
+     * Returns future of value of [key], or null if there is neither cached value nor in-flight load.
+     */
+    fun getIfPresent(key: K): CompletableFuture<V>?
+
+    /**
+     * Returns future of value of [key], if it is absent, load it by [loader] asynchronously.
+     */
+    fun getAsync(key: K, loader: (K) -> V): CompletableFuture<V>
+
+    fun put(key: K, value: V)
+
+    fun invalidate(key: K)
+
+    fun invalidateAll()
+
+    companion object {
+
+        /**
+         * Returns a new [MapAsyncCache] backed by [ConcurrentHashMap].
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun <K : Any, V> newMapAsyncCache(runner: Runner = Runner.ASYNC_RUNNER): AsyncCache<K, V> {
+            return MapAsyncCache(ConcurrentHashMap(), runner)
+        }
+    }
+}
+
+/**
+ * [AsyncCache] backed by Caffeine's [com.github.benmanes.caffeine.cache.AsyncCache].
+ */
+open class CaffeineAsyncCache<K : Any, V>(
+    private val caffeine: com.github.benmanes.caffeine.cache.AsyncCache<K, V>,
+    private val runner: Runner,
+) : AsyncCache<K, V> {
+
+    override fun getIfPresent(key: K): CompletableFuture<V>? {
+        return caffeine.getIfPresent(key)
+    }
+
+    override fun getAsync(key: K, loader: (K) -> V): CompletableFuture<V> {
+        return caffeine.get(key) { k, _ -> CompletableFuture.supplyAsync({ loader(k) }, runner) }
+    }
+
+    override fun put(key: K, value: V) {
+        caffeine.put(key, CompletableFuture.completedFuture(value))
+    }
+
+    override fun invalidate(key: K) {
+        caffeine.synchronous().invalidate(key)
+    }
+
+    override fun invalidateAll() {
+        caffeine.synchronous().invalidateAll()
+    }
+}
+
+/**
+ * [AsyncCache] backed by a [ConcurrentMap] of futures.
+ *
+ * Unlike [MapCache.getOrLoad], loader is never run inside the map's lock, it is run on [runner] after the future has
+ * been published into the map.
+ */
+open class MapAsyncCache<K : Any, V>(
+    private val map: ConcurrentMap<K, CompletableFuture<V>>,
+    private val runner: Runner,
+) : AsyncCache<K, V> {
+
+    override fun getIfPresent(key: K): CompletableFuture<V>? {
+        return map[key]
+    }
+
+    override fun getAsync(key: K, loader: (K) -> V): CompletableFuture<V> {
+        val present = map[key]
+        if (present !== null) {
+            return present
+        }
+        val future = CompletableFuture<V>()
+        val old = map.putIfAbsent(key, future)
+        if (old !== null) {
+            return old
+        }
+        future.whenComplete { _, e ->
+            if (e !== null) {
+                map.remove(key, future)
+            }
+        }
+        try {
+            runner.execute {
+                try {
+                    future.complete(loader(key))
+                } catch (e: Throwable) {
+                    future.completeExceptionally(e)
+                }
+            }
+        } catch (e: Throwable) {
+            future.completeExceptionally(e)
+        }
+        return future
+    }
+
+    override fun put(key: K, value: V) {
+        map[key] = CompletableFuture.completedFuture(value)
+    }
+
+    override fun invalidate(key: K) {
+        map.remove(key)
+    }
+
+    override fun invalidateAll() {
+        map.clear()
+    }
+}
@@ -2,11 +2,15 @@ package xyz.srclab.common.cache
 
 import com.github.benmanes.caffeine.cache.Caffeine
 import com.google.common.cache.RemovalListener
+import com.google.common.cache.Weigher
 import com.google.common.collect.MapMaker
 import xyz.srclab.common.lang.CachingProductBuilder
 import xyz.srclab.common.lang.Defaults
 import xyz.srclab.common.lang.asAny
+import xyz.srclab.common.run.Runner
+import java.nio.file.Path
 import java.time.Duration
+import java.util.concurrent.Executor
 import com.github.benmanes.caffeine.cache.RemovalCause as caffeineRemovalCause
 import com.google.common.cache.RemovalCause as guavaRemovalCause
 
@@ -63,12 +67,33 @@ interface Cache<K : Any, V> {
         return resultMap.toMap()
     }
 
+    /**
+     * Returns values of [keys], absent keys will be loaded by [loader] in one batch call, and loaded values will be
+     * put into this cache.
+     */
     @JvmDefault
     fun getAll(keys: Iterable<K>, loader: (Iterable<K>) -> Map<K, V>): Map<K, V> {
-        val resultMap = mutableMapOf<K, V>()
-        getPresent(resultMap, keys)
-        resultMap.putAll(loader(keys.minus(resultMap.keys)))
-        return resultMap.toMap()
+        val thisAs = this.asAny<Cache<K, Any>>()
+        val resultMap = LinkedHashMap<K, V>()
+        val missingKeys = LinkedHashSet<K>()
+        for (key in keys) {
+            val value = thisAs.getOrElse(key, NotFound)
+            if (value === NotFound) {
+                missingKeys.add(key)
+            } else {
+                resultMap[key] = value.asAny()
+            }
+        }
+        if (missingKeys.isEmpty()) {
+            return resultMap
+        }
+        val loaded = loader(missingKeys)
+        for (key in missingKeys) {
+            val value = loaded[key] ?: continue
+            put(key, value)
+            resultMap[key] = value
+        }
+        return resultMap
     }
 
     private fun getPresent(destination: MutableMap<K, V>, keys: Iterable<K>) {
@@ -109,6 +134,71 @@ interface Cache<K : Any, V> {
 
     fun cleanUp()
 
+    /**
+     * Returns snapshot of statistics of this cache, or [CacheStats.EMPTY] if this cache does not record stats.
+     *
+     * @see Builder.recordStats
+     */
+    @JvmDefault
+    fun stats(): CacheStats {
+        return CacheStats.EMPTY
+    }
+
+    /**
+     * Performs [action] for each present entry, with its remaining time to live, or null if it never expires or the
+     * cache cannot tell.
+     *
+     * This is optional, default implementation throws [UnsupportedOperationException]. All caches of this package
+     * support it.
+     */
+    @JvmDefault
+    fun forEachEntry(action: (K, V, Duration?) -> Unit) {
+        throw UnsupportedOperationException("forEachEntry")
+    }
+
+    /**
+     * Returns whether [key] is present, without notifying listeners, recording stats or affecting eviction.
+     *
+     * Default implementation is [getOrNull], which may have these effects, implementations should override it.
+     */
+    @JvmDefault
+    fun containsKey(key: K): Boolean {
+        return getOrNull(key) !== null
+    }
+
+    /**
+     * Puts [value] of [key] if [key] is absent, returns whether it is put. This is a quiet write to restore entries,
+     * such as by [Builder.warmFrom]: listeners are not notified and stats are not recorded.
+     *
+     * The entry expires after [expiry], or by default expiry of this cache if [expiry] is null or this cache does not
+     * support expiry of each entry.
+     *
+     * Default implementation puts if [containsKey] returns false, it is not atomic and not quiet, implementations
+     * should override it.
+     */
+    @JvmDefault
+    fun restore(key: K, value: V, expiry: Duration?): Boolean {
+        if (containsKey(key)) {
+            return false
+        }
+        if (expiry === null) {
+            put(key, value)
+        } else {
+            put(key, value, expiry)
+        }
+        return true
+    }
+
+    /**
+     * Writes present entries and their remaining time to live into snapshot file [path], which can be loaded by
+     * [Builder.warmFrom]. [UnsupportedOperationException] will be thrown if this cache does not support
+     * [forEachEntry].
+     */
+    @JvmDefault
+    fun snapshotTo(path: Path, keyCodec: CacheCodec<K>, valueCodec: CacheCodec<V>) {
+        CacheSnapshots.write(this, path, keyCodec, valueCodec)
+    }
+
     private object NotFound
 
     /**
@@ -118,6 +208,8 @@ interface Cache<K : Any, V> {
 
         private var initialCapacity: Int? = null
         private var maxSize: Long? = null
+        private var maxWeight: Long? = null
+        private var weigher: ((K, V) -> Int)? = null
         private var concurrencyLevel: Int? = null
         private var expireAfterAccess: Duration? = null
         private var expireAfterWrite: Duration? = null
@@ -127,7 +219,12 @@ interface Cache<K : Any, V> {
         private var readListener: CacheReadListener<in K, in V>? = null
         private var updateListener: CacheUpdateListener<in K, in V>? = null
         private var removeListener: CacheRemoveListener<in K, in V>? = null
+        private var recordStats = false
+        private var variableExpiry = false
         private var useGuava = false
+        private var tier: (() -> Cache<K, V>)? = null
+        private var refreshAhead: ((Cache<K, V>, (K) -> V) -> RefreshAheadCache<K, V>)? = null
+        private var warmUp: ((Cache<K, V>) -> Unit)? = null
 
         fun initialCapacity(initialCapacity: Int): Builder<K, V> {
             this.initialCapacity = initialCapacity
@@ -141,6 +238,29 @@ interface Cache<K : Any, V> {
             return this
         }
 
+        /**
+         * Sets max total weight of entries, weight of each entry is computed by [weigher]. If [weigher] is not set,
+         * entries are weighed by estimated bytes of [SizeEstimator.DEFAULT], so the cache is limited by memory budget.
+         *
+         * Max weight cannot be set together with [maxSize].
+         */
+        fun maxWeight(maxWeight: Long): Builder<K, V> {
+            this.maxWeight = maxWeight
+            this.commitModification()
+            return this
+        }
+
+        /**
+         * Sets weigher to compute weight of entries, only used with [maxWeight].
+         *
+         * @see SizeEstimator.toWeigher
+         */
+        fun weigher(weigher: (K, V) -> Int): Builder<K, V> {
+            this.weigher = weigher
+            this.commitModification()
+            return this
+        }
+
         fun concurrencyLevel(concurrencyLevel: Int): Builder<K, V> {
             this.concurrencyLevel = concurrencyLevel
             this.commitModification()
@@ -195,6 +315,107 @@ interface Cache<K : Any, V> {
             return this
         }
 
+        /**
+         * Sets whether Caffeine cache supports expiry of each entry, such as [Cache.put] with expiry and [Cache.expiry].
+         * If enabled, [expireAfterWrite] is applied as default expiry of each entry; it is ignored if
+         * [expireAfterAccess] is set. It is also enabled by [warmFrom] to keep remaining time to live.
+         *
+         * Default is false: expiry of each entry needs timer wheel of Caffeine, which costs on each write.
+         */
+        fun variableExpiry(variableExpiry: Boolean): Builder<K, V> {
+            this.variableExpiry = variableExpiry
+            this.commitModification()
+            return this
+        }
+
+        /**
+         * Sets whether to record hit, miss, load and eviction statistics, which can be read by [Cache.stats].
+         */
+        fun recordStats(recordStats: Boolean): Builder<K, V> {
+            this.recordStats = recordStats
+            this.commitModification()
+            return this
+        }
+
+        /**
+         * Enables refresh-ahead: entries older than [refreshAfter] are reloaded by [loader] on [runner] when they are
+         * read, stale values are returned while reloading, then [build] returns a [RefreshAheadCache]. Unlike
+         * [refreshAfterWrite], reads never block on reloading, failed reloads keep old values and are retried with
+         * backoff from [failureBackoff], and at most [maxConcurrentRefreshes] reloads run at same time.
+         *
+         * [loader] must be set if refresh-ahead is enabled.
+         */
+        @JvmOverloads
+        fun refreshAhead(
+            refreshAfter: Duration,
+            runner: Runner = Runner.ASYNC_RUNNER,
+            maxConcurrentRefreshes: Int = 16,
+            failureBackoff: Duration = Duration.ofSeconds(1),
+        ): Builder<K, V> {
+            this.refreshAhead = { cache, loader ->
+                RefreshAheadCache(cache, loader, refreshAfter, runner, maxConcurrentRefreshes, failureBackoff)
+            }
+            this.commitModification()
+            return this
+        }
+
+        /**
+         * Loads entries of snapshot file [path], written by [Cache.snapshotTo], into each built cache by
+         * [Cache.restore]. Expired entries are skipped, entries which have been present in the cache are not
+         * overwritten, and remaining time to live is kept if the cache supports expiry of each entry (Caffeine cache
+         * without [expireAfterAccess], see [variableExpiry]).
+         *
+         * If [runner] is null, entries are loaded before [build] returns, else they are loaded on [runner] while the
+         * cache is serving. Nothing is loaded if [path] does not exist.
+         */
+        @JvmOverloads
+        fun warmFrom(
+            path: Path,
+            keyCodec: CacheCodec<K>,
+            valueCodec: CacheCodec<V>,
+            runner: Runner? = null,
+        ): Builder<K, V> {
+            this.warmUp = { cache ->
+                if (runner === null) {
+                    CacheSnapshots.warm(cache, path, keyCodec, valueCodec)
+                } else {
+                    runner.execute { CacheSnapshots.warm(cache, path, keyCodec, valueCodec) }
+                }
+            }
+            this.commitModification()
+            return this
+        }
+
+        /**
+         * Sets [l2] as L2 behind the built cache, then [build] returns a [TieredCache]. Entries evicted from L1 by
+         * size will be demoted into L2.
+         *
+         * Note all caches built by this builder share same [l2], use [tier] with a factory to avoid it.
+         */
+        fun tier(l2: Cache<K, V>): Builder<K, V> {
+            return tier { l2 }
+        }
+
+        /**
+         * Sets factory of L2, each built cache will create its own L2 by [l2Factory].
+         *
+         * @see tier
+         */
+        fun tier(l2Factory: () -> Cache<K, V>): Builder<K, V> {
+            this.tier = l2Factory
+            this.commitModification()
+            return this
+        }
+
+        /**
+         * Adds an [OffHeapCache] of [maxBytes] as L2 behind the built cache.
+         *
+         * @see tier
+         */
+        fun offHeapTier(maxBytes: Long, valueCodec: CacheCodec<V>): Builder<K, V> {
+            return tier { OffHeapCache(maxBytes, valueCodec) }
+        }
+
         /**
          * By default, this builder will use [CaffeineCache]. If set [useGuava] to true, use [GuavaCache].
          */
@@ -205,9 +426,79 @@ interface Cache<K : Any, V> {
         }
 
         override fun buildNew(): Cache<K, V> {
-            val params = Params(
+            val cache = buildRefreshAheadOrNull() ?: buildCache(removeListener)
+            warmUp?.invoke(cache)
+            return cache
+        }
+
+        private fun buildRefreshAheadOrNull(): Cache<K, V>? {
+            val refreshAhead = this.refreshAhead ?: return null
+            val loader = this.loader ?: throw IllegalStateException("Loader must be set for refresh-ahead.")
+            val evictionListener = RefreshAheadCache.EvictionListener<K, V>(removeListener)
+            val refreshAheadCache = refreshAhead(buildCache(evictionListener), loader)
+            evictionListener.refreshAheadCache = refreshAheadCache
+            return refreshAheadCache
+        }
+
+        private fun buildCache(removeListener: CacheRemoveListener<in K, in V>?): Cache<K, V> {
+            val l2Factory = tier
+            if (l2Factory === null) {
+                val params = newParams().copy(removeListener = removeListener)
+                return if (useGuava) {
+                    buildGuavaCache(params)
+                } else {
+                    buildCaffeineCache(params)
+                }
+            }
+            val demoteListener = TieredCache.DemoteListener<K, V>(removeListener)
+            val params = newParams().copy(removeListener = demoteListener, directExecutor = true)
+            val l1 = if (useGuava) {
+                buildGuavaCache(params)
+            } else {
+                buildCaffeineCache(params)
+            }
+            val tieredCache = TieredCache(l1, l2Factory(), recordStats)
+            demoteListener.tieredCache = tieredCache
+            return tieredCache
+        }
+
+        /**
+         * Builds a new [AsyncCache] backed by Caffeine, values are loaded on [runner].
+         *
+         * Only capacity, expiry and remove listener settings are supported, [IllegalStateException] will be thrown if
+         * any other setting is set.
+         */
+        @JvmOverloads
+        fun buildAsync(runner: Runner = Runner.ASYNC_RUNNER): AsyncCache<K, V> {
+            val unsupported = when {
+                refreshAfterWrite !== null -> "refreshAfterWrite"
+                loader !== null -> "loader"
+                createListener !== null -> "createListener"
+                readListener !== null -> "readListener"
+                updateListener !== null -> "updateListener"
+                recordStats -> "recordStats"
+                useGuava -> "useGuava"
+                tier !== null -> "tier"
+                refreshAhead !== null -> "refreshAhead"
+                warmUp !== null -> "warmFrom"
+                variableExpiry -> "variableExpiry"
+                else -> null
+            }
+            if (unsupported !== null) {
+                throw IllegalStateException("Async cache doesn't support $unsupported.")
+            }
+            val params = newParams()
+            val caffeineBuilder = newCaffeineBuilder(params, params.newHooks(), false)
+            caffeineBuilder.executor(runner)
+            return CaffeineAsyncCache(caffeineBuilder.buildAsync<K, V>(), runner)
+        }
+
+        private fun newParams(): Params<K, V> {
+            return Params(
                 initialCapacity,
                 maxSize,
+                maxWeight,
+                weigher,
                 concurrencyLevel,
                 expireAfterAccess,
                 expireAfterWrite,
@@ -217,12 +508,8 @@ interface Cache<K : Any, V> {
                 readListener,
                 updateListener,
                 removeListener,
+                recordStats,
             )
-            return if (useGuava) {
-                buildGuavaCache(params)
-            } else {
-                buildCaffeineCache(params)
-            }
         }
 
         private fun buildGuavaCache(params: Params<K, V>): Cache<K, V> {
@@ -233,6 +520,11 @@ interface Cache<K : Any, V> {
             if (params.maxSize !== null) {
                 guavaBuilder.maximumSize(params.maxSize)
             }
+            if (params.maxWeight !== null) {
+                val weigher = params.weigherOrDefault()
+                guavaBuilder.maximumWeight(params.maxWeight)
+                guavaBuilder.weigher(Weigher<K, V> { key, value -> weigher(key, value) })
+            }
             if (params.concurrencyLevel !== null) {
                 guavaBuilder.concurrencyLevel(params.concurrencyLevel)
             }
@@ -245,7 +537,8 @@ interface Cache<K : Any, V> {
             if (params.refreshAfterWrite !== null) {
                 guavaBuilder.refreshAfterWrite(params.refreshAfterWrite)
             }
-            if (params.removeListener !== null) {
+            val hooks = params.newHooks()
+            if (hooks !== null && hooks.listensRemoval) {
                 guavaBuilder.removalListener(RemovalListener<K, V> { notification ->
                     val removeCause: CacheRemoveListener.Cause = when (notification.cause) {
                         guavaRemovalCause.EXPLICIT -> CacheRemoveListener.Cause.EXPLICIT
@@ -254,25 +547,48 @@ interface Cache<K : Any, V> {
                         guavaRemovalCause.EXPIRED -> CacheRemoveListener.Cause.EXPIRED
                         guavaRemovalCause.SIZE -> CacheRemoveListener.Cause.SIZE
                     }
-                    params.removeListener.afterRemove(notification.key, notification.value, removeCause)
+                    hooks.afterRemove(notification.key, notification.value, removeCause)
                 })
             }
             val loader = params.loader
             return if (loader === null) {
                 val guavaCache = guavaBuilder.build<K, V>()
-                GuavaCache(guavaCache)
+                GuavaCache(guavaCache, hooks)
             } else {
                 val loadingGuavaCache =
                     guavaBuilder.build(object : com.google.common.cache.CacheLoader<K, V>() {
                         override fun load(key: K): V {
-                            return loader(key)
+                            return if (hooks === null) loader(key) else hooks.load(key, loader)
                         }
                     })
-                GuavaLoadingCache(loadingGuavaCache)
+                GuavaLoadingCache(loadingGuavaCache, hooks)
             }
         }
 
         private fun buildCaffeineCache(params: Params<K, V>): Cache<K, V> {
+            val hooks = params.newHooks()
+            val caffeineBuilder = newCaffeineBuilder(params, hooks, variableExpiry || warmUp !== null)
+            val loader = params.loader
+            return if (loader === null) {
+                val guavaCache = caffeineBuilder.build<K, V>()
+                CaffeineCache(guavaCache, hooks)
+            } else {
+                val loadingGuavaCache = caffeineBuilder.build<K, V> { k ->
+                    if (hooks === null) loader(k) else hooks.load(k, loader)
+                }
+                CaffeineLoadingCache(loadingGuavaCache, hooks)
+            }
+        }
+
+        /**
+         * If [variableExpiry] is true and expire-after-access is not set, expire-after-write is applied by
+         * [CaffeineCache.WriteExpiry], so that expiry of each entry can be set.
+         */
+        private fun newCaffeineBuilder(
+            params: Params<K, V>,
+            hooks: CacheHooks<K, V>?,
+            variableExpiry: Boolean,
+        ): Caffeine<Any, Any> {
             val caffeineBuilder = Caffeine.newBuilder()
             if (params.initialCapacity !== null) {
                 caffeineBuilder.initialCapacity(params.initialCapacity)
@@ -280,16 +596,29 @@ interface Cache<K : Any, V> {
             if (params.maxSize !== null) {
                 caffeineBuilder.maximumSize(params.maxSize)
             }
+            if (params.maxWeight !== null) {
+                val weigher = params.weigherOrDefault()
+                caffeineBuilder.maximumWeight(params.maxWeight)
+                caffeineBuilder.weigher<K, V> { key, value -> weigher(key, value) }
+            }
             if (params.expireAfterAccess !== null) {
                 caffeineBuilder.expireAfterAccess(params.expireAfterAccess)
-            }
-            if (params.expireAfterWrite !== null) {
+                if (params.expireAfterWrite !== null) {
+                    caffeineBuilder.expireAfterWrite(params.expireAfterWrite)
+                }
+            } else if (variableExpiry) {
+                caffeineBuilder.expireAfter(CaffeineCache.WriteExpiry<K, V>(params.expireAfterWrite))
+            } else if (params.expireAfterWrite !== null) {
                 caffeineBuilder.expireAfterWrite(params.expireAfterWrite)
             }
             if (params.refreshAfterWrite !== null) {
                 caffeineBuilder.refreshAfterWrite(params.refreshAfterWrite)
             }
-            if (params.removeListener !== null) {
+            if (params.directExecutor) {
+                //Notify remove listener in caller thread
+                caffeineBuilder.executor(Executor { it.run() })
+            }
+            if (hooks !== null && hooks.listensRemoval) {
                 caffeineBuilder.removalListener<K, V> { key, value, cause ->
                     val removeCause: CacheRemoveListener.Cause = when (cause) {
                         caffeineRemovalCause.EXPLICIT -> CacheRemoveListener.Cause.EXPLICIT
@@ -298,22 +627,17 @@ interface Cache<K : Any, V> {
                         caffeineRemovalCause.EXPIRED -> CacheRemoveListener.Cause.EXPIRED
                         caffeineRemovalCause.SIZE -> CacheRemoveListener.Cause.SIZE
                     }
-                    params.removeListener.afterRemove(key.asAny(), value.asAny(), removeCause)
+                    hooks.afterRemove(key.asAny(), value.asAny(), removeCause)
                 }
             }
-            val loader = params.loader
-            return if (loader === null) {
-                val guavaCache = caffeineBuilder.build<K, V>()
-                CaffeineCache(guavaCache)
-            } else {
-                val loadingGuavaCache = caffeineBuilder.build<K, V> { k -> loader(k) }
-                CaffeineLoadingCache(loadingGuavaCache)
-            }
+            return caffeineBuilder
         }
 
         private data class Params<K, V>(
             val initialCapacity: Int? = null,
             val maxSize: Long? = null,
+            val maxWeight: Long? = null,
+            val weigher: ((K, V) -> Int)? = null,
             val concurrencyLevel: Int? = null,
             val expireAfterAccess: Duration? = null,
             val expireAfterWrite: Duration? = null,
@@ -323,7 +647,18 @@ interface Cache<K : Any, V> {
             val readListener: CacheReadListener<in K, in V>? = null,
             val updateListener: CacheUpdateListener<in K, in V>? = null,
             val removeListener: CacheRemoveListener<in K, in V>? = null,
-        )
+            val recordStats: Boolean = false,
+            val directExecutor: Boolean = false,
+        ) {
+
+            fun newHooks(): CacheHooks<K, V>? {
+                return CacheHooks.of(createListener, readListener, updateListener, removeListener, recordStats)
+            }
+
+            fun weigherOrDefault(): (K, V) -> Int {
+                return weigher ?: SizeEstimator.DEFAULT.toWeigher()
+            }
+        }
     }
 
     companion object {
@@ -343,6 +678,18 @@ interface Cache<K : Any, V> {
             return MapCache(MapMaker().concurrencyLevel(Defaults.concurrencyLevel).weakValues().makeMap())
         }
 
+        /**
+         * Returns a new [TinyLfuCache] of [maxSize], which does not depend on Caffeine or Guava.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun <K : Any, V> newTinyLfuCache(
+            maxSize: Long,
+            concurrencyLevel: Int = Defaults.concurrencyLevel,
+        ): Cache<K, V> {
+            return TinyLfuCache(maxSize, concurrencyLevel)
+        }
+
         @JvmStatic
         fun <K : Any, V> MutableMap<K, V>.toCache(): Cache<K, V> {
             return MapCache(this)
@@ -0,0 +1,36 @@
+package xyz.srclab.common.cache
+
+import xyz.srclab.common.lang.Defaults
+
+/**
+ * Codec to encode cached values (or keys) to bytes and decode them back, used by caches which store data out of heap
+ * or into files, such as [OffHeapCache].
+ */
+interface CacheCodec<T> {
+
+    fun encode(value: T): ByteArray
+
+    fun decode(bytes: ByteArray): T
+
+    companion object {
+
+        @JvmField
+        val BYTES: CacheCodec<ByteArray> = of({ it }, { it })
+
+        @JvmField
+        val STRING: CacheCodec<String> = of({ it.toByteArray(Defaults.charset) }, { String(it, Defaults.charset) })
+
+        @JvmStatic
+        fun <T> of(encoder: (T) -> ByteArray, decoder: (ByteArray) -> T): CacheCodec<T> {
+            return object : CacheCodec<T> {
+                override fun encode(value: T): ByteArray {
+                    return encoder(value)
+                }
+
+                override fun decode(bytes: ByteArray): T {
+                    return decoder(bytes)
+                }
+            }
+        }
+    }
+}
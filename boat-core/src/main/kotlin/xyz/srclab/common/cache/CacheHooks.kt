@@ -0,0 +1,154 @@
+package xyz.srclab.common.cache
+
+import java.util.concurrent.ConcurrentMap
+
+/**
+ * Listeners and stats counter of a cache built by [Cache.Builder], shared by cache backends.
+ */
+internal class CacheHooks<K : Any, V>(
+    private val createListener: CacheCreateListener<in K, in V>?,
+    private val readListener: CacheReadListener<in K, in V>?,
+    private val updateListener: CacheUpdateListener<in K, in V>?,
+    private val removeListener: CacheRemoveListener<in K, in V>?,
+    val statsCounter: CacheStatsCounter?,
+) {
+
+    val listensWrite: Boolean = createListener !== null || updateListener !== null
+
+    val listensRemoval: Boolean = removeListener !== null || statsCounter !== null
+
+    val listensExplicitRemoval: Boolean = removeListener !== null
+
+    fun beforeRead(key: K) {
+        readListener?.beforeRead(key)
+    }
+
+    fun afterRead(key: K, value: V?) {
+        if (value === null) {
+            readListener?.onMiss(key)
+            statsCounter?.recordMisses(1)
+        } else {
+            readListener?.onHit(key, value)
+            statsCounter?.recordHits(1)
+        }
+    }
+
+    fun afterRead(key: K, value: V, hit: Boolean) {
+        if (hit) {
+            readListener?.onHit(key, value)
+            statsCounter?.recordHits(1)
+        } else {
+            readListener?.onMiss(key)
+            statsCounter?.recordMisses(1)
+        }
+    }
+
+    fun recordBatchRead(hitCount: Int, missCount: Int) {
+        statsCounter?.recordHits(hitCount)
+        statsCounter?.recordMisses(missCount)
+    }
+
+    /**
+     * Loads value of [key] with [loader], calls create listener and records load time.
+     */
+    fun load(key: K, loader: (K) -> V): V {
+        createListener?.beforeCreate(key)
+        val value = timed { loader(key) }
+        createListener?.afterCreate(key, value)
+        return value
+    }
+
+    /**
+     * Loads values of [keys] with [loader] and records load time as one load.
+     */
+    fun <T> loadAll(keys: Iterable<K>, loader: (Iterable<K>) -> T): T {
+        return timed { loader(keys) }
+    }
+
+    private inline fun <T> timed(action: () -> T): T {
+        val counter = statsCounter ?: return action()
+        val startTime = System.nanoTime()
+        val result = try {
+            action()
+        } catch (e: Throwable) {
+            counter.recordLoadFailure(System.nanoTime() - startTime)
+            throw e
+        }
+        counter.recordLoadSuccess(System.nanoTime() - startTime)
+        return result
+    }
+
+    /**
+     * Puts [value] into [map], calls create listener for new key, or update listener for existed key, then calls
+     * [afterPut] if it is not null.
+     *
+     * Listeners are never called under any lock of [map]: before-listeners are called with old value read before the
+     * put, then [value] is put if the key is not changed meanwhile. If it is changed, [value] is put anyway and
+     * after-listeners are called with the actually replaced value, which may differ from the one before-listeners got.
+     */
+    fun write(key: K, value: V, map: ConcurrentMap<K, V>, afterPut: (() -> Unit)? = null) {
+        val oldValue = map[key]
+        if (oldValue === null) {
+            createListener?.beforeCreate(key)
+        } else {
+            updateListener?.beforeUpdate(key, oldValue)
+        }
+        val replaced = if (oldValue === null) {
+            map.putIfAbsent(key, value) === null
+        } else {
+            map.replace(key, oldValue, value)
+        }
+        val previous = if (replaced) oldValue else map.put(key, value)
+        afterPut?.invoke()
+        if (previous === null) {
+            createListener?.afterCreate(key, value)
+        } else {
+            updateListener?.afterUpdate(key, previous, value)
+        }
+    }
+
+    fun beforeRemove(key: K, value: V) {
+        removeListener?.beforeRemove(key, value, CacheRemoveListener.Cause.EXPLICIT)
+    }
+
+    fun afterRemove(key: K, value: V, cause: CacheRemoveListener.Cause) {
+        if (cause.isEvicted) {
+            statsCounter?.recordEviction()
+        }
+        removeListener?.afterRemove(key, value, cause)
+    }
+
+    fun stats(): CacheStats {
+        return statsCounter?.snapshot() ?: CacheStats.EMPTY
+    }
+
+    companion object {
+
+        /**
+         * Returns hooks, or null if there is neither listener nor stats counter.
+         */
+        fun <K : Any, V> of(
+            createListener: CacheCreateListener<in K, in V>?,
+            readListener: CacheReadListener<in K, in V>?,
+            updateListener: CacheUpdateListener<in K, in V>?,
+            removeListener: CacheRemoveListener<in K, in V>?,
+            recordStats: Boolean,
+        ): CacheHooks<K, V>? {
+            if (createListener === null
+                && readListener === null
+                && updateListener === null
+                && removeListener === null
+                && !recordStats
+            ) {
+                return null
+            }
+            return CacheHooks(
+                createListener,
+                readListener,
+                updateListener,
+                removeListener,
+                if (recordStats) CacheStatsCounter() else null
+            )
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package xyz.srclab.common.cache
+
+import java.io.BufferedOutputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.time.Duration
+
+/**
+ * Reads and writes cache snapshot files.
+ *
+ * A snapshot file is a header (magic and version) followed by appended records:
+ *
+ * ```
+ * keySize: int, key: bytes, valueSize: int, value: bytes, expireAt: long
+ * ```
+ *
+ * `expireAt` is epoch millis of expiration, or -1 if the entry never expires, so remaining time to live survives
+ * restarts. Files are written sequentially into a temp file then moved to target path, and read by memory-mapped
+ * windows. An incomplete last record is ignored.
+ *
+ * @see Cache.snapshotTo
+ * @see Cache.Builder.warmFrom
+ */
+internal object CacheSnapshots {
+
+    private const val MAGIC = 0x42434353
+    private const val VERSION = 1
+    private const val NO_EXPIRY = -1L
+    private const val BUFFER_SIZE = 64 * 1024
+    private const val MAX_WINDOW_SIZE = 1L shl 30
+
+    fun <K : Any, V> write(cache: Cache<K, V>, path: Path, keyCodec: CacheCodec<K>, valueCodec: CacheCodec<V>) {
+        val tempPath = path.resolveSibling("${path.fileName}.tmp")
+        try {
+            DataOutputStream(BufferedOutputStream(Files.newOutputStream(tempPath), BUFFER_SIZE)).use { output ->
+                output.writeInt(MAGIC)
+                output.writeInt(VERSION)
+                val now = System.currentTimeMillis()
+                cache.forEachEntry { key, value, expiry ->
+                    if (expiry !== null && (expiry.isNegative || expiry.isZero)) {
+                        return@forEachEntry
+                    }
+                    val keyBytes = keyCodec.encode(key)
+                    val valueBytes = valueCodec.encode(value)
+                    output.writeInt(keyBytes.size)
+                    output.write(keyBytes)
+                    output.writeInt(valueBytes.size)
+                    output.write(valueBytes)
+                    output.writeLong(if (expiry === null) NO_EXPIRY else now + expiry.toMillis())
+                }
+            }
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        } catch (e: Throwable) {
+            try {
+                Files.deleteIfExists(tempPath)
+            } catch (deleteException: IOException) {
+                e.addSuppressed(deleteException)
+            }
+            if (e is IOException) {
+                throw IllegalStateException("Write cache snapshot failed: $path", e)
+            }
+            throw e
+        }
+    }
+
+    /**
+     * Reads entries which have not expired from snapshot file [path].
+     */
+    fun <K : Any, V> read(
+        path: Path,
+        keyCodec: CacheCodec<K>,
+        valueCodec: CacheCodec<V>,
+        action: (K, V, Duration?) -> Unit,
+    ) {
+        try {
+            FileChannel.open(path, StandardOpenOption.READ).use { channel ->
+                val reader = MappedReader(channel)
+                if (!reader.ensure(8)) {
+                    return
+                }
+                if (reader.int() != MAGIC || reader.int() != VERSION) {
+                    throw IllegalStateException("Not a cache snapshot: $path")
+                }
+                val now = System.currentTimeMillis()
+                while (reader.ensure(4)) {
+                    val keySize = reader.size()
+                    if (!reader.ensure(keySize + 4L)) {
+                        break
+                    }
+                    val keyBytes = reader.bytes(keySize)
+                    val valueSize = reader.size()
+                    if (!reader.ensure(valueSize + 8L)) {
+                        break
+                    }
+                    val valueBytes = reader.bytes(valueSize)
+                    val expireAt = reader.long()
+                    if (expireAt == NO_EXPIRY) {
+                        action(keyCodec.decode(keyBytes), valueCodec.decode(valueBytes), null)
+                    } else if (expireAt > now) {
+                        action(
+                            keyCodec.decode(keyBytes),
+                            valueCodec.decode(valueBytes),
+                            Duration.ofMillis(expireAt - now)
+                        )
+                    }
+                }
+            }
+        } catch (e: IOException) {
+            throw IllegalStateException("Read cache snapshot failed: $path", e)
+        }
+    }
+
+    /**
+     * Restores entries of snapshot file [path] into [cache] by [Cache.restore] if it exists. Entries which have been
+     * present in [cache] are not overwritten.
+     */
+    fun <K : Any, V> warm(cache: Cache<K, V>, path: Path, keyCodec: CacheCodec<K>, valueCodec: CacheCodec<V>) {
+        if (!Files.exists(path)) {
+            return
+        }
+        read(path, keyCodec, valueCodec) { key, value, expiry ->
+            cache.restore(key, value, expiry)
+        }
+    }
+
+    /**
+     * Reads file by memory-mapped windows of at most [MAX_WINDOW_SIZE] bytes.
+     */
+    private class MappedReader(private val channel: FileChannel) {
+
+        private val fileSize = channel.size()
+        private var windowStart = 0L
+        private var window: MappedByteBuffer? = null
+
+        /**
+         * Makes sure next [size] bytes are mapped, returns false if there is no enough bytes in file.
+         */
+        fun ensure(size: Long): Boolean {
+            val current = window
+            if (current !== null && current.remaining() >= size) {
+                return true
+            }
+            val position = if (current === null) 0L else windowStart + current.position()
+            if (fileSize - position < size) {
+                return false
+            }
+            val windowSize = minOf(maxOf(size, MAX_WINDOW_SIZE), fileSize - position)
+            windowStart = position
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize)
+            return true
+        }
+
+        fun int(): Int {
+            return window!!.int
+        }
+
+        fun long(): Long {
+            return window!!.long
+        }
+
+        fun size(): Int {
+            val size = int()
+            if (size < 0) {
+                throw IllegalStateException("Broken cache snapshot, size: $size")
+            }
+            return size
+        }
+
+        fun bytes(size: Int): ByteArray {
+            val bytes = ByteArray(size)
+            window!!.get(bytes)
+            return bytes
+        }
+    }
+}
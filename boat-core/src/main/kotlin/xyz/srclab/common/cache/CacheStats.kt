@@ -0,0 +1,124 @@
+package xyz.srclab.common.cache
+
+import xyz.srclab.common.lang.INAPPLICABLE_JVM_NAME
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Snapshot of statistics of [Cache].
+ *
+ * @see Cache.stats
+ * @see Cache.Builder.recordStats
+ */
+class CacheStats(
+    @get:JvmName("hitCount")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val hitCount: Long,
+    @get:JvmName("missCount")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val missCount: Long,
+    @get:JvmName("loadSuccessCount")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val loadSuccessCount: Long,
+    @get:JvmName("loadFailureCount")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val loadFailureCount: Long,
+    @get:JvmName("totalLoadTimeNanos")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val totalLoadTimeNanos: Long,
+    @get:JvmName("evictionCount")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val evictionCount: Long,
+) {
+
+    @get:JvmName("requestCount")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val requestCount: Long
+        get() = hitCount + missCount
+
+    /**
+     * Returns ratio of hits, or 1.0 if there is no request.
+     */
+    @get:JvmName("hitRate")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val hitRate: Double
+        get() {
+            val requestCount = requestCount
+            return if (requestCount == 0L) 1.0 else hitCount.toDouble() / requestCount
+        }
+
+    @get:JvmName("loadCount")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val loadCount: Long
+        get() = loadSuccessCount + loadFailureCount
+
+    /**
+     * Returns average nanos of loading new values, or 0.0 if there is no load.
+     */
+    @get:JvmName("averageLoadPenaltyNanos")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val averageLoadPenaltyNanos: Double
+        get() {
+            val loadCount = loadCount
+            return if (loadCount == 0L) 0.0 else totalLoadTimeNanos.toDouble() / loadCount
+        }
+
+    override fun toString(): String {
+        return "CacheStats(hitCount=$hitCount, missCount=$missCount, loadSuccessCount=$loadSuccessCount, " +
+            "loadFailureCount=$loadFailureCount, totalLoadTimeNanos=$totalLoadTimeNanos, evictionCount=$evictionCount)"
+    }
+
+    companion object {
+
+        /**
+         * Stats of cache which does not record stats.
+         */
+        @JvmField
+        val EMPTY = CacheStats(0, 0, 0, 0, 0, 0)
+    }
+}
+
+/**
+ * Stats counter backed by [LongAdder], low overhead under contention.
+ */
+internal class CacheStatsCounter {
+
+    private val hitCount = LongAdder()
+    private val missCount = LongAdder()
+    private val loadSuccessCount = LongAdder()
+    private val loadFailureCount = LongAdder()
+    private val totalLoadTimeNanos = LongAdder()
+    private val evictionCount = LongAdder()
+
+    fun recordHits(count: Int) {
+        hitCount.add(count.toLong())
+    }
+
+    fun recordMisses(count: Int) {
+        missCount.add(count.toLong())
+    }
+
+    fun recordLoadSuccess(loadTimeNanos: Long) {
+        loadSuccessCount.increment()
+        totalLoadTimeNanos.add(loadTimeNanos)
+    }
+
+    fun recordLoadFailure(loadTimeNanos: Long) {
+        loadFailureCount.increment()
+        totalLoadTimeNanos.add(loadTimeNanos)
+    }
+
+    fun recordEviction() {
+        evictionCount.increment()
+    }
+
+    fun snapshot(): CacheStats {
+        return CacheStats(
+            hitCount.sum(),
+            missCount.sum(),
+            loadSuccessCount.sum(),
+            loadFailureCount.sum(),
+            totalLoadTimeNanos.sum(),
+            evictionCount.sum(),
+        )
+    }
+}
@@ -1,13 +1,32 @@
 package xyz.srclab.common.cache
 
+import com.github.benmanes.caffeine.cache.Expiry
+import com.github.benmanes.caffeine.cache.Policy
 import xyz.srclab.common.lang.asAny
 import java.time.Duration
+import java.util.concurrent.TimeUnit
 
-open class CaffeineCache<K : Any, V>(private val caffeine: com.github.benmanes.caffeine.cache.Cache<K, V>) :
-    Cache<K, V> {
+/**
+ * [Cache] backed by Caffeine.
+ *
+ * Expiry of each entry is supported if backing cache is built with variable expiration (such as by
+ * [Cache.Builder.variableExpiry]), otherwise expiry arguments are ignored.
+ */
+open class CaffeineCache<K : Any, V> internal constructor(
+    private val caffeine: com.github.benmanes.caffeine.cache.Cache<K, V>,
+    private val hooks: CacheHooks<K, V>?,
+) : Cache<K, V> {
+
+    constructor(caffeine: com.github.benmanes.caffeine.cache.Cache<K, V>) : this(caffeine, null)
+
+    private val varExpiration: Policy.VarExpiration<K, V>? = caffeine.policy().expireVariably().orElse(null)
 
     override fun getOrNull(key: K): V? {
-        return caffeine.getIfPresent(key)
+        val hooks = this.hooks ?: return caffeine.getIfPresent(key)
+        hooks.beforeRead(key)
+        val value = caffeine.getIfPresent(key)
+        hooks.afterRead(key, value)
+        return value
     }
 
     override fun getOrElse(key: K, defaultValue: V): V {
@@ -16,7 +35,15 @@ open class CaffeineCache<K : Any, V>(private val caffeine: com.github.benmanes.c
     }
 
     override fun getOrLoad(key: K, loader: (K) -> V): V {
-        return caffeine.get(key, loader).asAny()
+        val hooks = this.hooks ?: return caffeine.get(key, loader).asAny()
+        hooks.beforeRead(key)
+        var loaded = false
+        val value: V = caffeine.get(key) {
+            loaded = true
+            hooks.load(it, loader)
+        }.asAny()
+        hooks.afterRead(key, value, !loaded)
+        return value
     }
 
     override fun getPresent(keys: Iterable<K>): Map<K, V> {
@@ -24,66 +51,225 @@ open class CaffeineCache<K : Any, V>(private val caffeine: com.github.benmanes.c
     }
 
     override fun getAll(keys: Iterable<K>, loader: (Iterable<K>) -> Map<K, V>): Map<K, V> {
-        return caffeine.getAll(keys, loader)
+        val hooks = this.hooks ?: return caffeine.getAll(keys, loader)
+        var missCount = 0
+        val result = caffeine.getAll(keys) {
+            missCount = it.count()
+            hooks.loadAll(it, loader)
+        }
+        hooks.recordBatchRead(result.size - missCount, missCount)
+        return result
     }
 
     override fun put(key: K, value: V) {
-        caffeine.put(key, value)
+        val hooks = this.hooks
+        if (hooks === null || !hooks.listensWrite) {
+            caffeine.put(key, value)
+            return
+        }
+        hooks.write(key, value, caffeine.asMap())
     }
 
     override fun put(key: K, value: V, expirySeconds: Long) {
-        put(key, value)
+        put(key, value, Duration.ofSeconds(expirySeconds))
     }
 
     override fun put(key: K, value: V, expiry: Duration) {
-        put(key, value)
+        val varExpiration = this.varExpiration
+        if (varExpiration === null) {
+            put(key, value)
+            return
+        }
+        val nanos = expiry.toNanos()
+        val hooks = this.hooks
+        if (hooks === null || !hooks.listensWrite) {
+            varExpiration.put(key, value, nanos, TimeUnit.NANOSECONDS)
+            return
+        }
+        //Caffeine 2 can't put conditionally with a specified expiry, so expiry is set right after the put, until then
+        //the entry briefly has default expiry
+        hooks.write(key, value, caffeine.asMap()) {
+            varExpiration.setExpiresAfter(key, nanos, TimeUnit.NANOSECONDS)
+        }
     }
 
     override fun putAll(entries: Map<out K, V>) {
-        caffeine.putAll(entries)
+        val hooks = this.hooks
+        if (hooks === null || !hooks.listensWrite) {
+            caffeine.putAll(entries)
+            return
+        }
+        for (entry in entries) {
+            put(entry.key, entry.value)
+        }
     }
 
     override fun putAll(entries: Map<out K, V>, expirySeconds: Long) {
-        putAll(entries)
+        putAll(entries, Duration.ofSeconds(expirySeconds))
     }
 
     override fun putAll(entries: Map<out K, V>, expiry: Duration) {
-        putAll(entries)
+        if (varExpiration === null) {
+            putAll(entries)
+            return
+        }
+        for (entry in entries) {
+            put(entry.key, entry.value, expiry)
+        }
     }
 
     override fun expiry(key: K, expirySeconds: Long) {
+        expiry(key, Duration.ofSeconds(expirySeconds))
     }
 
     override fun expiry(key: K, expirySeconds: Duration) {
+        varExpiration?.setExpiresAfter(key, expirySeconds.toNanos(), TimeUnit.NANOSECONDS)
     }
 
     override fun expiryAll(keys: Iterable<K>, expirySeconds: Long) {
+        expiryAll(keys, Duration.ofSeconds(expirySeconds))
     }
 
     override fun expiryAll(keys: Iterable<K>, expirySeconds: Duration) {
+        val varExpiration = this.varExpiration ?: return
+        val nanos = expirySeconds.toNanos()
+        for (key in keys) {
+            varExpiration.setExpiresAfter(key, nanos, TimeUnit.NANOSECONDS)
+        }
     }
 
     override fun invalidate(key: K) {
+        val hooks = this.hooks
+        if (hooks !== null && hooks.listensExplicitRemoval) {
+            val value = caffeine.getIfPresent(key)
+            if (value !== null) {
+                hooks.beforeRemove(key, value)
+            }
+        }
         caffeine.invalidate(key)
     }
 
     override fun invalidateAll(keys: Iterable<K>) {
+        val hooks = this.hooks
+        if (hooks !== null && hooks.listensExplicitRemoval) {
+            for (entry in caffeine.getAllPresent(keys)) {
+                hooks.beforeRemove(entry.key, entry.value)
+            }
+        }
         caffeine.invalidateAll(keys)
     }
 
     override fun invalidateAll() {
+        val hooks = this.hooks
+        if (hooks !== null && hooks.listensExplicitRemoval) {
+            for (entry in caffeine.asMap()) {
+                hooks.beforeRemove(entry.key, entry.value)
+            }
+        }
         caffeine.invalidateAll()
     }
 
     override fun cleanUp() {
         caffeine.cleanUp()
     }
+
+    override fun stats(): CacheStats {
+        return hooks?.stats() ?: CacheStats.EMPTY
+    }
+
+    /**
+     * Remaining time to live is computed from variable expiration, or expire-after-write and expire-after-access
+     * policies.
+     */
+    override fun forEachEntry(action: (K, V, Duration?) -> Unit) {
+        val varExpiration = this.varExpiration
+        if (varExpiration !== null) {
+            for (entry in caffeine.asMap()) {
+                val remaining = varExpiration.getExpiresAfter(entry.key, TimeUnit.NANOSECONDS)
+                val expiry = if (!remaining.isPresent || remaining.asLong >= NEVER_EXPIRES_NANOS) null
+                else Duration.ofNanos(remaining.asLong)
+                action(entry.key, entry.value, expiry)
+            }
+            return
+        }
+        val policy = caffeine.policy()
+        val expirations = listOfNotNull(
+            policy.expireAfterWrite().orElse(null),
+            policy.expireAfterAccess().orElse(null),
+        )
+        for (entry in caffeine.asMap()) {
+            var remaining: Long? = null
+            for (expiration in expirations) {
+                val age = expiration.ageOf(entry.key, TimeUnit.NANOSECONDS)
+                if (!age.isPresent) {
+                    continue
+                }
+                val left = expiration.getExpiresAfter(TimeUnit.NANOSECONDS) - age.asLong
+                remaining = if (remaining === null) left else minOf(remaining, left)
+            }
+            action(entry.key, entry.value, if (remaining === null) null else Duration.ofNanos(remaining))
+        }
+    }
+
+    override fun containsKey(key: K): Boolean {
+        return caffeine.asMap().containsKey(key)
+    }
+
+    override fun restore(key: K, value: V, expiry: Duration?): Boolean {
+        val varExpiration = this.varExpiration
+        if (expiry === null || varExpiration === null) {
+            return caffeine.asMap().putIfAbsent(key, value) === null
+        }
+        return varExpiration.putIfAbsent(key, value, expiry.toNanos(), TimeUnit.NANOSECONDS) === null
+    }
+
+    /**
+     * Caffeine [Expiry] which expires entries [expireAfterWrite] after they are created or updated, or never if it is
+     * null. Unlike Caffeine's expire-after-write, expiry of each entry can be set by [Policy.VarExpiration].
+     */
+    internal class WriteExpiry<K, V>(expireAfterWrite: Duration?) : Expiry<K, V> {
+
+        private val nanos = expireAfterWrite?.toNanos() ?: Long.MAX_VALUE
+
+        override fun expireAfterCreate(key: K, value: V, currentTime: Long): Long {
+            return nanos
+        }
+
+        override fun expireAfterUpdate(key: K, value: V, currentTime: Long, currentDuration: Long): Long {
+            return nanos
+        }
+
+        override fun expireAfterRead(key: K, value: V, currentTime: Long, currentDuration: Long): Long {
+            return currentDuration
+        }
+    }
+
+    companion object {
+
+        /**
+         * Caffeine caps durations to about 146 years, remaining time longer than this means never expires.
+         */
+        private const val NEVER_EXPIRES_NANOS = Long.MAX_VALUE ushr 2
+    }
 }
 
-class CaffeineLoadingCache<K : Any, V>(private val caffeine: com.github.benmanes.caffeine.cache.LoadingCache<K, V>) :
-    CaffeineCache<K, V>(caffeine) {
+class CaffeineLoadingCache<K : Any, V> internal constructor(
+    private val caffeine: com.github.benmanes.caffeine.cache.LoadingCache<K, V>,
+    private val hooks: CacheHooks<K, V>?,
+) : CaffeineCache<K, V>(caffeine, hooks) {
+
+    constructor(caffeine: com.github.benmanes.caffeine.cache.LoadingCache<K, V>) : this(caffeine, null)
 
     override fun get(key: K): V {
-        return caffeine.get(key)!!
+        val hooks = this.hooks ?: return caffeine.get(key)!!
+        hooks.beforeRead(key)
+        val present = caffeine.getIfPresent(key)
+        if (present !== null) {
+            hooks.afterRead(key, present, true)
+            return present
+        }
+        val value = caffeine.get(key)!!
+        hooks.afterRead(key, value, false)
+        return value
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,86 @@
+package xyz.srclab.common.cache
+
+/**
+ * Count-min sketch of 4-bit counters, to estimate popularity of keys for TinyLFU admission.
+ *
+ * Each long of table holds 16 counters, an item is counted in 4 counters of 4 different longs. When number of
+ * increments reaches a sample size (10 times of capacity), all counters are halved, so that old popularity decays.
+ *
+ * This class is not thread-safe, caller should guard it by a lock.
+ */
+internal class FrequencySketch(capacity: Int) {
+
+    private val table: LongArray
+    private val tableMask: Int
+    private val sampleSize: Int
+    private var size = 0
+
+    init {
+        val maximum = minOf(maxOf(capacity, 1), 1 shl 30)
+        table = LongArray(Integer.highestOneBit(maximum * 2 - 1))
+        tableMask = table.size - 1
+        sampleSize = if (maximum > Int.MAX_VALUE / 10) Int.MAX_VALUE else maximum * 10
+    }
+
+    /**
+     * Returns estimated frequency of item with [hash], in 0..15.
+     */
+    fun frequency(hash: Int): Int {
+        val start = (hash and 3) shl 2
+        var frequency = Int.MAX_VALUE
+        for (i in 0..3) {
+            val index = indexOf(hash, i)
+            val count = ((table[index] ushr ((start + i) shl 2)) and 0xfL).toInt()
+            frequency = minOf(frequency, count)
+        }
+        return frequency
+    }
+
+    fun increment(hash: Int) {
+        val start = (hash and 3) shl 2
+        var added = false
+        for (i in 0..3) {
+            added = incrementAt(indexOf(hash, i), start + i) or added
+        }
+        if (added && ++size >= sampleSize) {
+            reset()
+        }
+    }
+
+    private fun incrementAt(index: Int, counter: Int): Boolean {
+        val offset = counter shl 2
+        val mask = 0xfL shl offset
+        if ((table[index] and mask) != mask) {
+            table[index] += 1L shl offset
+            return true
+        }
+        return false
+    }
+
+    private fun reset() {
+        var odd = 0
+        for (i in table.indices) {
+            odd += java.lang.Long.bitCount(table[i] and ONE_MASK)
+            table[i] = (table[i] ushr 1) and RESET_MASK
+        }
+        size = (size - (odd ushr 2)) ushr 1
+    }
+
+    private fun indexOf(hash: Int, i: Int): Int {
+        var h = (hash.toLong() + SEEDS[i]) * SEEDS[i]
+        h += h ushr 32
+        return h.toInt() and tableMask
+    }
+
+    companion object {
+
+        private val SEEDS = longArrayOf(
+            -0x3c5a37a36834ced9L,
+            -0x4b6d499041670d8dL,
+            -0x651e95c4d06fbfb1L,
+            -0x340d631b7bdddcdbL,
+        )
+        private const val RESET_MASK = 0x7777777777777777L
+        private const val ONE_MASK = 0x1111111111111111L
+    }
+}
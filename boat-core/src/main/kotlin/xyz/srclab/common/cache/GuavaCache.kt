@@ -2,10 +2,19 @@ package xyz.srclab.common.cache
 
 import java.time.Duration
 
-open class GuavaCache<K : Any, V>(private val guava: com.google.common.cache.Cache<K, V>) : Cache<K, V> {
+open class GuavaCache<K : Any, V> internal constructor(
+    private val guava: com.google.common.cache.Cache<K, V>,
+    private val hooks: CacheHooks<K, V>?,
+) : Cache<K, V> {
+
+    constructor(guava: com.google.common.cache.Cache<K, V>) : this(guava, null)
 
     override fun getOrNull(key: K): V? {
-        return guava.getIfPresent(key)
+        val hooks = this.hooks ?: return guava.getIfPresent(key)
+        hooks.beforeRead(key)
+        val value = guava.getIfPresent(key)
+        hooks.afterRead(key, value)
+        return value
     }
 
     override fun getOrElse(key: K, defaultValue: V): V {
@@ -14,7 +23,15 @@ open class GuavaCache<K : Any, V>(private val guava: com.google.common.cache.Cac
     }
 
     override fun getOrLoad(key: K, loader: (K) -> V): V {
-        return guava.get(key) { loader(key) }
+        val hooks = this.hooks ?: return guava.get(key) { loader(key) }
+        hooks.beforeRead(key)
+        var loaded = false
+        val value = guava.get(key) {
+            loaded = true
+            hooks.load(key, loader)
+        }
+        hooks.afterRead(key, value, !loaded)
+        return value
     }
 
     override fun getPresent(keys: Iterable<K>): Map<K, V> {
@@ -22,13 +39,37 @@ open class GuavaCache<K : Any, V>(private val guava: com.google.common.cache.Cac
     }
 
     override fun getAll(keys: Iterable<K>, loader: (Iterable<K>) -> Map<K, V>): Map<K, V> {
-        val resultMap = guava.getAllPresent(keys).toMutableMap()
-        resultMap.putAll(loader(keys.minus(resultMap.keys)))
-        return resultMap.toMap()
+        val present = guava.getAllPresent(keys)
+        val missingKeys = LinkedHashSet<K>()
+        for (key in keys) {
+            if (!present.containsKey(key)) {
+                missingKeys.add(key)
+            }
+        }
+        val hooks = this.hooks
+        hooks?.recordBatchRead(present.size, missingKeys.size)
+        if (missingKeys.isEmpty()) {
+            return present
+        }
+        val loaded = if (hooks === null) loader(missingKeys) else hooks.loadAll(missingKeys, loader)
+        val loadedEntries = LinkedHashMap<K, V>()
+        for (key in missingKeys) {
+            val value = loaded[key] ?: continue
+            loadedEntries[key] = value
+        }
+        putAll(loadedEntries)
+        val resultMap = LinkedHashMap<K, V>(present)
+        resultMap.putAll(loadedEntries)
+        return resultMap
     }
 
     override fun put(key: K, value: V) {
-        guava.put(key, value)
+        val hooks = this.hooks
+        if (hooks === null || !hooks.listensWrite) {
+            guava.put(key, value)
+            return
+        }
+        hooks.write(key, value, guava.asMap())
     }
 
     override fun put(key: K, value: V, expirySeconds: Long) {
@@ -40,7 +81,14 @@ open class GuavaCache<K : Any, V>(private val guava: com.google.common.cache.Cac
     }
 
     override fun putAll(entries: Map<out K, V>) {
-        guava.putAll(entries)
+        val hooks = this.hooks
+        if (hooks === null || !hooks.listensWrite) {
+            guava.putAll(entries)
+            return
+        }
+        for (entry in entries) {
+            put(entry.key, entry.value)
+        }
     }
 
     override fun putAll(entries: Map<out K, V>, expirySeconds: Long) {
@@ -64,26 +112,82 @@ open class GuavaCache<K : Any, V>(private val guava: com.google.common.cache.Cac
     }
 
     override fun invalidate(key: K) {
+        val hooks = this.hooks
+        if (hooks !== null && hooks.listensExplicitRemoval) {
+            val value = guava.getIfPresent(key)
+            if (value !== null) {
+                hooks.beforeRemove(key, value)
+            }
+        }
         guava.invalidate(key)
     }
 
     override fun invalidateAll(keys: Iterable<K>) {
+        val hooks = this.hooks
+        if (hooks !== null && hooks.listensExplicitRemoval) {
+            for (entry in guava.getAllPresent(keys)) {
+                hooks.beforeRemove(entry.key, entry.value)
+            }
+        }
         guava.invalidateAll(keys)
     }
 
     override fun invalidateAll() {
+        val hooks = this.hooks
+        if (hooks !== null && hooks.listensExplicitRemoval) {
+            for (entry in guava.asMap()) {
+                hooks.beforeRemove(entry.key, entry.value)
+            }
+        }
         guava.invalidateAll()
     }
 
     override fun cleanUp() {
         guava.cleanUp()
     }
+
+    override fun stats(): CacheStats {
+        return hooks?.stats() ?: CacheStats.EMPTY
+    }
+
+    /**
+     * Guava cache does not expose ages of entries, remaining time to live is always null.
+     */
+    override fun forEachEntry(action: (K, V, Duration?) -> Unit) {
+        for (entry in guava.asMap()) {
+            action(entry.key, entry.value, null)
+        }
+    }
+
+    override fun containsKey(key: K): Boolean {
+        return guava.asMap().containsKey(key)
+    }
+
+    /**
+     * Guava cache does not support expiry of each entry, [expiry] is ignored.
+     */
+    override fun restore(key: K, value: V, expiry: Duration?): Boolean {
+        return guava.asMap().putIfAbsent(key, value) === null
+    }
 }
 
-class GuavaLoadingCache<K : Any, V>(private val guava: com.google.common.cache.LoadingCache<K, V>) :
-    GuavaCache<K, V>(guava) {
+class GuavaLoadingCache<K : Any, V> internal constructor(
+    private val guava: com.google.common.cache.LoadingCache<K, V>,
+    private val hooks: CacheHooks<K, V>?,
+) : GuavaCache<K, V>(guava, hooks) {
+
+    constructor(guava: com.google.common.cache.LoadingCache<K, V>) : this(guava, null)
 
     override fun get(key: K): V {
-        return guava.get(key)
+        val hooks = this.hooks ?: return guava.get(key)
+        hooks.beforeRead(key)
+        val present = guava.getIfPresent(key)
+        if (present !== null) {
+            hooks.afterRead(key, present, true)
+            return present
+        }
+        val value = guava.get(key)
+        hooks.afterRead(key, value, false)
+        return value
     }
-}
\ No newline at end of file
+}
@@ -1,70 +1,302 @@
 package xyz.srclab.common.cache
 
 import xyz.srclab.common.collect.removeAll
+import xyz.srclab.common.lang.asAny
+import xyz.srclab.common.run.Scheduler
+import xyz.srclab.common.run.Scheduling
+import java.lang.ref.WeakReference
 import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.locks.ReentrantLock
 
-class MapCache<K : Any, V>(private val map: MutableMap<K, V>) : Cache<K, V> {
+/**
+ * [Cache] backed by a [MutableMap].
+ *
+ * Entries put with expiry are scheduled in a [TimerWheel]. Expired entries are removed lazily on access, and swept
+ * when [cleanUp] is called or by a background sweeper if [sweepScheduler] is specified. Note entries with expiry are
+ * strongly referenced until they expire, even if backing map has weak values.
+ */
+class MapCache<K : Any, V> @JvmOverloads constructor(
+    private val map: MutableMap<K, V>,
+    sweepScheduler: Scheduler? = null,
+    sweepInterval: Duration = DEFAULT_SWEEP_INTERVAL,
+) : Cache<K, V> {
+
+    private val expiries: MutableMap<K, TimerWheel.Node<K, V>> = ConcurrentHashMap()
+    private val wheel: TimerWheel<K, V> = TimerWheel()
+    private val wheelLock = ReentrantLock()
+
+    @Volatile
+    private var hasExpiry = false
+
+    @Volatile
+    private var nextSweepTime = 0L
+
+    private val sweeping: Scheduling<*>? = if (sweepScheduler === null) null else {
+        val cacheRef = WeakReference(this)
+        var scheduling: Scheduling<*>? = null
+        scheduling = sweepScheduler.scheduleFixedDelay(sweepInterval, sweepInterval) {
+            val cache = cacheRef.get()
+            if (cache === null) {
+                scheduling?.cancel(false)
+            } else {
+                cache.sweep(false)
+            }
+        }
+        scheduling
+    }
 
     override fun getOrNull(key: K): V? {
-        return map[key]
+        val value = map[key] ?: return null
+        if (!hasExpiry) {
+            return value
+        }
+        if (wheel.now() >= nextSweepTime) {
+            sweep(true)
+        }
+        if (expireIfNeeded(key, value)) {
+            return null
+        }
+        return value
     }
 
     override fun getOrElse(key: K, defaultValue: V): V {
-        return map.getOrDefault(key, defaultValue)
+        return getOrNull(key) ?: defaultValue
     }
 
     override fun getOrLoad(key: K, loader: (K) -> V): V {
+        if (hasExpiry) {
+            getOrNull(key)
+        }
         return map.computeIfAbsent(key, loader)
     }
 
+    override fun getAll(keys: Iterable<K>, loader: (Iterable<K>) -> Map<K, V>): Map<K, V> {
+        val resultMap = LinkedHashMap<K, V>()
+        val missingKeys = LinkedHashSet<K>()
+        for (key in keys) {
+            val value = getOrNull(key)
+            if (value === null) {
+                missingKeys.add(key)
+            } else {
+                resultMap[key] = value
+            }
+        }
+        if (missingKeys.isEmpty()) {
+            return resultMap
+        }
+        val loaded = loader(missingKeys)
+        for (key in missingKeys) {
+            val value = loaded[key] ?: continue
+            map[key] = value
+            resultMap[key] = value
+        }
+        if (hasExpiry) {
+            for (key in missingKeys) {
+                unschedule(key)
+            }
+        }
+        return resultMap
+    }
+
     override fun put(key: K, value: V) {
         map[key] = value
+        if (hasExpiry) {
+            unschedule(key)
+        }
     }
 
     override fun put(key: K, value: V, expirySeconds: Long) {
-        put(key, value)
+        put(key, value, Duration.ofSeconds(expirySeconds))
     }
 
     override fun put(key: K, value: V, expiry: Duration) {
-        put(key, value)
+        map[key] = value
+        schedule(key, value, expiry)
     }
 
     override fun putAll(entries: Map<out K, V>) {
         map.putAll(entries)
+        if (hasExpiry) {
+            for (key in entries.keys) {
+                unschedule(key)
+            }
+        }
     }
 
     override fun putAll(entries: Map<out K, V>, expirySeconds: Long) {
-        putAll(entries)
+        putAll(entries, Duration.ofSeconds(expirySeconds))
     }
 
     override fun putAll(entries: Map<out K, V>, expiry: Duration) {
-        putAll(entries)
+        for (entry in entries) {
+            put(entry.key, entry.value, expiry)
+        }
     }
 
     override fun expiry(key: K, expirySeconds: Long) {
+        expiry(key, Duration.ofSeconds(expirySeconds))
     }
 
     override fun expiry(key: K, expirySeconds: Duration) {
+        val value = map[key] ?: return
+        schedule(key, value, expirySeconds)
     }
 
     override fun expiryAll(keys: Iterable<K>, expirySeconds: Long) {
+        expiryAll(keys, Duration.ofSeconds(expirySeconds))
     }
 
     override fun expiryAll(keys: Iterable<K>, expirySeconds: Duration) {
+        for (key in keys) {
+            expiry(key, expirySeconds)
+        }
     }
 
     override fun invalidate(key: K) {
         map.remove(key)
+        if (hasExpiry) {
+            unschedule(key)
+        }
     }
 
     override fun invalidateAll(keys: Iterable<K>) {
         map.removeAll(keys)
+        if (hasExpiry) {
+            for (key in keys) {
+                unschedule(key)
+            }
+        }
     }
 
     override fun invalidateAll() {
         map.clear()
+        if (hasExpiry) {
+            for (key in expiries.keys) {
+                unschedule(key)
+            }
+        }
     }
 
     override fun cleanUp() {
+        if (hasExpiry) {
+            sweep(false)
+        }
+    }
+
+    override fun forEachEntry(action: (K, V, Duration?) -> Unit) {
+        val now = wheel.now()
+        for (entry in map) {
+            val node = expiries[entry.key]
+            if (node === null || node.value !== entry.value) {
+                action(entry.key, entry.value, null)
+                continue
+            }
+            val remaining = node.deadline - now
+            if (remaining > 0) {
+                action(entry.key, entry.value, Duration.ofNanos(remaining))
+            }
+        }
+    }
+
+    override fun containsKey(key: K): Boolean {
+        return getOrNull(key) !== null
+    }
+
+    override fun restore(key: K, value: V, expiry: Duration?): Boolean {
+        if (getOrNull(key) !== null || map.putIfAbsent(key, value) !== null) {
+            return false
+        }
+        if (expiry !== null) {
+            schedule(key, value, expiry)
+        } else if (hasExpiry) {
+            unschedule(key)
+        }
+        return true
+    }
+
+    /**
+     * Cancels background sweeper if it exists.
+     */
+    fun close() {
+        sweeping?.cancel(false)
+    }
+
+    private fun schedule(key: K, value: V, expiry: Duration) {
+        hasExpiry = true
+        wheelLock.lock()
+        try {
+            val node = TimerWheel.Node(key, value, wheel.now() + expiry.toNanos())
+            val old = expiries.put(key, node)
+            if (old !== null) {
+                wheel.deschedule(old)
+            }
+            wheel.schedule(node)
+        } finally {
+            wheelLock.unlock()
+        }
+    }
+
+    private fun unschedule(key: K) {
+        val node = expiries.remove(key) ?: return
+        wheelLock.lock()
+        try {
+            wheel.deschedule(node)
+        } finally {
+            wheelLock.unlock()
+        }
+    }
+
+    private fun expireIfNeeded(key: K, value: V): Boolean {
+        val node = expiries[key] ?: return false
+        if (node.value !== value || node.deadline > wheel.now()) {
+            return false
+        }
+        expire(node)
+        return true
+    }
+
+    private fun expire(node: TimerWheel.Node<K, V>) {
+        val key = node.key!!
+        if (expiries.remove(key, node)) {
+            map.remove(key, node.value.asAny<V>())
+            wheelLock.lock()
+            try {
+                wheel.deschedule(node)
+            } finally {
+                wheelLock.unlock()
+            }
+        }
+    }
+
+    /**
+     * Advances timer wheel and removes expired entries. If [tryLock] is true, skip sweeping when another thread is
+     * sweeping.
+     */
+    private fun sweep(tryLock: Boolean) {
+        if (tryLock) {
+            if (!wheelLock.tryLock()) {
+                return
+            }
+        } else {
+            wheelLock.lock()
+        }
+        try {
+            val now = wheel.now()
+            wheel.advance(now) { expire(it) }
+            nextSweepTime = now + LAZY_SWEEP_INTERVAL_NANOS
+        } finally {
+            wheelLock.unlock()
+        }
+    }
+
+    companion object {
+
+        private val DEFAULT_SWEEP_INTERVAL = Duration.ofSeconds(1)
+
+        /**
+         * Min interval between two lazy sweeps on access.
+         */
+        private const val LAZY_SWEEP_INTERVAL_NANOS = 1L shl 30
     }
-}
\ No newline at end of file
+}
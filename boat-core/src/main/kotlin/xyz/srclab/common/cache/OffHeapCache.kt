@@ -0,0 +1,323 @@
+package xyz.srclab.common.cache
+
+import xyz.srclab.common.lang.Defaults
+import xyz.srclab.common.lang.INAPPLICABLE_JVM_NAME
+import java.nio.ByteBuffer
+import java.time.Duration
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * [Cache] which stores values out of java heap, in direct [ByteBuffer] slabs.
+ *
+ * Values are encoded by [valueCodec] and stored in fixed-size blocks chained in slab, keys and block indexes are kept
+ * in a segmented hash index on heap. Each segment owns `maxBytes / segmentCount` bytes of slab, and evicts least
+ * recently used entries of itself when there is no enough free blocks.
+ *
+ * This cache does not support expiry: expiry arguments of put methods are ignored, like [GuavaCache]. A value whose
+ * encoded size is larger than a segment is rejected by [IllegalArgumentException], and present value of its key is
+ * kept.
+ *
+ * @param maxBytes max bytes of all slabs
+ * @param valueCodec codec of values
+ * @param segmentCount number of segments, rounded up to power of 2
+ * @param blockSize size of each block, 4 bytes of which are used to link next block
+ */
+class OffHeapCache<K : Any, V> @JvmOverloads constructor(
+    maxBytes: Long,
+    private val valueCodec: CacheCodec<V>,
+    segmentCount: Int = Defaults.concurrencyLevel,
+    blockSize: Int = DEFAULT_BLOCK_SIZE,
+    recordStats: Boolean = false,
+) : Cache<K, V> {
+
+    private val segments: Array<Segment<K>>
+    private val segmentMask: Int
+    private val statsCounter: CacheStatsCounter? = if (recordStats) CacheStatsCounter() else null
+
+    init {
+        if (maxBytes <= 0) {
+            throw IllegalArgumentException("maxBytes: $maxBytes")
+        }
+        if (blockSize <= LINK_SIZE) {
+            throw IllegalArgumentException("blockSize: $blockSize")
+        }
+        var count = Integer.highestOneBit(maxOf(segmentCount, 1) * 2 - 1)
+        while (maxBytes / count > MAX_SEGMENT_BYTES) {
+            count *= 2
+        }
+        val blockCount = (maxBytes / count / blockSize).toInt()
+        if (blockCount <= 0) {
+            throw IllegalArgumentException("maxBytes is too small: $maxBytes")
+        }
+        segments = Array(count) { Segment(blockCount, blockSize, statsCounter) }
+        segmentMask = count - 1
+    }
+
+    /**
+     * Returns number of entries.
+     */
+    @get:JvmName("size")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val size: Long
+        get() = segments.sumOf { it.lock.withLock { it.index.size.toLong() } }
+
+    /**
+     * Returns bytes of blocks in use.
+     */
+    @get:JvmName("usedBytes")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val usedBytes: Long
+        get() = segments.sumOf { it.lock.withLock { it.usedBytes() } }
+
+    override fun getOrNull(key: K): V? {
+        val bytes = segmentFor(key).read(key)
+        if (bytes === null) {
+            statsCounter?.recordMisses(1)
+            return null
+        }
+        statsCounter?.recordHits(1)
+        return valueCodec.decode(bytes)
+    }
+
+    override fun getOrElse(key: K, defaultValue: V): V {
+        return getOrNull(key) ?: defaultValue
+    }
+
+    override fun getOrLoad(key: K, loader: (K) -> V): V {
+        val value = getOrNull(key)
+        if (value !== null) {
+            return value
+        }
+        val counter = statsCounter
+        val startTime = if (counter === null) 0L else System.nanoTime()
+        val loaded = try {
+            loader(key)
+        } catch (e: Throwable) {
+            counter?.recordLoadFailure(System.nanoTime() - startTime)
+            throw e
+        }
+        counter?.recordLoadSuccess(System.nanoTime() - startTime)
+        put(key, loaded)
+        return loaded
+    }
+
+    override fun put(key: K, value: V) {
+        segmentFor(key).write(key, valueCodec.encode(value))
+    }
+
+    override fun put(key: K, value: V, expirySeconds: Long) {
+        put(key, value)
+    }
+
+    override fun put(key: K, value: V, expiry: Duration) {
+        put(key, value)
+    }
+
+    override fun putAll(entries: Map<out K, V>) {
+        for (entry in entries) {
+            put(entry.key, entry.value)
+        }
+    }
+
+    override fun putAll(entries: Map<out K, V>, expirySeconds: Long) {
+        putAll(entries)
+    }
+
+    override fun putAll(entries: Map<out K, V>, expiry: Duration) {
+        putAll(entries)
+    }
+
+    override fun expiry(key: K, expirySeconds: Long) {
+    }
+
+    override fun expiry(key: K, expirySeconds: Duration) {
+    }
+
+    override fun expiryAll(keys: Iterable<K>, expirySeconds: Long) {
+    }
+
+    override fun expiryAll(keys: Iterable<K>, expirySeconds: Duration) {
+    }
+
+    override fun invalidate(key: K) {
+        segmentFor(key).remove(key)
+    }
+
+    override fun invalidateAll(keys: Iterable<K>) {
+        for (key in keys) {
+            invalidate(key)
+        }
+    }
+
+    override fun invalidateAll() {
+        for (segment in segments) {
+            segment.clear()
+        }
+    }
+
+    override fun cleanUp() {
+    }
+
+    override fun stats(): CacheStats {
+        return statsCounter?.snapshot() ?: CacheStats.EMPTY
+    }
+
+    override fun forEachEntry(action: (K, V, Duration?) -> Unit) {
+        for (segment in segments) {
+            val keys = segment.lock.withLock { segment.index.keys.toList() }
+            for (key in keys) {
+                val bytes = segment.read(key) ?: continue
+                action(key, valueCodec.decode(bytes), null)
+            }
+        }
+    }
+
+    override fun containsKey(key: K): Boolean {
+        val segment = segmentFor(key)
+        return segment.lock.withLock { segment.index.containsKey(key) }
+    }
+
+    override fun restore(key: K, value: V, expiry: Duration?): Boolean {
+        val bytes = valueCodec.encode(value)
+        val segment = segmentFor(key)
+        segment.lock.withLock {
+            if (segment.index.containsKey(key)) {
+                return false
+            }
+            segment.write(key, bytes)
+        }
+        return true
+    }
+
+    private fun segmentFor(key: K): Segment<K> {
+        val h = key.hashCode()
+        return segments[(h xor (h ushr 16)) and segmentMask]
+    }
+
+    private class Slot(val head: Int, val length: Int)
+
+    /**
+     * Segment of slab and index. Free blocks are chained as a stack by their link, blocks of a value are chained in
+     * order, link of last block is -1.
+     */
+    private class Segment<K : Any>(
+        private val blockCount: Int,
+        private val blockSize: Int,
+        private val statsCounter: CacheStatsCounter?,
+    ) {
+
+        val lock = ReentrantLock()
+        val index: LinkedHashMap<K, Slot> = LinkedHashMap(16, 0.75f, true)
+
+        private val payloadSize = blockSize - LINK_SIZE
+        private val slab: ByteBuffer = ByteBuffer.allocateDirect(blockCount * blockSize)
+        private var freeHead = 0
+        private var freeCount = blockCount
+
+        init {
+            for (i in 0 until blockCount) {
+                slab.putInt(i * blockSize, if (i == blockCount - 1) -1 else i + 1)
+            }
+        }
+
+        fun usedBytes(): Long {
+            return (blockCount - freeCount).toLong() * blockSize
+        }
+
+        fun read(key: K): ByteArray? {
+            lock.withLock {
+                val slot = index[key] ?: return null
+                val bytes = ByteArray(slot.length)
+                var block = slot.head
+                var offset = 0
+                while (offset < bytes.size) {
+                    val length = minOf(payloadSize, bytes.size - offset)
+                    slab.position(block * blockSize + LINK_SIZE)
+                    slab.get(bytes, offset, length)
+                    offset += length
+                    block = slab.getInt(block * blockSize)
+                }
+                return bytes
+            }
+        }
+
+        fun write(key: K, bytes: ByteArray) {
+            val needed = maxOf(1, (bytes.size + payloadSize - 1) / payloadSize)
+            if (needed > blockCount) {
+                throw IllegalArgumentException("Value of ${bytes.size} bytes is larger than a segment.")
+            }
+            lock.withLock {
+                val old = index.remove(key)
+                if (old !== null) {
+                    free(old)
+                }
+                while (freeCount < needed) {
+                    evictEldest()
+                }
+                val head = freeHead
+                var block = head
+                var offset = 0
+                for (i in 0 until needed) {
+                    val length = minOf(payloadSize, bytes.size - offset)
+                    slab.position(block * blockSize + LINK_SIZE)
+                    slab.put(bytes, offset, length)
+                    offset += length
+                    val next = slab.getInt(block * blockSize)
+                    if (i == needed - 1) {
+                        slab.putInt(block * blockSize, -1)
+                    }
+                    block = next
+                }
+                freeHead = block
+                freeCount -= needed
+                index[key] = Slot(head, bytes.size)
+            }
+        }
+
+        fun remove(key: K) {
+            lock.withLock {
+                val slot = index.remove(key) ?: return
+                free(slot)
+            }
+        }
+
+        fun clear() {
+            lock.withLock {
+                for (slot in index.values) {
+                    free(slot)
+                }
+                index.clear()
+            }
+        }
+
+        private fun evictEldest() {
+            val iterator = index.values.iterator()
+            val slot = iterator.next()
+            iterator.remove()
+            free(slot)
+            statsCounter?.recordEviction()
+        }
+
+        private fun free(slot: Slot) {
+            var block = slot.head
+            while (true) {
+                val next = slab.getInt(block * blockSize)
+                slab.putInt(block * blockSize, freeHead)
+                freeHead = block
+                freeCount++
+                if (next < 0) {
+                    break
+                }
+                block = next
+            }
+        }
+    }
+
+    companion object {
+
+        private const val LINK_SIZE = 4
+        private const val DEFAULT_BLOCK_SIZE = 64
+        private const val MAX_SEGMENT_BYTES = 1L shl 30
+    }
+}
@@ -0,0 +1,294 @@
+package xyz.srclab.common.cache
+
+import xyz.srclab.common.lang.INAPPLICABLE_JVM_NAME
+import xyz.srclab.common.run.Runner
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.Semaphore
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * [Cache] which reloads entries ahead in background (stale-while-revalidate).
+ *
+ * When an entry older than `refreshAfter` is read, its current (stale) value is returned immediately and a reload by
+ * [loader] is submitted to [runner]. At most `maxConcurrentRefreshes` reloads run at same time, reads which cannot get a
+ * permit just return the stale value. If a reload fails, old value is kept and next reload of the entry is delayed by
+ * exponential backoff from `failureBackoff`.
+ *
+ * Write times are kept beside [cache], they are removed on invalidation, on miss, on eviction reported by
+ * [EvictionListener], and for absent keys on [cleanUp]. Writes, invalidations and put-back of reloads of a same key are
+ * serialized by striped locks, so a reload never overwrites a newer value.
+ *
+ * @see Cache.Builder.refreshAhead
+ */
+open class RefreshAheadCache<K : Any, V> @JvmOverloads constructor(
+    @get:JvmName("cache")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val cache: Cache<K, V>,
+    private val loader: (K) -> V,
+    refreshAfter: Duration,
+    private val runner: Runner = Runner.ASYNC_RUNNER,
+    maxConcurrentRefreshes: Int = DEFAULT_MAX_CONCURRENT_REFRESHES,
+    failureBackoff: Duration = DEFAULT_FAILURE_BACKOFF,
+) : Cache<K, V> {
+
+    private val refreshAfterNanos = refreshAfter.toNanos()
+    private val failureBackoffNanos = failureBackoff.toNanos()
+    private val permits = Semaphore(maxConcurrentRefreshes)
+    private val states: ConcurrentMap<K, State> = ConcurrentHashMap()
+    private val locks = Array(LOCK_COUNT) { Any() }
+
+    init {
+        if (maxConcurrentRefreshes <= 0) {
+            throw IllegalArgumentException("maxConcurrentRefreshes: $maxConcurrentRefreshes")
+        }
+    }
+
+    override fun get(key: K): V {
+        val value = cache.get(key)
+        refreshIfNeeded(key)
+        return value
+    }
+
+    override fun getOrNull(key: K): V? {
+        val value = cache.getOrNull(key)
+        if (value === null) {
+            states.remove(key)
+            return null
+        }
+        refreshIfNeeded(key)
+        return value
+    }
+
+    override fun getOrElse(key: K, defaultValue: V): V {
+        return getOrNull(key) ?: defaultValue
+    }
+
+    override fun getOrLoad(key: K, loader: (K) -> V): V {
+        var loaded = false
+        val loadTime = System.nanoTime()
+        val value = cache.getOrLoad(key) {
+            loaded = true
+            loader(it)
+        }
+        if (loaded) {
+            //Keep state of a write which happened after the load began
+            synchronized(lockFor(key)) {
+                val current = states[key]
+                if (current === null || current.writeTime - loadTime < 0) {
+                    states[key] = State(loadTime)
+                }
+            }
+        } else {
+            refreshIfNeeded(key)
+        }
+        return value
+    }
+
+    override fun put(key: K, value: V) {
+        write(key) { cache.put(key, value) }
+    }
+
+    override fun put(key: K, value: V, expirySeconds: Long) {
+        write(key) { cache.put(key, value, expirySeconds) }
+    }
+
+    override fun put(key: K, value: V, expiry: Duration) {
+        write(key) { cache.put(key, value, expiry) }
+    }
+
+    override fun putAll(entries: Map<out K, V>) {
+        for (entry in entries) {
+            put(entry.key, entry.value)
+        }
+    }
+
+    override fun putAll(entries: Map<out K, V>, expirySeconds: Long) {
+        for (entry in entries) {
+            put(entry.key, entry.value, expirySeconds)
+        }
+    }
+
+    override fun putAll(entries: Map<out K, V>, expiry: Duration) {
+        for (entry in entries) {
+            put(entry.key, entry.value, expiry)
+        }
+    }
+
+    override fun expiry(key: K, expirySeconds: Long) {
+        cache.expiry(key, expirySeconds)
+    }
+
+    override fun expiry(key: K, expirySeconds: Duration) {
+        cache.expiry(key, expirySeconds)
+    }
+
+    override fun expiryAll(keys: Iterable<K>, expirySeconds: Long) {
+        cache.expiryAll(keys, expirySeconds)
+    }
+
+    override fun expiryAll(keys: Iterable<K>, expirySeconds: Duration) {
+        cache.expiryAll(keys, expirySeconds)
+    }
+
+    override fun invalidate(key: K) {
+        synchronized(lockFor(key)) {
+            cache.invalidate(key)
+            states.remove(key)
+        }
+    }
+
+    override fun invalidateAll(keys: Iterable<K>) {
+        for (key in keys) {
+            invalidate(key)
+        }
+    }
+
+    override fun invalidateAll() {
+        states.clear()
+        cache.invalidateAll()
+    }
+
+    /**
+     * Cleans up [cache], and removes write times of keys which are no longer in [cache].
+     */
+    override fun cleanUp() {
+        cache.cleanUp()
+        states.keys.removeIf { !cache.containsKey(it) }
+    }
+
+    override fun stats(): CacheStats {
+        return cache.stats()
+    }
+
+    override fun forEachEntry(action: (K, V, Duration?) -> Unit) {
+        cache.forEachEntry(action)
+    }
+
+    override fun containsKey(key: K): Boolean {
+        return cache.containsKey(key)
+    }
+
+    /**
+     * Restores entry into [cache], its write time is unknown and taken as the time it is first read.
+     */
+    override fun restore(key: K, value: V, expiry: Duration?): Boolean {
+        return cache.restore(key, value, expiry)
+    }
+
+    /**
+     * Writes [key] into [cache] and resets its write time, under lock of the key so that it can't interleave with
+     * put-back of a refresh.
+     */
+    private inline fun write(key: K, putter: () -> Unit) {
+        synchronized(lockFor(key)) {
+            putter()
+            states[key] = State(System.nanoTime())
+        }
+    }
+
+    /**
+     * Removes write time of [key] if it is no longer in [cache], called by [EvictionListener].
+     */
+    private fun evicted(key: K) {
+        if (!cache.containsKey(key)) {
+            states.remove(key)
+        }
+    }
+
+    private fun lockFor(key: K): Any {
+        val h = key.hashCode()
+        return locks[(h xor (h ushr 16)) and (LOCK_COUNT - 1)]
+    }
+
+    private fun refreshIfNeeded(key: K) {
+        val now = System.nanoTime()
+        //Write time of entry put into cache directly is unknown, take it as just written
+        val state = states.computeIfAbsent(key) { State(now) }
+        if (now - state.writeTime < refreshAfterNanos) {
+            return
+        }
+        if (state.failures > 0 && now - state.retryTime < 0) {
+            return
+        }
+        if (!state.refreshing.compareAndSet(false, true)) {
+            return
+        }
+        if (!permits.tryAcquire()) {
+            state.refreshing.set(false)
+            return
+        }
+        try {
+            runner.execute { refresh(key, state) }
+        } catch (e: Throwable) {
+            state.refreshing.set(false)
+            permits.release()
+        }
+    }
+
+    private fun refresh(key: K, state: State) {
+        try {
+            val value = loader(key)
+            //Do not put back if the entry has been invalidated, evicted or rewritten
+            synchronized(lockFor(key)) {
+                if (states[key] === state) {
+                    cache.put(key, value)
+                    states[key] = State(System.nanoTime())
+                }
+            }
+        } catch (e: Throwable) {
+            val failures = state.failures + 1
+            state.failures = failures
+            state.retryTime = System.nanoTime() + (failureBackoffNanos shl minOf(failures - 1, MAX_BACKOFF_SHIFT))
+        } finally {
+            state.refreshing.set(false)
+            permits.release()
+        }
+    }
+
+    private class State(val writeTime: Long) {
+        val refreshing = AtomicBoolean()
+
+        @Volatile
+        var failures = 0
+
+        @Volatile
+        var retryTime = 0L
+    }
+
+    /**
+     * Remove listener of [RefreshAheadCache.cache], which removes write times of evicted entries, then calls
+     * [removeListener]. [refreshAheadCache] must be set after the [RefreshAheadCache] is created.
+     */
+    class EvictionListener<K : Any, V>(
+        private val removeListener: CacheRemoveListener<in K, in V>? = null,
+    ) : CacheRemoveListener<K, V> {
+
+        @Volatile
+        var refreshAheadCache: RefreshAheadCache<K, V>? = null
+
+        override fun beforeRemove(key: K, value: V, cause: CacheRemoveListener.Cause) {
+            removeListener?.beforeRemove(key, value, cause)
+        }
+
+        override fun afterRemove(key: K, value: V, cause: CacheRemoveListener.Cause) {
+            if (cause.isEvicted) {
+                refreshAheadCache?.evicted(key)
+            }
+            removeListener?.afterRemove(key, value, cause)
+        }
+    }
+
+    companion object {
+
+        private const val LOCK_COUNT = 64
+        private const val DEFAULT_MAX_CONCURRENT_REFRESHES = 16
+        private val DEFAULT_FAILURE_BACKOFF = Duration.ofSeconds(1)
+
+        /**
+         * Max backoff is `failureBackoff * 2^MAX_BACKOFF_SHIFT`.
+         */
+        private const val MAX_BACKOFF_SHIFT = 10
+    }
+}
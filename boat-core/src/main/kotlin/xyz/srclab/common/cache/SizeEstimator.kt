@@ -0,0 +1,131 @@
+package xyz.srclab.common.cache
+
+/**
+ * Estimates memory of objects in bytes, to weigh cache entries by memory budget.
+ *
+ * @see Cache.Builder.weigher
+ * @see DefaultSizeEstimator
+ */
+interface SizeEstimator {
+
+    /**
+     * Returns estimated bytes of [value], 0 if it is null.
+     */
+    fun estimate(value: Any?): Long
+
+    /**
+     * Returns a weigher which weighs an entry by estimated bytes of its key and value, capped at [Int.MAX_VALUE].
+     */
+    @JvmDefault
+    fun <K, V> toWeigher(): (K, V) -> Int {
+        return { key, value -> minOf(estimate(key) + estimate(value), Int.MAX_VALUE.toLong()).toInt() }
+    }
+
+    companion object {
+
+        @JvmField
+        val DEFAULT: SizeEstimator = DefaultSizeEstimator()
+    }
+}
+
+/**
+ * Default [SizeEstimator], assumes 64-bit JVM with compressed references, object sizes are aligned to 8 bytes.
+ *
+ * Supported types:
+ *
+ * * [ByteArray] and other primitive arrays;
+ * * [String] and other [CharSequence], 2 bytes per char;
+ * * Boxed primitives;
+ * * Object arrays, [Collection] and [Map], including their elements;
+ *
+ * Other objects are counted as an empty object, override [estimateOther] to estimate them. Elements nested deeper than
+ * [MAX_DEPTH] are counted as references only.
+ */
+open class DefaultSizeEstimator : SizeEstimator {
+
+    override fun estimate(value: Any?): Long {
+        return estimate(value, 0)
+    }
+
+    /**
+     * Estimates object which is not supported by this estimator.
+     */
+    protected open fun estimateOther(value: Any): Long {
+        return OBJECT_HEADER_SIZE.align()
+    }
+
+    private fun estimate(value: Any?, depth: Int): Long {
+        if (value === null) {
+            return 0
+        }
+        return when (value) {
+            is ByteArray -> arraySize(value.size, 1)
+            is String -> (OBJECT_HEADER_SIZE + 12).align() + arraySize(value.length, 2)
+            is CharSequence -> OBJECT_HEADER_SIZE.align() + arraySize(value.length, 2)
+            is Long, is Double -> (OBJECT_HEADER_SIZE + 8).align()
+            is Number, is Boolean, is Char -> (OBJECT_HEADER_SIZE + 4).align()
+            is CharArray -> arraySize(value.size, 2)
+            is ShortArray -> arraySize(value.size, 2)
+            is IntArray -> arraySize(value.size, 4)
+            is FloatArray -> arraySize(value.size, 4)
+            is LongArray -> arraySize(value.size, 8)
+            is DoubleArray -> arraySize(value.size, 8)
+            is BooleanArray -> arraySize(value.size, 1)
+            is Array<*> -> {
+                var size = arraySize(value.size, REFERENCE_SIZE)
+                if (depth < MAX_DEPTH) {
+                    for (element in value) {
+                        size += estimate(element, depth + 1)
+                    }
+                }
+                size
+            }
+            is Collection<*> -> {
+                var size = COLLECTION_SIZE + value.size.toLong() * NODE_SIZE
+                if (depth < MAX_DEPTH) {
+                    for (element in value) {
+                        size += estimate(element, depth + 1)
+                    }
+                }
+                size
+            }
+            is Map<*, *> -> {
+                var size = COLLECTION_SIZE + value.size.toLong() * NODE_SIZE
+                if (depth < MAX_DEPTH) {
+                    for (entry in value) {
+                        size += estimate(entry.key, depth + 1) + estimate(entry.value, depth + 1)
+                    }
+                }
+                size
+            }
+            else -> estimateOther(value)
+        }
+    }
+
+    private fun arraySize(length: Int, elementSize: Int): Long {
+        return (ARRAY_HEADER_SIZE + length.toLong() * elementSize).align()
+    }
+
+    private fun Long.align(): Long {
+        return (this + 7) and 7L.inv()
+    }
+
+    companion object {
+
+        const val MAX_DEPTH = 8
+
+        private const val OBJECT_HEADER_SIZE = 12L
+        private const val ARRAY_HEADER_SIZE = 16L
+        private const val REFERENCE_SIZE = 4
+
+        /**
+         * Size of a collection object with its backing table.
+         */
+        private const val COLLECTION_SIZE = 64L
+
+        /**
+         * Size of a node (or slot) of each element of collection.
+         */
+        private const val NODE_SIZE = 32L
+    }
+}
@@ -0,0 +1,500 @@
+package xyz.srclab.common.cache
+
+import xyz.srclab.common.lang.INAPPLICABLE_JVM_NAME
+import java.time.Duration
+import java.util.*
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Two-level [Cache]: a small hot [l1] in front of a larger [l2].
+ *
+ * Reads try [l1] first, values hit in [l2] are promoted into [l1] and removed from [l2]. Writes go to [l1] and remove
+ * stale value in [l2]; entries evicted from [l1] by size are demoted into [l2] by [DemoteListener], which should be set
+ * as remove listener of [l1]. Invalidation is applied to both levels. Concurrent [getOrLoad] of a same key call the
+ * loader once.
+ *
+ * Writes, invalidation, promotion and demotion of a same key are serialized by striped locks, so a stale value will
+ * not be promoted over a newer one. Demotions are collected by the listener without any lock, then moved into [l2]
+ * after the operation which caused the eviction has released its lock; a demotion is dropped if its key has been
+ * written or invalidated since the operation began. Evictions out of write or miss operations of this cache, such as
+ * evictions on [l1] hits or asynchronous notifications of [l1], are not demoted.
+ *
+ * If [recordStats] is true, hits and misses of each level are recorded, see [l1Stats] and [l2Stats].
+ *
+ * @see Cache.Builder.tier
+ */
+open class TieredCache<K : Any, V> @JvmOverloads constructor(
+    @get:JvmName("l1")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val l1: Cache<K, V>,
+    @get:JvmName("l2")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val l2: Cache<K, V>,
+    recordStats: Boolean = false,
+) : Cache<K, V> {
+
+    private val l1Counter: CacheStatsCounter? = if (recordStats) CacheStatsCounter() else null
+    private val l2Counter: CacheStatsCounter? = if (recordStats) CacheStatsCounter() else null
+    private val locks = Array(LOCK_COUNT) { Any() }
+    private val loadings = ConcurrentHashMap<K, CompletableFuture<V>>()
+
+    //Stamps of last write or invalidation of each key, written with lock of the key held
+    private val modifiedStamps: MutableMap<K, Long> = ConcurrentHashMap()
+    private val clock = AtomicLong()
+
+    @Volatile
+    private var clearedStamp = 0L
+    private val operations: ThreadLocal<Operation<K, V>> = ThreadLocal.withInitial { Operation() }
+
+    //Counts of running operations of even and odd epochs, see pruneModifiedStamps
+    private val epoch = AtomicLong()
+    private val activeOperations = arrayOf(AtomicInteger(), AtomicInteger())
+    private val pruning = AtomicBoolean()
+
+    @Volatile
+    private var pruneCutoff = NO_STAMP
+
+    @Volatile
+    private var pruneThreshold = PRUNE_THRESHOLD
+
+    override fun getOrNull(key: K): V? {
+        val value = l1.getOrNull(key)
+        if (value !== null) {
+            l1Counter?.recordHits(1)
+            return value
+        }
+        l1Counter?.recordMisses(1)
+        return operate {
+            synchronized(lockFor(key)) {
+                val l2Value = l2.getOrNull(key)
+                if (l2Value === null) {
+                    l2Counter?.recordMisses(1)
+                    return null
+                }
+                l2Counter?.recordHits(1)
+                promote(key, l2Value)
+                l2Value
+            }
+        }
+    }
+
+    override fun getOrElse(key: K, defaultValue: V): V {
+        return getOrNull(key) ?: defaultValue
+    }
+
+    override fun getOrLoad(key: K, loader: (K) -> V): V {
+        val value = l1.getOrNull(key)
+        if (value !== null) {
+            l1Counter?.recordHits(1)
+            return value
+        }
+        l1Counter?.recordMisses(1)
+        val future = CompletableFuture<V>()
+        val loading = loadings.putIfAbsent(key, future)
+        if (loading !== null) {
+            //Same key is being loaded by another thread
+            return await(loading)
+        }
+        try {
+            val result = operate { promoteOrLoad(key, loader) }
+            future.complete(result)
+            return result
+        } catch (e: Throwable) {
+            future.completeExceptionally(e)
+            throw e
+        } finally {
+            loadings.remove(key, future)
+        }
+    }
+
+    override fun put(key: K, value: V) {
+        operate {
+            synchronized(lockFor(key)) {
+                l1.put(key, value)
+                l2.invalidate(key)
+                markModified(key)
+            }
+        }
+    }
+
+    override fun put(key: K, value: V, expirySeconds: Long) {
+        operate {
+            synchronized(lockFor(key)) {
+                l1.put(key, value, expirySeconds)
+                l2.invalidate(key)
+                markModified(key)
+            }
+        }
+    }
+
+    override fun put(key: K, value: V, expiry: Duration) {
+        operate {
+            synchronized(lockFor(key)) {
+                l1.put(key, value, expiry)
+                l2.invalidate(key)
+                markModified(key)
+            }
+        }
+    }
+
+    override fun putAll(entries: Map<out K, V>) {
+        for (entry in entries) {
+            put(entry.key, entry.value)
+        }
+    }
+
+    override fun putAll(entries: Map<out K, V>, expirySeconds: Long) {
+        for (entry in entries) {
+            put(entry.key, entry.value, expirySeconds)
+        }
+    }
+
+    override fun putAll(entries: Map<out K, V>, expiry: Duration) {
+        for (entry in entries) {
+            put(entry.key, entry.value, expiry)
+        }
+    }
+
+    override fun expiry(key: K, expirySeconds: Long) {
+        operate {
+            l1.expiry(key, expirySeconds)
+            l2.expiry(key, expirySeconds)
+        }
+    }
+
+    override fun expiry(key: K, expirySeconds: Duration) {
+        operate {
+            l1.expiry(key, expirySeconds)
+            l2.expiry(key, expirySeconds)
+        }
+    }
+
+    override fun expiryAll(keys: Iterable<K>, expirySeconds: Long) {
+        operate {
+            l1.expiryAll(keys, expirySeconds)
+            l2.expiryAll(keys, expirySeconds)
+        }
+    }
+
+    override fun expiryAll(keys: Iterable<K>, expirySeconds: Duration) {
+        operate {
+            l1.expiryAll(keys, expirySeconds)
+            l2.expiryAll(keys, expirySeconds)
+        }
+    }
+
+    override fun invalidate(key: K) {
+        operate {
+            synchronized(lockFor(key)) {
+                l1.invalidate(key)
+                l2.invalidate(key)
+                markModified(key)
+            }
+        }
+    }
+
+    override fun invalidateAll(keys: Iterable<K>) {
+        for (key in keys) {
+            invalidate(key)
+        }
+    }
+
+    override fun invalidateAll() {
+        operate {
+            l1.invalidateAll()
+            l2.invalidateAll()
+            clearedStamp = clock.incrementAndGet()
+        }
+    }
+
+    override fun cleanUp() {
+        operate {
+            l1.cleanUp()
+            l2.cleanUp()
+        }
+    }
+
+    /**
+     * Returns stats of [l1] recorded by this cache: a hit means the value is found in [l1]. Returns
+     * [CacheStats.EMPTY] if stats is not recorded.
+     */
+    fun l1Stats(): CacheStats {
+        return l1Counter?.snapshot() ?: CacheStats.EMPTY
+    }
+
+    /**
+     * Returns stats of [l2] recorded by this cache, only lookups missed in [l1] are recorded. Returns
+     * [CacheStats.EMPTY] if stats is not recorded.
+     */
+    fun l2Stats(): CacheStats {
+        return l2Counter?.snapshot() ?: CacheStats.EMPTY
+    }
+
+    /**
+     * Returns combined stats: hits of both levels, misses of [l2], loads of this cache and evictions of [l2]. Returns
+     * [CacheStats.EMPTY] if stats is not recorded.
+     */
+    override fun stats(): CacheStats {
+        if (l1Counter === null) {
+            return CacheStats.EMPTY
+        }
+        val l1Stats = l1Stats()
+        val l2Stats = l2Stats()
+        return CacheStats(
+            l1Stats.hitCount + l2Stats.hitCount,
+            l2Stats.missCount,
+            l1Stats.loadSuccessCount,
+            l1Stats.loadFailureCount,
+            l1Stats.totalLoadTimeNanos,
+            l2.stats().evictionCount,
+        )
+    }
+
+    /**
+     * Visits entries of [l1] then [l2], keys present in both levels are visited once with the value of [l1].
+     */
+    override fun forEachEntry(action: (K, V, Duration?) -> Unit) {
+        val visited = HashSet<K>()
+        l1.forEachEntry { key, value, remaining ->
+            visited.add(key)
+            action(key, value, remaining)
+        }
+        l2.forEachEntry { key, value, remaining ->
+            if (!visited.contains(key)) {
+                action(key, value, remaining)
+            }
+        }
+    }
+
+    override fun containsKey(key: K): Boolean {
+        return l1.containsKey(key) || l2.containsKey(key)
+    }
+
+    /**
+     * Restores entry into [l1] if [key] is absent in both levels.
+     */
+    override fun restore(key: K, value: V, expiry: Duration?): Boolean {
+        return operate {
+            synchronized(lockFor(key)) {
+                if (l2.containsKey(key) || !l1.restore(key, value, expiry)) {
+                    return false
+                }
+                markModified(key)
+                true
+            }
+        }
+    }
+
+    /**
+     * Collects [value] of [key] which has been evicted from [l1] to be demoted into [l2]. This method takes no lock, so
+     * it can be called in remove listener of [l1]; collected demotions are applied at end of current operation of this
+     * cache. It does nothing if current thread is not in a write or miss operation of this cache.
+     */
+    fun demote(key: K, value: V) {
+        val operation = operations.get()
+        if (operation.stamp != NO_STAMP) {
+            operation.demotions.add(Demotion(key, value))
+        }
+    }
+
+    private fun promote(key: K, value: V) {
+        l1.put(key, value)
+        l2.invalidate(key)
+        markModified(key)
+    }
+
+    private fun promoteOrLoad(key: K, loader: (K) -> V): V {
+        synchronized(lockFor(key)) {
+            //Value may have been put or loaded since the miss in l1
+            val present = l1.getOrNull(key)
+            if (present !== null) {
+                return present
+            }
+            val l2Value = l2.getOrNull(key)
+            if (l2Value !== null) {
+                l2Counter?.recordHits(1)
+                promote(key, l2Value)
+                return l2Value
+            }
+            l2Counter?.recordMisses(1)
+        }
+        //Load without lock, then put if no value is put meanwhile
+        val loaded = load(key, loader)
+        synchronized(lockFor(key)) {
+            val present = l1.getOrNull(key)
+            if (present !== null) {
+                return present
+            }
+            l1.put(key, loaded)
+            l2.invalidate(key)
+            markModified(key)
+        }
+        return loaded
+    }
+
+    private fun await(future: CompletableFuture<V>): V {
+        try {
+            return future.join()
+        } catch (e: CompletionException) {
+            throw e.cause ?: e
+        }
+    }
+
+    private inline fun <T> operate(action: () -> T): T {
+        val operation = operations.get()
+        if (operation.stamp != NO_STAMP) {
+            //Nested in an operation of current thread, e.g. called by a loader or listener: the outer stamp is kept and
+            //demotions are drained by the outer operation
+            return action()
+        }
+        val active = activeOperations[(epoch.get() and 1).toInt()]
+        active.incrementAndGet()
+        try {
+            operation.stamp = clock.get()
+            try {
+                return action()
+            } finally {
+                try {
+                    drainDemotions(operation)
+                } finally {
+                    operation.stamp = NO_STAMP
+                }
+            }
+        } finally {
+            active.decrementAndGet()
+            pruneModifiedStamps()
+        }
+    }
+
+    /**
+     * Must be called with lock of [key] held, after [key] has been changed in [l1] and [l2].
+     */
+    private fun markModified(key: K) {
+        modifiedStamps[key] = clock.incrementAndGet()
+    }
+
+    /**
+     * Moves demotions collected in [operation] into [l2], must be called without any lock held. Operations nested in
+     * [l2] may collect more demotions meanwhile, which are drained in same loop.
+     */
+    private fun drainDemotions(operation: Operation<K, V>) {
+        val demotions = operation.demotions
+        val stamp = operation.stamp
+        try {
+            var i = 0
+            while (i < demotions.size) {
+                val demotion = demotions[i++]
+                val key = demotion.key
+                synchronized(lockFor(key)) {
+                    //Key may have been written or invalidated after the operation began
+                    val modifiedStamp = modifiedStamps[key]
+                    if ((modifiedStamp === null || stamp >= modifiedStamp) && stamp >= clearedStamp) {
+                        l2.put(key, demotion.value)
+                    }
+                }
+            }
+        } finally {
+            demotions.clear()
+        }
+    }
+
+    /**
+     * Removes stamps which no running or later operation can be compared with, once there are [pruneThreshold] stamps.
+     *
+     * A prune runs in two steps: first takes current clock as cutoff and switches the epoch, operations begin after
+     * the switch have stamps not less than cutoff; then once all operations of previous epoch are finished, stamps not
+     * greater than cutoff are removed.
+     */
+    private fun pruneModifiedStamps() {
+        if (pruneCutoff == NO_STAMP && modifiedStamps.size < pruneThreshold) {
+            return
+        }
+        if (!pruning.compareAndSet(false, true)) {
+            return
+        }
+        try {
+            val cutoff = pruneCutoff
+            if (cutoff == NO_STAMP) {
+                if (modifiedStamps.size >= pruneThreshold) {
+                    pruneCutoff = clock.get()
+                    epoch.incrementAndGet()
+                }
+                return
+            }
+            if (activeOperations[((epoch.get() - 1) and 1).toInt()].get() != 0) {
+                return
+            }
+            modifiedStamps.values.removeIf { it <= cutoff }
+            pruneThreshold = maxOf(PRUNE_THRESHOLD, modifiedStamps.size * 2)
+            pruneCutoff = NO_STAMP
+        } finally {
+            pruning.set(false)
+        }
+    }
+
+    private fun load(key: K, loader: (K) -> V): V {
+        val counter = l1Counter ?: return loader(key)
+        val startTime = System.nanoTime()
+        val value = try {
+            loader(key)
+        } catch (e: Throwable) {
+            counter.recordLoadFailure(System.nanoTime() - startTime)
+            throw e
+        }
+        counter.recordLoadSuccess(System.nanoTime() - startTime)
+        return value
+    }
+
+    private fun lockFor(key: K): Any {
+        val h = key.hashCode()
+        return locks[(h xor (h ushr 16)) and (LOCK_COUNT - 1)]
+    }
+
+    /**
+     * Entry evicted from [l1].
+     */
+    private class Demotion<K, V>(val key: K, val value: V)
+
+    /**
+     * State of current operation of a thread, [stamp] is the clock when the outermost operation began, or [NO_STAMP].
+     */
+    private class Operation<K, V> {
+        var stamp = NO_STAMP
+        val demotions: MutableList<Demotion<K, V>> = ArrayList()
+    }
+
+    /**
+     * Remove listener of [TieredCache.l1], which queues entries evicted by size to be demoted into [TieredCache.l2] by
+     * [demote], then calls [removeListener]. [tieredCache] must be set after the [TieredCache] is created.
+     */
+    class DemoteListener<K : Any, V>(
+        private val removeListener: CacheRemoveListener<in K, in V>? = null,
+    ) : CacheRemoveListener<K, V> {
+
+        @Volatile
+        var tieredCache: TieredCache<K, V>? = null
+
+        override fun beforeRemove(key: K, value: V, cause: CacheRemoveListener.Cause) {
+            removeListener?.beforeRemove(key, value, cause)
+        }
+
+        override fun afterRemove(key: K, value: V, cause: CacheRemoveListener.Cause) {
+            if (cause == CacheRemoveListener.Cause.SIZE) {
+                tieredCache?.demote(key, value)
+            }
+            removeListener?.afterRemove(key, value, cause)
+        }
+    }
+
+    companion object {
+
+        private const val LOCK_COUNT = 64
+        private const val NO_STAMP = -1L
+        private const val PRUNE_THRESHOLD = 1024
+    }
+}
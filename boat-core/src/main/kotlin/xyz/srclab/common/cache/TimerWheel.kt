@@ -0,0 +1,156 @@
+package xyz.srclab.common.cache
+
+/**
+ * Hierarchical timer wheel to schedule expiration of cache entries, with amortized O(1) scheduling and expiring.
+ *
+ * Time is nanos since creation of this wheel. Each level has a power-of-two number of buckets and a power-of-two
+ * span of bucket; entries whose deadline is too far for a level are put into a coarser level, and cascaded into finer
+ * levels as time advances.
+ *
+ * This class is not thread-safe, caller should guard it by a lock.
+ */
+internal class TimerWheel<K, V> {
+
+    private val origin = System.nanoTime()
+    private var time = 0L
+
+    private val wheel: Array<Array<Node<K, V>>> = Array(BUCKETS.size) { i ->
+        Array(BUCKETS[i]) { Node.sentinel<K, V>() }
+    }
+
+    /**
+     * Returns current time of this wheel's clock.
+     */
+    fun now(): Long {
+        return System.nanoTime() - origin
+    }
+
+    /**
+     * Schedules [node] by its [Node.deadline], or reschedules if it has been scheduled.
+     */
+    fun schedule(node: Node<K, V>) {
+        deschedule(node)
+        link(findBucket(node.deadline), node)
+    }
+
+    fun deschedule(node: Node<K, V>) {
+        val prev = node.prev ?: return
+        val next = node.next!!
+        prev.next = next
+        next.prev = prev
+        node.prev = null
+        node.next = null
+    }
+
+    /**
+     * Advances time to [currentTime] and passes expired nodes to [expire], other nodes in passed buckets will be
+     * cascaded into finer levels. Current bucket of finest level is also checked, so nodes expired in current tick
+     * will not wait for next tick.
+     */
+    fun advance(currentTime: Long, expire: (Node<K, V>) -> Unit) {
+        val previousTime = time
+        time = currentTime
+        for (i in SHIFTS.indices) {
+            val previousTicks = previousTime ushr SHIFTS[i]
+            val currentTicks = currentTime ushr SHIFTS[i]
+            val delta = currentTicks - previousTicks
+            if (delta <= 0L) {
+                break
+            }
+            expireLevel(i, previousTicks, delta, expire)
+        }
+        val currentTicks = currentTime ushr SHIFTS[0]
+        expireBucket(wheel[0][(currentTicks and (BUCKETS[0] - 1).toLong()).toInt()], expire)
+    }
+
+    private fun expireLevel(level: Int, previousTicks: Long, delta: Long, expire: (Node<K, V>) -> Unit) {
+        val buckets = wheel[level]
+        val mask = buckets.size - 1
+        val start = (previousTicks and mask.toLong()).toInt()
+        val end = start + minOf(delta, buckets.size.toLong()).toInt()
+        for (i in start..end) {
+            expireBucket(buckets[i and mask], expire)
+        }
+    }
+
+    private fun expireBucket(sentinel: Node<K, V>, expire: (Node<K, V>) -> Unit) {
+        var node = sentinel.next!!
+        sentinel.next = sentinel
+        sentinel.prev = sentinel
+        while (node !== sentinel) {
+            val next = node.next!!
+            node.prev = null
+            node.next = null
+            if (node.deadline <= time) {
+                expire(node)
+            } else {
+                schedule(node)
+            }
+            node = next
+        }
+    }
+
+    private fun findBucket(deadline: Long): Node<K, V> {
+        val duration = deadline - time
+        val last = BUCKETS.size - 1
+        for (i in 0 until last) {
+            if (duration < SPANS[i + 1]) {
+                val ticks = deadline ushr SHIFTS[i]
+                val index = (ticks and (BUCKETS[i] - 1).toLong()).toInt()
+                return wheel[i][index]
+            }
+        }
+        return wheel[last][0]
+    }
+
+    private fun link(sentinel: Node<K, V>, node: Node<K, V>) {
+        val last = sentinel.prev!!
+        node.prev = last
+        node.next = sentinel
+        last.next = node
+        sentinel.prev = node
+    }
+
+    /**
+     * Scheduled entry, [value] is the value when it is scheduled.
+     */
+    class Node<K, V>(
+        val key: K?,
+        val value: V?,
+        @Volatile var deadline: Long,
+    ) {
+        var prev: Node<K, V>? = null
+        var next: Node<K, V>? = null
+
+        companion object {
+
+            fun <K, V> sentinel(): Node<K, V> {
+                val sentinel = Node<K, V>(null, null, Long.MAX_VALUE)
+                sentinel.prev = sentinel
+                sentinel.next = sentinel
+                return sentinel
+            }
+        }
+    }
+
+    companion object {
+
+        /**
+         * Number of buckets of each level.
+         */
+        private val BUCKETS = intArrayOf(64, 64, 32, 4, 1)
+
+        /**
+         * Span of bucket of each level: ~1.07s, ~1.14m, ~1.22h, ~1.63d, ~6.5d.
+         */
+        private val SPANS = longArrayOf(
+            1L shl 30,
+            1L shl 36,
+            1L shl 42,
+            1L shl 47,
+            1L shl 49,
+        )
+
+        private val SHIFTS = IntArray(SPANS.size) { java.lang.Long.numberOfTrailingZeros(SPANS[it]) }
+    }
+}
@@ -0,0 +1,432 @@
+package xyz.srclab.common.cache
+
+import xyz.srclab.common.lang.Defaults
+import xyz.srclab.common.lang.INAPPLICABLE_JVM_NAME
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReferenceArray
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Size-bounded [Cache] with W-TinyLFU eviction policy, without dependencies of Caffeine or Guava.
+ *
+ * Entries are hashed into lock-striped segments, each segment owns `maxSize / segmentCount` of capacity and keeps:
+ *
+ * * A small LRU window (1% of capacity) which new entries enter;
+ * * A main space of probation and protected (80% of main space) LRU queues, entries hit in probation are promoted to
+ * protected;
+ * * A [FrequencySketch], when an entry leaves window and main space is full, it is admitted only if it is more popular
+ * than the LRU victim of probation.
+ *
+ * Reads are lock-free: values are read from a [ConcurrentHashMap], accesses are recorded into a lossy ring buffer and
+ * applied to policy in batch by whoever gets segment lock. Writes lock their segment.
+ *
+ * This cache does not support expiry: expiry arguments of put methods are ignored, like [GuavaCache]. Loader of
+ * [getOrLoad] is not run under lock, so a same key may be loaded concurrently, and first stored value wins.
+ *
+ * @param maxSize max number of entries
+ * @param concurrencyLevel expected number of concurrently writing threads, decides segment count
+ */
+class TinyLfuCache<K : Any, V> @JvmOverloads constructor(
+    maxSize: Long,
+    concurrencyLevel: Int = Defaults.concurrencyLevel,
+    recordStats: Boolean = false,
+) : Cache<K, V> {
+
+    private val segments: Array<Segment<K, V>>
+    private val segmentMask: Int
+    private val statsCounter: CacheStatsCounter? = if (recordStats) CacheStatsCounter() else null
+
+    init {
+        if (maxSize <= 0) {
+            throw IllegalArgumentException("maxSize: $maxSize")
+        }
+        var count = Integer.highestOneBit(maxOf(concurrencyLevel, 1) * 2 - 1)
+        while (count > 1 && count > maxSize) {
+            count = count ushr 1
+        }
+        val capacity = (maxSize + count - 1) / count
+        segments = Array(count) { Segment(capacity, statsCounter) }
+        segmentMask = count - 1
+    }
+
+    /**
+     * Returns number of entries.
+     */
+    @get:JvmName("size")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val size: Long
+        get() = segments.sumOf { it.data.size.toLong() }
+
+    override fun getOrNull(key: K): V? {
+        val hash = spread(key.hashCode())
+        val segment = segmentFor(hash)
+        val node = segment.data[key]
+        if (node === null) {
+            statsCounter?.recordMisses(1)
+            return null
+        }
+        statsCounter?.recordHits(1)
+        segment.recordRead(node)
+        return node.value
+    }
+
+    override fun getOrElse(key: K, defaultValue: V): V {
+        return getOrNull(key) ?: defaultValue
+    }
+
+    override fun getOrLoad(key: K, loader: (K) -> V): V {
+        val value = getOrNull(key)
+        if (value !== null) {
+            return value
+        }
+        val counter = statsCounter
+        val startTime = if (counter === null) 0L else System.nanoTime()
+        val loaded = try {
+            loader(key)
+        } catch (e: Throwable) {
+            counter?.recordLoadFailure(System.nanoTime() - startTime)
+            throw e
+        }
+        counter?.recordLoadSuccess(System.nanoTime() - startTime)
+        val hash = spread(key.hashCode())
+        return segmentFor(hash).put(key, hash, loaded, true)
+    }
+
+    override fun put(key: K, value: V) {
+        val hash = spread(key.hashCode())
+        segmentFor(hash).put(key, hash, value, false)
+    }
+
+    override fun put(key: K, value: V, expirySeconds: Long) {
+        put(key, value)
+    }
+
+    override fun put(key: K, value: V, expiry: Duration) {
+        put(key, value)
+    }
+
+    override fun putAll(entries: Map<out K, V>) {
+        for (entry in entries) {
+            put(entry.key, entry.value)
+        }
+    }
+
+    override fun putAll(entries: Map<out K, V>, expirySeconds: Long) {
+        putAll(entries)
+    }
+
+    override fun putAll(entries: Map<out K, V>, expiry: Duration) {
+        putAll(entries)
+    }
+
+    override fun expiry(key: K, expirySeconds: Long) {
+    }
+
+    override fun expiry(key: K, expirySeconds: Duration) {
+    }
+
+    override fun expiryAll(keys: Iterable<K>, expirySeconds: Long) {
+    }
+
+    override fun expiryAll(keys: Iterable<K>, expirySeconds: Duration) {
+    }
+
+    override fun invalidate(key: K) {
+        segmentFor(spread(key.hashCode())).remove(key)
+    }
+
+    override fun invalidateAll(keys: Iterable<K>) {
+        for (key in keys) {
+            invalidate(key)
+        }
+    }
+
+    override fun invalidateAll() {
+        for (segment in segments) {
+            segment.clear()
+        }
+    }
+
+    /**
+     * Applies buffered reads to eviction policy.
+     */
+    override fun cleanUp() {
+        for (segment in segments) {
+            segment.lock.withLock { segment.drainReadBuffer() }
+        }
+    }
+
+    override fun stats(): CacheStats {
+        return statsCounter?.snapshot() ?: CacheStats.EMPTY
+    }
+
+    override fun forEachEntry(action: (K, V, Duration?) -> Unit) {
+        for (segment in segments) {
+            for (node in segment.data.values) {
+                action(node.key, node.value, null)
+            }
+        }
+    }
+
+    override fun containsKey(key: K): Boolean {
+        return segmentFor(spread(key.hashCode())).data.containsKey(key)
+    }
+
+    override fun restore(key: K, value: V, expiry: Duration?): Boolean {
+        val hash = spread(key.hashCode())
+        return segmentFor(hash).put(key, hash, value, true) === value
+    }
+
+    private fun segmentFor(hash: Int): Segment<K, V> {
+        return segments[(hash ushr 16) and segmentMask]
+    }
+
+    private fun spread(h: Int): Int {
+        val x = (h xor (h ushr 17)) * -0x312e3dbf
+        return x xor (x ushr 15)
+    }
+
+    private class Node<K, V>(
+        val key: K,
+        val hash: Int,
+        @Volatile var value: V,
+    ) {
+        var queue = WINDOW
+        var prev: Node<K, V>? = null
+        var next: Node<K, V>? = null
+    }
+
+    /**
+     * Doubly-linked LRU queue, first node is the least recently used.
+     */
+    private class AccessQueue<K, V> {
+
+        var first: Node<K, V>? = null
+        var last: Node<K, V>? = null
+
+        fun addLast(node: Node<K, V>) {
+            val l = last
+            node.prev = l
+            node.next = null
+            if (l === null) {
+                first = node
+            } else {
+                l.next = node
+            }
+            last = node
+        }
+
+        fun remove(node: Node<K, V>) {
+            val p = node.prev
+            val n = node.next
+            if (p === null) {
+                first = n
+            } else {
+                p.next = n
+            }
+            if (n === null) {
+                last = p
+            } else {
+                n.prev = p
+            }
+            node.prev = null
+            node.next = null
+        }
+
+        fun moveToLast(node: Node<K, V>) {
+            if (node !== last) {
+                remove(node)
+                addLast(node)
+            }
+        }
+
+        fun clear() {
+            first = null
+            last = null
+        }
+    }
+
+    private class Segment<K : Any, V>(
+        capacity: Long,
+        private val statsCounter: CacheStatsCounter?,
+    ) {
+
+        val lock = ReentrantLock()
+        val data: ConcurrentHashMap<K, Node<K, V>> = ConcurrentHashMap()
+
+        private val windowCapacity = maxOf(1L, capacity / 100)
+        private val mainCapacity = capacity - windowCapacity
+        private val protectedCapacity = mainCapacity * 4 / 5
+
+        private val windowQueue = AccessQueue<K, V>()
+        private val probationQueue = AccessQueue<K, V>()
+        private val protectedQueue = AccessQueue<K, V>()
+        private var windowSize = 0L
+        private var mainSize = 0L
+        private var protectedSize = 0L
+
+        private val sketch = FrequencySketch(minOf(capacity, Int.MAX_VALUE.toLong()).toInt())
+        private val readBuffer: AtomicReferenceArray<Node<K, V>?> = AtomicReferenceArray(READ_BUFFER_SIZE)
+        private val readCount = AtomicLong()
+
+        fun recordRead(node: Node<K, V>) {
+            val index = readCount.getAndIncrement() and READ_BUFFER_MASK
+            readBuffer.lazySet(index.toInt(), node)
+            if (index == READ_BUFFER_MASK && lock.tryLock()) {
+                try {
+                    drainReadBuffer()
+                } finally {
+                    lock.unlock()
+                }
+            }
+        }
+
+        /**
+         * Puts [value] of [key], returns value in cache. If [ifAbsent] is true and there is an old value, old value
+         * will be kept and returned.
+         */
+        fun put(key: K, hash: Int, value: V, ifAbsent: Boolean): V {
+            lock.withLock {
+                drainReadBuffer()
+                val old = data[key]
+                if (old !== null) {
+                    if (!ifAbsent) {
+                        old.value = value
+                    }
+                    onAccess(old)
+                    return old.value
+                }
+                val node = Node(key, hash, value)
+                data[key] = node
+                sketch.increment(hash)
+                windowQueue.addLast(node)
+                windowSize++
+                evict()
+                return value
+            }
+        }
+
+        fun remove(key: K) {
+            lock.withLock {
+                val node = data.remove(key) ?: return
+                unlink(node)
+            }
+        }
+
+        fun clear() {
+            lock.withLock {
+                for (i in 0 until READ_BUFFER_SIZE) {
+                    readBuffer.lazySet(i, null)
+                }
+                for (node in data.values) {
+                    node.queue = REMOVED
+                }
+                data.clear()
+                windowQueue.clear()
+                probationQueue.clear()
+                protectedQueue.clear()
+                windowSize = 0
+                mainSize = 0
+                protectedSize = 0
+            }
+        }
+
+        fun drainReadBuffer() {
+            for (i in 0 until READ_BUFFER_SIZE) {
+                val node = readBuffer.getAndSet(i, null) ?: continue
+                onAccess(node)
+            }
+        }
+
+        private fun onAccess(node: Node<K, V>) {
+            when (node.queue) {
+                WINDOW -> {
+                    sketch.increment(node.hash)
+                    windowQueue.moveToLast(node)
+                }
+                PROBATION -> {
+                    sketch.increment(node.hash)
+                    probationQueue.remove(node)
+                    protectedQueue.addLast(node)
+                    node.queue = PROTECTED
+                    protectedSize++
+                    if (protectedSize > protectedCapacity) {
+                        val demoted = protectedQueue.first!!
+                        protectedQueue.remove(demoted)
+                        protectedSize--
+                        probationQueue.addLast(demoted)
+                        demoted.queue = PROBATION
+                    }
+                }
+                PROTECTED -> {
+                    sketch.increment(node.hash)
+                    protectedQueue.moveToLast(node)
+                }
+            }
+        }
+
+        /**
+         * Moves overflowed nodes of window into probation, then evicts either the candidate or the LRU victim of
+         * probation, whichever is less popular.
+         */
+        private fun evict() {
+            while (windowSize > windowCapacity) {
+                val candidate = windowQueue.first!!
+                windowQueue.remove(candidate)
+                windowSize--
+                probationQueue.addLast(candidate)
+                candidate.queue = PROBATION
+                mainSize++
+                if (mainSize <= mainCapacity) {
+                    continue
+                }
+                val victim = probationQueue.first!!
+                if (victim === candidate
+                    || sketch.frequency(candidate.hash) <= sketch.frequency(victim.hash)) {
+                    evictNode(candidate)
+                } else {
+                    evictNode(victim)
+                }
+            }
+        }
+
+        private fun evictNode(node: Node<K, V>) {
+            data.remove(node.key, node)
+            unlink(node)
+            statsCounter?.recordEviction()
+        }
+
+        private fun unlink(node: Node<K, V>) {
+            when (node.queue) {
+                WINDOW -> {
+                    windowQueue.remove(node)
+                    windowSize--
+                }
+                PROBATION -> {
+                    probationQueue.remove(node)
+                    mainSize--
+                }
+                PROTECTED -> {
+                    protectedQueue.remove(node)
+                    protectedSize--
+                    mainSize--
+                }
+            }
+            node.queue = REMOVED
+        }
+    }
+
+    companion object {
+
+        private const val WINDOW = 0
+        private const val PROBATION = 1
+        private const val PROTECTED = 2
+        private const val REMOVED = 3
+
+        private const val READ_BUFFER_SIZE = 16
+        private const val READ_BUFFER_MASK = READ_BUFFER_SIZE - 1L
+    }
+}
@@ -0,0 +1,260 @@
+package xyz.srclab.common.convert
+
+import xyz.srclab.common.bean.BeanResolver
+import xyz.srclab.common.bean.PropertyType
+import xyz.srclab.common.bean.TrivialAccessors
+import xyz.srclab.common.reflect.eraseTypeParameters
+import xyz.srclab.common.reflect.rawClass
+import xyz.srclab.common.reflect.typeArguments
+import java.beans.ConstructorProperties
+import java.lang.invoke.MethodHandle
+import java.lang.invoke.MethodHandles
+import java.lang.invoke.MethodType
+import java.lang.reflect.Constructor
+import java.lang.reflect.Modifier
+import java.lang.reflect.Type
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+
+/**
+ * [BeanConvertHandler.BeanGenerator] which creates bean by a constructor whose parameters are properties, such as
+ * Kotlin data classes, Java records and other immutable value objects.
+ *
+ * Property values are collected into an argument array by parameter names, then the constructor is invoked once
+ * through a cached method handle, there is no intermediate builder. Names of constructor parameters are from, in
+ * order:
+ *
+ * * [ConstructorProperties];
+ * * [java.lang.reflect.Parameter.getName] if class is compiled with `-parameters`;
+ * * For Kotlin data classes, fields returned by `componentN` functions, which are in order of constructor parameters;
+ * * Instance fields matched by type, only if types of parameters are unique and each of them is type of exactly one
+ * field. For classes other than Kotlin classes, number of fields must also be same as number of parameters.
+ *
+ * The constructor with most named parameters is chosen. Missing or null values of primitive parameters are passed as
+ * zero values. Non-null values of other writeable properties, such as those with setters, are set after construction.
+ * If there is no such a constructor, bean is created by [BeanConvertHandler.BeanGenerator.DEFAULT].
+ *
+ * [beanResolver] and [converter] are used by [build], [generate] uses the ones passed to it.
+ */
+open class ConstructorBeanGenerator @JvmOverloads constructor(
+    private val beanResolver: BeanResolver = BeanResolver.DEFAULT,
+    private val converter: Converter = Converter.DEFAULT,
+) : BeanConvertHandler.BeanGenerator {
+
+    private val constructorPlans: ClassValue<PlanHolder> = object : ClassValue<PlanHolder>() {
+        override fun computeValue(type: Class<*>): PlanHolder {
+            return PlanHolder(ConstructorPlan.newConstructorPlanOrNull(type))
+        }
+    }
+
+    override fun newBuilder(toType: Type): Any {
+        return LinkedHashMap<String, Any?>()
+    }
+
+    override fun build(builder: Any, toType: Type): Any {
+        return generate(builder, toType, beanResolver, converter)
+    }
+
+    override fun generate(from: Any, toType: Type, beanResolver: BeanResolver, converter: Converter): Any {
+        val plan = constructorPlans.get(toType.rawClass).plan
+            ?: return BeanConvertHandler.BeanGenerator.DEFAULT.generate(from, toType, beanResolver, converter)
+        val parameterTypes = plan.parameterTypesOf(toType)
+        val toProperties = beanResolver.resolve(toType).properties
+        val args = plan.defaultArguments.clone()
+        //Values of writeable properties which are not constructor parameters, set after construction
+        var rest: MutableList<Pair<PropertyType, Any>>? = null
+        if (from is Map<*, *>) {
+            for ((key, value) in from) {
+                if (value === null) {
+                    continue
+                }
+                val name: String = converter.convert(key, String::class.java)
+                val index = plan.indexOf(name)
+                if (index >= 0) {
+                    args[index] = converter.convert(value, parameterTypes[index])
+                    continue
+                }
+                val toProperty = toProperties[name]
+                if (toProperty === null || !toProperty.isWriteable) {
+                    continue
+                }
+                if (rest === null) {
+                    rest = ArrayList()
+                }
+                rest.add(toProperty to value)
+            }
+        } else {
+            val fromProperties = beanResolver.resolve(from.javaClass).properties
+            for (i in args.indices) {
+                val fromProperty = fromProperties[plan.names[i]]
+                if (fromProperty === null || !fromProperty.isReadable) {
+                    continue
+                }
+                val value = fromProperty.getValue<Any?>(from) ?: continue
+                args[i] = converter.convert(value, parameterTypes[i])
+            }
+            for ((name, toProperty) in toProperties) {
+                if (!toProperty.isWriteable || plan.indexOf(name) >= 0) {
+                    continue
+                }
+                val fromProperty = fromProperties[name]
+                if (fromProperty === null || !fromProperty.isReadable) {
+                    continue
+                }
+                val value = fromProperty.getValue<Any?>(from) ?: continue
+                if (rest === null) {
+                    rest = ArrayList()
+                }
+                rest.add(toProperty to value)
+            }
+        }
+        val bean = plan.newInstance(args)
+        if (rest !== null) {
+            for ((toProperty, value) in rest) {
+                toProperty.setValue(bean, converter.convert(value, toProperty.type))
+            }
+        }
+        return bean
+    }
+
+    private class PlanHolder(val plan: ConstructorPlan?)
+
+    private class ConstructorPlan(
+        rawClass: Class<*>,
+        private val constructor: Constructor<*>,
+        val names: Array<String>,
+    ) {
+
+        private val handle: MethodHandle
+        private val nameIndexes: Map<String, Int>
+        private val rawParameterTypes: Array<Type>
+        private val genericParameterTypes: ConcurrentMap<Type, Array<Type>> = ConcurrentHashMap()
+
+        val defaultArguments: Array<Any?>
+
+        init {
+            constructor.isAccessible = true
+            handle = MethodHandles.lookup().unreflectConstructor(constructor)
+                .asSpreader(Array<Any?>::class.java, names.size)
+                .asType(MethodType.methodType(Any::class.java, Any::class.java))
+            nameIndexes = names.withIndex().associate { it.value to it.index }
+            rawParameterTypes = erase(rawClass)
+            defaultArguments = Array(names.size) {
+                val parameterType = constructor.parameterTypes[it]
+                if (parameterType.isPrimitive) java.lang.reflect.Array.get(
+                    java.lang.reflect.Array.newInstance(parameterType, 1), 0
+                ) else null
+            }
+        }
+
+        fun indexOf(name: String): Int {
+            return nameIndexes[name] ?: -1
+        }
+
+        fun parameterTypesOf(type: Type): Array<Type> {
+            if (type is Class<*>) {
+                return rawParameterTypes
+            }
+            return genericParameterTypes.getOrPut(type) { erase(type) }
+        }
+
+        fun newInstance(args: Array<Any?>): Any {
+            //args is passed as the single Object argument of adapted handle
+            val arguments: Any = args
+            return handle.invokeExact(arguments) as Any
+        }
+
+        private fun erase(type: Type): Array<Type> {
+            val typeArguments = type.typeArguments
+            return constructor.genericParameterTypes.map { it.eraseTypeParameters(typeArguments) }.toTypedArray()
+        }
+
+        companion object {
+
+            fun newConstructorPlanOrNull(rawClass: Class<*>): ConstructorPlan? {
+                if (rawClass.isInterface || rawClass.isArray || rawClass.isPrimitive
+                    || Modifier.isAbstract(rawClass.modifiers)
+                ) {
+                    return null
+                }
+                var constructor: Constructor<*>? = null
+                var names: Array<String>? = null
+                for (candidate in rawClass.declaredConstructors) {
+                    if (candidate.isSynthetic || candidate.parameterCount == 0) {
+                        continue
+                    }
+                    if (constructor !== null && candidate.parameterCount <= constructor.parameterCount) {
+                        continue
+                    }
+                    val candidateNames = parameterNamesOrNull(rawClass, candidate) ?: continue
+                    constructor = candidate
+                    names = candidateNames
+                }
+                if (constructor === null || names === null) {
+                    return null
+                }
+                return ConstructorPlan(rawClass, constructor, names)
+            }
+
+            private fun parameterNamesOrNull(rawClass: Class<*>, constructor: Constructor<*>): Array<String>? {
+                val constructorProperties = constructor.getAnnotation(ConstructorProperties::class.java)
+                if (constructorProperties !== null && constructorProperties.value.size == constructor.parameterCount) {
+                    return constructorProperties.value
+                }
+                val parameters = constructor.parameters
+                if (parameters.all { it.isNamePresent }) {
+                    return Array(parameters.size) { parameters[it].name }
+                }
+                val parameterTypes = constructor.parameterTypes
+                val isKotlin = rawClass.isAnnotationPresent(Metadata::class.java)
+                if (isKotlin) {
+                    val componentNames = componentNamesOrNull(rawClass, parameterTypes)
+                    if (componentNames !== null) {
+                        return componentNames
+                    }
+                }
+                //Matching by type is ambiguous if two parameters have same type
+                if (parameterTypes.toSet().size != parameterTypes.size) {
+                    return null
+                }
+                val fields = rawClass.declaredFields.filter {
+                    val modifiers = it.modifiers
+                    !it.isSynthetic && !Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)
+                }
+                if (!isKotlin && fields.size != parameterTypes.size) {
+                    return null
+                }
+                return Array(parameterTypes.size) { i ->
+                    val matched = fields.filter { it.type == parameterTypes[i] }
+                    if (matched.size != 1) {
+                        return null
+                    }
+                    matched[0].name
+                }
+            }
+
+            /**
+             * Returns names of fields returned by `component1` to `componentN` of Kotlin data class, or null if they do
+             * not match [parameterTypes].
+             */
+            private fun componentNamesOrNull(rawClass: Class<*>, parameterTypes: Array<Class<*>>): Array<String>? {
+                val components = Array(parameterTypes.size) { i ->
+                    val component = try {
+                        rawClass.getDeclaredMethod("component${i + 1}")
+                    } catch (e: NoSuchMethodException) {
+                        return null
+                    }
+                    if (component.returnType != parameterTypes[i]) {
+                        return null
+                    }
+                    component
+                }
+                val accessors = TrivialAccessors.scan(rawClass)
+                return Array(components.size) {
+                    val component = components[it]
+                    accessors[component.name + TrivialAccessors.descriptorOf(component)] ?: return null
+                }
+            }
+        }
+    }
+}
@@ -470,10 +470,7 @@ open class BeanConvertHandler @JvmOverloads constructor(
     }
 
     private fun toObject(from: Any, toType: Type, converter: Converter): Any {
-        val builder = beanGenerator.newBuilder(toType)
-        //from.copyProperties(builder, newBeanProvider.builderType(builder, toType), beanResolver, converter)
-        from.copyProperties(builder, beanResolver, converter)
-        return beanGenerator.build(builder, toType)
+        return beanGenerator.generate(from, toType, beanResolver, converter)
     }
 
     /**
@@ -501,6 +498,18 @@ open class BeanConvertHandler @JvmOverloads constructor(
          */
         fun build(builder: Any, toType: Type): Any
 
+        /**
+         * Generates bean of [toType] with properties of [from]. By default, properties are copied into [newBuilder],
+         * then [build].
+         */
+        @JvmDefault
+        fun generate(from: Any, toType: Type, beanResolver: BeanResolver, converter: Converter): Any {
+            val builder = newBuilder(toType)
+            //from.copyProperties(builder, newBeanProvider.builderType(builder, toType), beanResolver, converter)
+            from.copyProperties(builder, beanResolver, converter)
+            return build(builder, toType)
+        }
+
         companion object {
 
             /**
@@ -520,6 +529,13 @@ open class BeanConvertHandler @JvmOverloads constructor(
                     return builder
                 }
             }
+
+            /**
+             * New bean operation by constructor with all properties, for immutable beans.
+             *
+             * @see ConstructorBeanGenerator
+             */
+            val CONSTRUCTOR: BeanGenerator = ConstructorBeanGenerator()
         }
     }
 
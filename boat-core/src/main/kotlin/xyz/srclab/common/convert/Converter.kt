@@ -7,6 +7,8 @@ import xyz.srclab.common.convert.Converter.Companion.withPreConvertHandler
 import xyz.srclab.common.lang.INAPPLICABLE_JVM_NAME
 import xyz.srclab.common.lang.asAny
 import xyz.srclab.common.reflect.TypeRef
+import xyz.srclab.common.run.Runner
+import xyz.srclab.common.run.runInChunks
 import java.lang.reflect.Type
 
 /**
@@ -57,6 +59,32 @@ interface Converter {
         return convert(from, fromTypeRef.type, toTypeRef.type)
     }
 
+    /**
+     * Converts each element of [from] to [toType], returns list of results in same order.
+     */
+    @Throws(UnsupportedConvertException::class)
+    @JvmDefault
+    fun <T> convertAll(from: List<*>, toType: Type): List<T> {
+        return convertAll(from, toType, null, 1)
+    }
+
+    /**
+     * Converts each element of [from] to [toType], returns list of results in same order. If [runner] is not null,
+     * elements are split into chunks and converted on [runner] in parallel, results are written into a presized list.
+     */
+    @Throws(UnsupportedConvertException::class)
+    @JvmDefault
+    fun <T> convertAll(from: List<*>, toType: Type, runner: Runner?, parallelism: Int): List<T> {
+        val elements = if (from is RandomAccess) from else from.toList()
+        val results = arrayOfNulls<Any?>(elements.size)
+        runInChunks(elements.size, runner, parallelism) { start, end ->
+            for (i in start until end) {
+                results[i] = convert<Any?>(elements[i], toType)
+            }
+        }
+        return results.asList().asAny()
+    }
+
     companion object {
 
         @JvmField
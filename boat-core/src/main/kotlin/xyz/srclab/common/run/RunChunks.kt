@@ -0,0 +1,45 @@
+package xyz.srclab.common.run
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+
+/**
+ * Splits range `[0, size)` into chunks and performs [action] with start (inclusive) and end (exclusive) of each chunk
+ * on [runner], then waits until all chunks are done. There are at most `parallelism * 4` chunks.
+ *
+ * If [runner] is null or [parallelism] is not greater than 1, performs [action] for whole range in current thread.
+ */
+internal fun runInChunks(size: Int, runner: Runner?, parallelism: Int, action: (Int, Int) -> Unit) {
+    if (runner === null || parallelism <= 1 || size <= 1) {
+        action(0, size)
+        return
+    }
+    try {
+        runInChunksAsync(size, runner, parallelism, action).join()
+    } catch (e: CompletionException) {
+        throw e.cause ?: e
+    }
+}
+
+/**
+ * Splits range `[0, size)` into chunks and performs [action] with start (inclusive) and end (exclusive) of each chunk
+ * on [runner], returns a future which completes when all chunks are done. There are at most `parallelism * 4` chunks.
+ */
+internal fun runInChunksAsync(
+    size: Int,
+    runner: Runner,
+    parallelism: Int,
+    action: (Int, Int) -> Unit,
+): CompletableFuture<Void> {
+    val chunkCount = maxOf(1, minOf(size, parallelism * 4))
+    val chunkSize = (size + chunkCount - 1) / chunkCount
+    val futures = ArrayList<CompletableFuture<Void>>(chunkCount)
+    var start = 0
+    while (start < size) {
+        val chunkStart = start
+        val chunkEnd = minOf(size, start + chunkSize)
+        futures.add(CompletableFuture.runAsync({ action(chunkStart, chunkEnd) }, runner))
+        start = chunkEnd
+    }
+    return CompletableFuture.allOf(*futures.toTypedArray())
+}
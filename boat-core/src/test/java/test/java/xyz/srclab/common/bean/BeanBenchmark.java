@@ -6,8 +6,12 @@ import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
 import xyz.srclab.common.bean.Beans;
+import xyz.srclab.common.convert.Converter;
+import xyz.srclab.common.lang.Environment;
 import xyz.srclab.common.test.TestLogger;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -24,7 +28,10 @@ public class BeanBenchmark {
 
     private static final TestLogger logger = TestLogger.DEFAULT;
 
+    private static final int LIST_SIZE = 10000;
+
     private BenchmarkBean initBean;
+    private List<BenchmarkBean> initBeans;
 
     @Setup
     public void init() {
@@ -45,6 +52,10 @@ public class BeanBenchmark {
         initBean.setI6(6);
         initBean.setI7(7);
         initBean.setI8(8);
+        initBeans = new ArrayList<>(LIST_SIZE);
+        for (int i = 0; i < LIST_SIZE; i++) {
+            initBeans.add(initBean);
+        }
     }
 
     @Benchmark
@@ -78,6 +89,41 @@ public class BeanBenchmark {
         bean.setI8(initBean.getI8());
     }
 
+    @Benchmark
+    public Object withBeansCopyList() {
+        List<BenchmarkBean> result = new ArrayList<>(initBeans.size());
+        for (BenchmarkBean bean : initBeans) {
+            result.add(Beans.copyProperties(bean, new BenchmarkBean()));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Object withBeansDeepCopy() {
+        return Beans.deepCopy(initBean);
+    }
+
+    @Benchmark
+    public Object withBeansCopyAll() {
+        return Beans.copyAll(initBeans, BenchmarkBean.class);
+    }
+
+    @Benchmark
+    public Object withBeansCopyAllParallel() {
+        return Beans.copyAll(initBeans, BenchmarkBean.class, xyz.srclab.common.run.Runner.ASYNC_RUNNER);
+    }
+
+    @Benchmark
+    public Object withConverterConvertAll() {
+        return Converter.DEFAULT.convertAll(initBeans, BenchmarkBean.class);
+    }
+
+    @Benchmark
+    public Object withConverterConvertAllParallel() {
+        return Converter.DEFAULT.convertAll(
+            initBeans, BenchmarkBean.class, xyz.srclab.common.run.Runner.ASYNC_RUNNER, Environment.availableProcessors());
+    }
+
     /*
      * Benchmark                       Mode  Cnt       Score       Error   Units
      * BeanBenchmark.withBeanUtils    thrpt    3     366.501 ±   266.764  ops/ms
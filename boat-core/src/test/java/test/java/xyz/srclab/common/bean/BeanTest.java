@@ -1,13 +1,22 @@
 package test.java.xyz.srclab.common.bean;
 
+import com.google.common.collect.ImmutableList;
 import org.testng.Assert;
 import org.testng.annotations.Test;
+import test.java.xyz.srclab.common.convert.ConvertTest;
 import xyz.srclab.common.bean.*;
+import xyz.srclab.common.convert.Converter;
 import xyz.srclab.common.reflect.Types;
+import xyz.srclab.common.run.Runner;
 import xyz.srclab.common.test.TestLogger;
 
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Type;
 import java.math.BigDecimal;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.nio.charset.Charset;
+import java.time.LocalDate;
 import java.util.*;
 
 /**
@@ -36,6 +45,40 @@ public class BeanTest {
         Assert.assertNotSame(beanType, beanType2);
     }
 
+    @Test
+    public void testBeanResolveCache() {
+        BeanResolver resolver = BeanResolver.newBeanResolver(BeanResolveHandler.DEFAULTS);
+        Assert.assertSame(resolver.resolve(TestBean.class), resolver.resolve(TestBean.class));
+        Assert.assertSame(
+            resolver.resolve(Types.parameterizedType(B.class, Long.class)),
+            resolver.resolve(Types.parameterizedType(B.class, Long.class))
+        );
+        Assert.assertNotSame(
+            resolver.resolve(Types.parameterizedType(B.class, Long.class)),
+            resolver.resolve(Types.parameterizedType(B.class, String.class))
+        );
+        Assert.assertEquals(
+            resolver.resolve(Types.parameterizedType(B.class, Long.class)).getProperty("p1").type(),
+            Long.class
+        );
+
+        //Each resolver has its own cache
+        BeanResolver resolver2 = BeanResolver.newBeanResolver(BeanResolveHandler.DEFAULTS);
+        Assert.assertNotSame(resolver.resolve(TestBean.class), resolver2.resolve(TestBean.class));
+    }
+
+    @Test
+    public void testBeanPreload() throws Exception {
+        BeanResolver resolver = BeanResolver.newBeanResolver(BeanResolveHandler.DEFAULTS);
+        List<Type> types = Arrays.asList(
+            TestBean.class, SimpleBean.class, A.class, S1.class, S2.class, Types.parameterizedType(B.class, Long.class));
+        resolver.preload(types, Runner.SYNC_RUNNER).get();
+        BeanType testBeanType = resolver.resolve(TestBean.class);
+        Assert.assertEquals(testBeanType.properties().size(), 4);
+        resolver.preload(types).get();
+        Assert.assertSame(resolver.resolve(TestBean.class), testBeanType);
+    }
+
     @Test
     public void testSimpleBean() {
         TestBean a = new TestBean();
@@ -82,6 +125,48 @@ public class BeanTest {
         Assert.assertEquals(map2.get("p3"), Arrays.asList("1", "2", "3"));
     }
 
+    @Test
+    public void testCopyAll() {
+        List<TestBean> beans = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            TestBean bean = new TestBean();
+            bean.setP1("p" + i);
+            bean.setP2(i);
+            bean.setP3(Arrays.asList("1", "2", "3"));
+            beans.add(bean);
+        }
+        beans.set(50, null);
+        for (List<TestBean> copies : Arrays.asList(
+            Beans.copyAll(beans, TestBean.class),
+            Beans.copyAll(beans, TestBean.class, Runner.ASYNC_RUNNER, 4)
+        )) {
+            Assert.assertEquals(copies.size(), 100);
+            Assert.assertNull(copies.get(50));
+            for (int i = 0; i < 100; i++) {
+                if (i == 50) {
+                    continue;
+                }
+                Assert.assertNotSame(copies.get(i), beans.get(i));
+                Assert.assertEquals(copies.get(i).getP1(), "p" + i);
+                Assert.assertEquals(copies.get(i).getP2(), i);
+                Assert.assertEquals(copies.get(i).getP3(), Arrays.asList("1", "2", "3"));
+            }
+        }
+
+        //No no-arg constructor
+        List<ConvertTest.ImmutableBean1> immutableCopies = Beans.copyAll(beans, ConvertTest.ImmutableBean1.class);
+        Assert.assertNull(immutableCopies.get(50));
+        Assert.assertEquals(immutableCopies.get(1).getP1(), "p1");
+        Assert.assertEquals(immutableCopies.get(1).getP2(), 1);
+
+        List<String> numbers = Arrays.asList("1", "2", "3", "4", "5");
+        Assert.assertEquals(Converter.DEFAULT.convertAll(numbers, Integer.class), Arrays.asList(1, 2, 3, 4, 5));
+        Assert.assertEquals(
+            Converter.DEFAULT.convertAll(numbers, Integer.class, Runner.ASYNC_RUNNER, 4),
+            Arrays.asList(1, 2, 3, 4, 5)
+        );
+    }
+
     @Test
     public void testBeanMap() {
         TestBean testBean = new TestBean();
@@ -98,6 +183,12 @@ public class BeanTest {
         Assert.expectThrows(UnsupportedOperationException.class, () -> testMap.put("p4", "p4"));
         testBean.setP2(888);
         Assert.assertEquals(testMap.get("p2"), 888);
+        Assert.assertEquals(testMap.size(), 3);
+        Assert.assertFalse(testMap.containsKey("class"));
+        Assert.assertEquals(new ArrayList<>(testMap.keySet()), new ArrayList<>(Beans.asMap(new TestBean()).keySet()));
+        for (Map.Entry<String, Object> entry : testMap.entrySet()) {
+            Assert.assertEquals(entry.getValue(), testMap.get(entry.getKey()));
+        }
 
         SimpleBean simpleBean = new SimpleBean();
         simpleBean.setP1("789");
@@ -111,6 +202,11 @@ public class BeanTest {
         simpleMap.put("p2", 10000);
         Assert.assertEquals(simpleBean.getP1(), "10086");
         Assert.assertEquals(simpleBean.getP2(), 10000);
+
+        //Write-only properties are not entries
+        Map<String, Object> writeOnlyMap = Beans.asMap(new W());
+        Assert.assertTrue(writeOnlyMap.isEmpty());
+        Assert.assertEquals(writeOnlyMap.size(), 0);
     }
 
     @Test
@@ -140,6 +236,208 @@ public class BeanTest {
         Assert.assertEquals(b.getS().getS2(), 234d);
     }
 
+    @Test
+    public void testGenericBeanTypeCollectable() throws Exception {
+        URL classesUrl = F1.class.getProtectionDomain().getCodeSource().getLocation();
+        URLClassLoader pluginLoader = new URLClassLoader(new URL[]{classesUrl}, null);
+        Class<?> pluginClass = pluginLoader.loadClass(F1.class.getName());
+        Assert.assertNotSame(pluginClass, F1.class);
+        BeanType beanType = BeanResolver.DEFAULT.resolve(Types.parameterizedType(List.class, pluginClass));
+        Assert.assertSame(BeanResolver.DEFAULT.resolve(Types.parameterizedType(List.class, pluginClass)), beanType);
+
+        //Generic type is cached with plugin class, not with List
+        WeakReference<ClassLoader> loaderRef = new WeakReference<>(pluginLoader);
+        pluginLoader.close();
+        pluginLoader = null;
+        pluginClass = null;
+        beanType = null;
+        for (int i = 0; i < 100 && loaderRef.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(loaderRef.get());
+    }
+
+    @Test
+    public void testFieldStyleResolve() throws Exception {
+        F1 f1 = new F1();
+        f1.setF1("f1");
+        f1.setF2(2);
+
+        BeanResolver fieldResolver = BeanResolver.newBeanResolver(
+            Collections.singletonList(FieldStyleBeanResolveHandler.DEFAULT));
+        BeanType fieldType = fieldResolver.resolve(F1.class);
+        logger.log("fieldType: {}", fieldType.properties());
+        Assert.assertEquals(fieldType.properties().keySet(), new HashSet<>(Arrays.asList("f1", "f2", "f3")));
+        Assert.assertEquals(fieldType.getProperty("f1").getValue(f1), "f1");
+        Assert.assertEquals(fieldType.getProperty("f2").getValue(f1), (Integer) 2);
+        Assert.assertFalse(fieldType.getProperty("f3").isWriteable());
+        fieldType.getProperty("f2").setValue(f1, 22);
+        Assert.assertEquals(f1.getF2(), 22);
+        Assert.assertEquals(fieldType.getProperty("f1").backingField(), F1.class.getDeclaredField("f1"));
+
+        BeanResolver accessorResolver = BeanResolver.newBeanResolver(
+            Collections.singletonList(FieldStyleBeanResolveHandler.ACCESSORS));
+        BeanType accessorType = accessorResolver.resolve(F1.class);
+        logger.log("accessorType: {}", accessorType.properties());
+        //Trivial getter is replaced by field
+        Assert.assertEquals(accessorType.getProperty("f1").backingField(), F1.class.getDeclaredField("f1"));
+        Assert.assertEquals(accessorType.getProperty("f1").getValue(f1), "f1");
+        accessorType.getProperty("f1").setValue(f1, "ff1");
+        Assert.assertEquals(f1.getF1(), "ff1");
+        Assert.assertEquals(accessorType.getProperty("f2").getValue(f1), (Integer) 22);
+        //Non-trivial getter is still called
+        Assert.assertEquals(accessorType.getProperty("f4").getValue(f1), "ff1:22");
+        Assert.assertEquals(accessorType.getProperty("class").getValue(f1), F1.class);
+    }
+
+    @Test
+    public void testDeepCopy() {
+        TestBean testBean = new TestBean();
+        testBean.setP1("123");
+        testBean.setP2(6);
+        testBean.setP3(new ArrayList<>(Arrays.asList("1", "2", "3")));
+        TestBean testCopy = Beans.deepCopy(testBean);
+        Assert.assertNotSame(testCopy, testBean);
+        Assert.assertEquals(testCopy.getP1(), "123");
+        Assert.assertEquals(testCopy.getP2(), 6);
+        Assert.assertNotSame(testCopy.getP3(), testBean.getP3());
+        Assert.assertEquals(testCopy.getP3(), testBean.getP3());
+
+        N n1 = new N();
+        N n2 = new N();
+        n1.setName("n1");
+        n1.setNext(n2);
+        n1.setValues(new int[]{1, 2, 3});
+        n1.setDate(LocalDate.of(2021, 1, 1));
+        n2.setName("n2");
+        n2.setNext(n1);
+        Map<String, N> nodes = new HashMap<>();
+        nodes.put("n2", n2);
+        n1.setNodes(nodes);
+        N n1Copy = Beans.deepCopy(n1);
+        Assert.assertNotSame(n1Copy, n1);
+        Assert.assertEquals(n1Copy.getName(), "n1");
+        Assert.assertNotSame(n1Copy.getNext(), n2);
+        Assert.assertEquals(n1Copy.getNext().getName(), "n2");
+        //Cycle and shared references are kept
+        Assert.assertSame(n1Copy.getNext().getNext(), n1Copy);
+        Assert.assertSame(n1Copy.getNodes().get("n2"), n1Copy.getNext());
+        Assert.assertNotSame(n1Copy.getValues(), n1.getValues());
+        Assert.assertEquals(n1Copy.getValues(), new int[]{1, 2, 3});
+        Assert.assertSame(n1Copy.getDate(), n1.getDate());
+
+        DeepCopier copier = DeepCopier.DEFAULT.withImmutableTypes(N.class);
+        Assert.assertSame(copier.copy(n1), n1);
+        Assert.assertSame(copier.copy(Arrays.asList(n1)).get(0), n1);
+
+        //Unmodifiable and immutable collections stay unmodifiable
+        List<N> unmodifiable = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(n1)));
+        List<N> unmodifiableCopy = Beans.deepCopy(unmodifiable);
+        Assert.assertNotSame(unmodifiableCopy.get(0), n1);
+        Assert.expectThrows(UnsupportedOperationException.class, () -> unmodifiableCopy.add(n2));
+        List<N> fixedSize = Arrays.asList(n1, n2);
+        List<N> fixedSizeCopy = Beans.deepCopy(fixedSize);
+        Assert.assertEquals(fixedSizeCopy.getClass(), fixedSize.getClass());
+        Assert.assertSame(fixedSizeCopy.get(0).getNext(), fixedSizeCopy.get(1));
+        Assert.assertSame(Beans.deepCopy(Collections.emptyList()), Collections.emptyList());
+        Map<String, N> singletonCopy = Beans.deepCopy(Collections.singletonMap("n1", n1));
+        Assert.assertEquals(singletonCopy.get("n1").getName(), "n1");
+        Assert.expectThrows(UnsupportedOperationException.class, () -> singletonCopy.put("n2", n2));
+        ImmutableList<N> immutable = ImmutableList.of(n1, n2);
+        List<N> immutableCopy = Beans.deepCopy(immutable);
+        Assert.assertTrue(immutableCopy instanceof ImmutableList);
+        Assert.assertSame(immutableCopy.get(0).getNext(), immutableCopy.get(1));
+
+        //Element of hash set in a cycle is hashed after it is filled
+        H h = new H();
+        h.setName("h");
+        h.setSet(new HashSet<>());
+        h.getSet().add(h);
+        H hCopy = Beans.deepCopy(h);
+        Assert.assertNotSame(hCopy, h);
+        Assert.assertTrue(hCopy.getSet().contains(hCopy));
+    }
+
+    @Test
+    public void testDeepCopierCollectable() throws Exception {
+        N n = new N();
+        n.setName("n");
+        Map<String, N> nodes = new HashMap<>();
+        nodes.put("n", n);
+        n.setNodes(nodes);
+        DeepCopier copier = DeepCopier.DEFAULT.withImmutableTypes(LocalDate.class);
+        List<N> copy = copier.copy(new ArrayList<>(Collections.singletonList(n)));
+        Assert.assertSame(copy.get(0).getNodes().get("n"), copy.get(0));
+
+        //Copiers cached on ArrayList, HashMap and N must not keep the copier alive
+        WeakReference<DeepCopier> copierRef = new WeakReference<>(copier);
+        copier = null;
+        for (int i = 0; i < 100 && copierRef.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(copierRef.get());
+    }
+
+    @Test
+    public void testDiff() {
+        TestBean old = new TestBean();
+        old.setP1("123");
+        old.setP2(6);
+        old.setP3(Arrays.asList("1", "2", "3"));
+        TestBean same = new TestBean();
+        same.setP1(new String("123"));
+        same.setP2(6);
+        same.setP3(new ArrayList<>(Arrays.asList("1", "2", "3")));
+        Assert.assertTrue(Beans.diff(old, same).isEmpty());
+
+        TestBean changed = new TestBean();
+        changed.setP1("123");
+        changed.setP2(7);
+        changed.setP3(Arrays.asList("1", "2", "3"));
+        List<PropertyChange> changes = Beans.diff(old, changed);
+        logger.log("changes: {}", changes);
+        Assert.assertEquals(changes.size(), 1);
+        Assert.assertEquals(changes.get(0).name(), "p2");
+        Assert.assertEquals(changes.get(0).oldValue(), 6);
+        Assert.assertEquals(changes.get(0).newValue(), 7);
+
+        N n1 = new N();
+        n1.setName("n");
+        n1.setValues(new int[]{1, 2, 3});
+        n1.setNext(new N());
+        n1.getNext().setName("next");
+        n1.getNext().setNext(n1);
+        N n2 = Beans.deepCopy(n1);
+        //Arrays are compared by content
+        Assert.assertEquals(Beans.diff(n1, n2).size(), 1);
+        Assert.assertEquals(Beans.diff(n1, n2).get(0).name(), "next");
+        Assert.assertTrue(Beans.diff(n1, n2, true).isEmpty());
+        n2.getNext().setName("next2");
+        Assert.assertEquals(Beans.diff(n1, n2, true).size(), 1);
+
+        //Elements of sets are compared deeply
+        N child = new N();
+        child.setName("child");
+        N s1 = new N();
+        s1.setChildren(new HashSet<>(Collections.singletonList(child)));
+        N s2 = Beans.deepCopy(s1);
+        Assert.assertEquals(Beans.diff(s1, s2).size(), 1);
+        Assert.assertTrue(Beans.diff(s1, s2, true).isEmpty());
+        s2.getChildren().iterator().next().setName("child2");
+        Assert.assertEquals(Beans.diff(s1, s2, true).size(), 1);
+
+        //Primitive fields are compared without boxing
+        BeanResolver fieldResolver = BeanResolver.newBeanResolver(
+            Collections.singletonList(FieldStyleBeanResolveHandler.DEFAULT));
+        Assert.assertTrue(Beans.diff(old, same, false, fieldResolver).isEmpty());
+        List<PropertyChange> fieldChanges = Beans.diff(old, changed, false, fieldResolver);
+        Assert.assertEquals(fieldChanges.size(), 1);
+        Assert.assertEquals(fieldChanges.get(0).name(), "p2");
+        Assert.assertEquals(fieldChanges.get(0).newValue(), 7);
+    }
+
     public interface I1<T1> {
 
         T1 getI1();
@@ -379,4 +677,130 @@ public class BeanTest {
             this.s = s;
         }
     }
+
+    public static final class F1 {
+        private String f1;
+        private int f2;
+        private final String f3 = "f3";
+        private transient String t1;
+
+        public String getF1() {
+            return f1;
+        }
+
+        public void setF1(String f1) {
+            this.f1 = f1;
+        }
+
+        public int getF2() {
+            return f2;
+        }
+
+        public void setF2(int f2) {
+            this.f2 = f2;
+        }
+
+        public String getF4() {
+            return f1 + ":" + f2;
+        }
+    }
+
+    public static class W {
+
+        private String value;
+
+        public void setValue(String value) {
+            this.value = value;
+        }
+    }
+
+    public static class H {
+        private String name;
+        private Set<H> set;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Set<H> getSet() {
+            return set;
+        }
+
+        public void setSet(Set<H> set) {
+            this.set = set;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof H)) return false;
+            return Objects.equals(name, ((H) o).name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(name);
+        }
+    }
+
+    public static class N {
+        private String name;
+        private N next;
+        private int[] values;
+        private LocalDate date;
+        private Map<String, N> nodes;
+        private Set<N> children;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public N getNext() {
+            return next;
+        }
+
+        public void setNext(N next) {
+            this.next = next;
+        }
+
+        public int[] getValues() {
+            return values;
+        }
+
+        public void setValues(int[] values) {
+            this.values = values;
+        }
+
+        public LocalDate getDate() {
+            return date;
+        }
+
+        public void setDate(LocalDate date) {
+            this.date = date;
+        }
+
+        public Map<String, N> getNodes() {
+            return nodes;
+        }
+
+        public void setNodes(Map<String, N> nodes) {
+            this.nodes = nodes;
+        }
+
+        public Set<N> getChildren() {
+            return children;
+        }
+
+        public void setChildren(Set<N> children) {
+            this.children = children;
+        }
+    }
 }
@@ -0,0 +1,249 @@
+package test.java.xyz.srclab.common.cache;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import xyz.srclab.common.cache.Cache;
+import xyz.srclab.common.cache.CaffeineCache;
+import xyz.srclab.common.cache.GuavaCache;
+import xyz.srclab.common.cache.MapCache;
+import xyz.srclab.common.cache.TinyLfuCache;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of {@link Cache} backends on Zipfian workloads, run by {@link #main} with 1, 4, 16 and 64 threads:
+ *
+ * <ul>
+ *     <li>read: 100% reads;</li>
+ *     <li>mixed: 75% reads, 25% writes;</li>
+ *     <li>write: 100% writes;</li>
+ * </ul>
+ * <p>
+ * {@link WrapperBenchmark} measures overhead of {@link Cache} wrapper against raw backend calls.
+ */
+public class CacheBenchmark {
+
+    private static final int MAX_SIZE = 1 << 14;
+    private static final int KEY_COUNT = MAX_SIZE * 4;
+    private static final int SAMPLE_SIZE = 1 << 20;
+    private static final int SAMPLE_MASK = SAMPLE_SIZE - 1;
+
+    private static final Integer[] keys = new Integer[KEY_COUNT];
+    private static final Integer[] samples = new Integer[SAMPLE_SIZE];
+
+    static {
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys[i] = i;
+        }
+        //Zipfian distribution with exponent 0.99, most popular keys are at front
+        double[] cumulative = new double[KEY_COUNT];
+        double sum = 0;
+        for (int i = 0; i < KEY_COUNT; i++) {
+            sum += 1 / Math.pow(i + 1, 0.99);
+            cumulative[i] = sum;
+        }
+        Random random = new Random(7);
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            double target = random.nextDouble() * sum;
+            int low = 0;
+            int high = KEY_COUNT - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (cumulative[mid] < target) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            samples[i] = keys[low];
+        }
+    }
+
+    private static Cache<Integer, Integer> newCache(String backend) {
+        Cache.Builder<Integer, Integer> builder = Cache.newBuilder();
+        switch (backend) {
+            case "caffeine":
+                return builder.maxSize(MAX_SIZE).build();
+            case "guava":
+                return builder.maxSize(MAX_SIZE).useGuava(true).build();
+            case "map":
+                return new MapCache<>(new ConcurrentHashMap<>());
+            case "fast":
+                return Cache.newFastCache();
+            case "tinyLfu":
+                return new TinyLfuCache<>(MAX_SIZE);
+            default:
+                throw new IllegalArgumentException(backend);
+        }
+    }
+
+    /*
+     * Run each workload with 1, 4, 16 and 64 threads.
+     */
+    public static void main(String[] args) throws Exception {
+        for (int threads : new int[]{1, 4, 16, 64}) {
+            Options options = new OptionsBuilder()
+                .include(WorkloadBenchmark.class.getSimpleName())
+                .threads(threads)
+                .build();
+            new Runner(options).run();
+        }
+        Options wrapperOptions = new OptionsBuilder().include(WrapperBenchmark.class.getSimpleName()).build();
+        new Runner(wrapperOptions).run();
+    }
+
+    /**
+     * Each thread walks samples from a random offset, and has its own random stream of operations, independent of keys.
+     */
+    @State(value = Scope.Thread)
+    public static class KeyState {
+
+        private int index = ThreadLocalRandom.current().nextInt(SAMPLE_SIZE);
+        private int seed = ThreadLocalRandom.current().nextInt() | 1;
+
+        public Integer nextKey() {
+            return samples[index++ & SAMPLE_MASK];
+        }
+
+        /**
+         * Returns true with probability 1/4, by a xorshift stream.
+         */
+        public boolean nextWrite() {
+            int x = seed;
+            x ^= x << 13;
+            x ^= x >>> 17;
+            x ^= x << 5;
+            seed = x;
+            return (x & 3) == 0;
+        }
+    }
+
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = 3, time = 3)
+    @Measurement(iterations = 3, time = 3)
+    @Fork(1)
+    @State(value = Scope.Benchmark)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public static class WorkloadBenchmark {
+
+        @Param({"caffeine", "guava", "map", "fast", "tinyLfu"})
+        public String backend;
+
+        private Cache<Integer, Integer> cache;
+
+        @Setup
+        public void init() {
+            cache = newCache(backend);
+            for (int i = 0; i < MAX_SIZE; i++) {
+                //Keys are strongly referenced, so weak-valued fast cache keeps them
+                cache.put(keys[i], keys[i]);
+            }
+        }
+
+        @Benchmark
+        public Object read(KeyState keyState) {
+            return cache.getOrNull(keyState.nextKey());
+        }
+
+        @Benchmark
+        public Object mixed(KeyState keyState) {
+            Integer key = keyState.nextKey();
+            if (keyState.nextWrite()) {
+                cache.put(key, key);
+                return key;
+            }
+            return cache.getOrNull(key);
+        }
+
+        @Benchmark
+        public void write(KeyState keyState) {
+            Integer key = keyState.nextKey();
+            cache.put(key, key);
+        }
+    }
+
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = 3, time = 3)
+    @Measurement(iterations = 3, time = 3)
+    @Threads(16)
+    @Fork(1)
+    @State(value = Scope.Benchmark)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public static class WrapperBenchmark {
+
+        private com.github.benmanes.caffeine.cache.Cache<Integer, Integer> rawCaffeine;
+        private com.google.common.cache.Cache<Integer, Integer> rawGuava;
+        private ConcurrentHashMap<Integer, Integer> rawMap;
+        private Cache<Integer, Integer> caffeineCache;
+        private Cache<Integer, Integer> guavaCache;
+        private Cache<Integer, Integer> mapCache;
+
+        @Setup
+        public void init() {
+            rawCaffeine = com.github.benmanes.caffeine.cache.Caffeine.newBuilder().maximumSize(MAX_SIZE).build();
+            rawGuava = com.google.common.cache.CacheBuilder.newBuilder().maximumSize(MAX_SIZE).build();
+            rawMap = new ConcurrentHashMap<>();
+            caffeineCache = new CaffeineCache<>(rawCaffeine);
+            guavaCache = new GuavaCache<>(rawGuava);
+            mapCache = new MapCache<>(rawMap);
+            for (int i = 0; i < MAX_SIZE; i++) {
+                rawCaffeine.put(keys[i], keys[i]);
+                rawGuava.put(keys[i], keys[i]);
+                rawMap.put(keys[i], keys[i]);
+            }
+        }
+
+        @Benchmark
+        public Object rawCaffeine(KeyState keyState) {
+            return rawCaffeine.getIfPresent(keyState.nextKey());
+        }
+
+        @Benchmark
+        public Object caffeineGetOrNull(KeyState keyState) {
+            return caffeineCache.getOrNull(keyState.nextKey());
+        }
+
+        /**
+         * Goes through NotFound sentinel.
+         */
+        @Benchmark
+        public Object caffeineGetOrElse(KeyState keyState) {
+            Integer key = keyState.nextKey();
+            return caffeineCache.getOrElse(key, k -> k);
+        }
+
+        @Benchmark
+        public Object rawGuava(KeyState keyState) {
+            return rawGuava.getIfPresent(keyState.nextKey());
+        }
+
+        @Benchmark
+        public Object guavaGetOrNull(KeyState keyState) {
+            return guavaCache.getOrNull(keyState.nextKey());
+        }
+
+        @Benchmark
+        public Object rawMap(KeyState keyState) {
+            return rawMap.get(keyState.nextKey());
+        }
+
+        @Benchmark
+        public Object mapGetOrNull(KeyState keyState) {
+            return mapCache.getOrNull(keyState.nextKey());
+        }
+
+        /**
+         * Goes through NotFound sentinel.
+         */
+        @Benchmark
+        public Object mapGetOrElse(KeyState keyState) {
+            Integer key = keyState.nextKey();
+            return mapCache.getOrElse(key, k -> k);
+        }
+    }
+}
@@ -2,13 +2,16 @@ package test.java.xyz.srclab.common.cache;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
-import xyz.srclab.common.cache.Cache;
-import xyz.srclab.common.cache.MapCache;
+import xyz.srclab.common.cache.*;
+import xyz.srclab.common.run.Runner;
+import xyz.srclab.common.run.Scheduler;
 
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.NoSuchElementException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author sunqian
@@ -37,6 +40,550 @@ public class CacheTest {
         doTestCache(builder.useGuava(true).build());
     }
 
+    @Test
+    public void testCacheListenersAndStats() {
+        doTestCacheListenersAndStats(false);
+        doTestCacheListenersAndStats(true);
+    }
+
+    private void doTestCacheListenersAndStats(boolean useGuava) {
+        //Removal listener may be notified asynchronously
+        List<String> events = new CopyOnWriteArrayList<>();
+        Cache.Builder<String, String> builder = Cache.newBuilder();
+        Cache<String, String> cache = builder
+            .useGuava(useGuava)
+            .recordStats(true)
+            .createListener(new CacheCreateListener<String, String>() {
+                @Override
+                public void beforeCreate(String key) {
+                    events.add("beforeCreate:" + key);
+                }
+
+                @Override
+                public void afterCreate(String key, String value) {
+                    events.add("afterCreate:" + key + "=" + value);
+                }
+            })
+            .readListener(new CacheReadListener<String, String>() {
+                @Override
+                public void beforeRead(String key) {
+                    events.add("beforeRead:" + key);
+                }
+
+                @Override
+                public void onHit(String key, String value) {
+                    events.add("onHit:" + key + "=" + value);
+                }
+
+                @Override
+                public void onMiss(String key) {
+                    events.add("onMiss:" + key);
+                }
+            })
+            .updateListener(new CacheUpdateListener<String, String>() {
+                @Override
+                public void beforeUpdate(String key, String oldValue) {
+                    events.add("beforeUpdate:" + key + "=" + oldValue);
+                }
+
+                @Override
+                public void afterUpdate(String key, String oldValue, String newValue) {
+                    events.add("afterUpdate:" + key + "=" + oldValue + "->" + newValue);
+                }
+            })
+            .removeListener(new CacheRemoveListener<String, String>() {
+                @Override
+                public void beforeRemove(String key, String value, Cause cause) {
+                    events.add("beforeRemove:" + key + "=" + value);
+                }
+
+                @Override
+                public void afterRemove(String key, String value, Cause cause) {
+                    events.add("afterRemove:" + key + "=" + value + ":" + cause);
+                }
+            })
+            .build();
+
+        Assert.assertNull(cache.getOrNull("1"));
+        Assert.assertEquals(cache.getOrLoad("1", k -> "1"), "1");
+        Assert.assertEquals(cache.getOrLoad("1", k -> "x"), "1");
+        cache.put("1", "11");
+        cache.invalidate("1");
+        cache.cleanUp();
+        List<String> syncEvents = new ArrayList<>();
+        for (String event : events) {
+            if (!event.startsWith("afterRemove")) {
+                syncEvents.add(event);
+            }
+        }
+        Assert.assertEquals(syncEvents, Arrays.asList(
+            "beforeRead:1",
+            "onMiss:1",
+            "beforeRead:1",
+            "beforeCreate:1",
+            "afterCreate:1=1",
+            "onMiss:1",
+            "beforeRead:1",
+            "onHit:1=1",
+            "beforeUpdate:1=1",
+            "afterUpdate:1=1->11",
+            "beforeRemove:1=11"
+        ));
+
+        CacheStats stats = cache.stats();
+        Assert.assertEquals(stats.hitCount(), 1);
+        Assert.assertEquals(stats.missCount(), 2);
+        Assert.assertEquals(stats.loadSuccessCount(), 1);
+        Assert.assertEquals(stats.evictionCount(), 0);
+        Assert.assertEquals(stats.hitRate(), 1.0 / 3);
+        Assert.assertSame(Cache.newFastCache().stats(), CacheStats.EMPTY);
+    }
+
+    @Test
+    public void testMapCacheExpiry() throws Exception {
+        Map<String, String> map = new ConcurrentHashMap<>();
+        MapCache<String, String> cache = new MapCache<>(map);
+        cache.put("1", "1", Duration.ofMillis(50));
+        cache.put("2", "2", Duration.ofMinutes(10));
+        cache.put("3", "3");
+        cache.put("4", "4", Duration.ofMillis(50));
+        cache.put("4", "44");
+        Assert.assertEquals(cache.getOrNull("1"), "1");
+        Thread.sleep(100);
+        Assert.assertNull(cache.getOrNull("1"));
+        Assert.assertFalse(map.containsKey("1"));
+        Assert.assertEquals(cache.getOrNull("2"), "2");
+        Assert.assertEquals(cache.getOrNull("3"), "3");
+        Assert.assertEquals(cache.getOrNull("4"), "44");
+        Assert.assertEquals(cache.getOrLoad("1", k -> "11"), "11");
+
+        cache.expiry("2", Duration.ofMillis(50));
+        Thread.sleep(100);
+        cache.cleanUp();
+        Assert.assertFalse(map.containsKey("2"));
+
+        MapCache<String, String> sweptCache = new MapCache<>(
+            map, Scheduler.DEFAULT_THREAD_SCHEDULER, Duration.ofMillis(20));
+        sweptCache.put("5", "5", Duration.ofMillis(10));
+        Thread.sleep(200);
+        Assert.assertFalse(map.containsKey("5"));
+        sweptCache.close();
+    }
+
+    @Test
+    public void testOffHeapCache() {
+        doTestCache(new OffHeapCache<>(1024 * 1024, CacheCodec.STRING));
+
+        //1 segment, 16 blocks of 64 bytes
+        OffHeapCache<String, String> cache = new OffHeapCache<>(1024, CacheCodec.STRING, 1, 64);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            builder.append(i % 10);
+        }
+        String large = builder.toString();
+        cache.put("large", large);
+        Assert.assertEquals(cache.getOrNull("large"), large);
+        Assert.assertEquals(cache.usedBytes(), 4 * 64);
+        for (int i = 0; i < 12; i++) {
+            cache.put("k" + i, "v" + i);
+        }
+        Assert.assertEquals(cache.size(), 13);
+        cache.getOrNull("large");
+        cache.put("k12", "v12");
+        //Eldest k0 is evicted, large is recently used
+        Assert.assertNull(cache.getOrNull("k0"));
+        Assert.assertEquals(cache.getOrNull("large"), large);
+        Assert.assertEquals(cache.getOrNull("k12"), "v12");
+        //Value larger than a segment is rejected, old value is kept
+        String tooLarge = large + large + large + large + large;
+        Assert.expectThrows(IllegalArgumentException.class, () -> cache.put("large", tooLarge));
+        Assert.assertEquals(cache.getOrNull("large"), large);
+        cache.invalidateAll();
+        Assert.assertEquals(cache.usedBytes(), 0);
+
+        Cache.Builder<String, String> tieredBuilder = Cache.newBuilder();
+        Cache<String, String> tieredCache = tieredBuilder
+            .maxSize(10)
+            .useGuava(true)
+            .offHeapTier(1024 * 1024, CacheCodec.STRING)
+            .build();
+        Assert.assertTrue(tieredCache instanceof TieredCache);
+        for (int i = 0; i < 100; i++) {
+            tieredCache.put("k" + i, "v" + i);
+        }
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(tieredCache.getOrNull("k" + i), "v" + i);
+        }
+    }
+
+    @Test
+    public void testTieredCache() {
+        Map<String, String> l2Map = new ConcurrentHashMap<>();
+        Cache.Builder<String, String> builder = Cache.newBuilder();
+        TieredCache<String, String> cache = (TieredCache<String, String>) builder
+            .maxSize(2)
+            .recordStats(true)
+            .tier(new MapCache<>(l2Map))
+            .build();
+        doTestCache(cache);
+
+        cache.invalidateAll();
+        for (int i = 0; i < 10; i++) {
+            cache.put("k" + i, "v" + i);
+        }
+        cache.cleanUp();
+        //Evicted entries are demoted into l2
+        Assert.assertTrue(l2Map.size() >= 8);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(cache.getOrNull("k" + i), "v" + i);
+        }
+        CacheStats l2Stats = cache.l2Stats();
+        Assert.assertTrue(l2Stats.hitCount() > 0);
+        Assert.assertEquals(cache.stats().hitCount(), cache.l1Stats().hitCount() + l2Stats.hitCount());
+
+        cache.put("k0", "new");
+        Assert.assertFalse(l2Map.containsKey("k0"));
+        cache.invalidate("k1");
+        Assert.assertNull(cache.getOrNull("k1"));
+        Assert.assertFalse(l2Map.containsKey("k1"));
+
+        //Promoted entries are removed from l2, so each key is visited once
+        Map<String, String> visited = new HashMap<>();
+        cache.forEachEntry((k, v, d) -> {
+            Assert.assertNull(visited.put(k, v));
+            return null;
+        });
+        for (int i = 2; i < 10; i++) {
+            Assert.assertEquals(cache.getOrLoad("k" + i, k -> "loaded"), "v" + i);
+        }
+    }
+
+    @Test
+    public void testTieredCacheConcurrently() throws Exception {
+        Cache.Builder<Integer, String> builder = Cache.newBuilder();
+        TieredCache<Integer, String> cache = (TieredCache<Integer, String>) builder
+            .maxSize(16)
+            .tier(new MapCache<>(new ConcurrentHashMap<>()))
+            .build();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int seed = t;
+            futures.add(executor.submit(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 10000; i++) {
+                    int key = random.nextInt(256);
+                    switch (random.nextInt(3)) {
+                        case 0:
+                            cache.put(key, "v" + key);
+                            break;
+                        case 1:
+                            cache.getOrLoad(key, k -> "v" + k);
+                            break;
+                        default:
+                            cache.invalidate(key);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            //Evictions demote other keys while a stripe lock is held, which must not deadlock
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        for (int i = 0; i < 256; i++) {
+            cache.invalidate(i);
+        }
+        cache.cleanUp();
+        cache.forEachEntry((k, v, d) -> {
+            Assert.fail("Invalidated entry is present: " + k);
+            return null;
+        });
+    }
+
+    @Test
+    public void testTieredCacheSingleLoad() throws Exception {
+        Cache.Builder<String, String> builder = Cache.newBuilder();
+        TieredCache<String, String> cache = (TieredCache<String, String>) builder
+            .maxSize(16)
+            .tier(new MapCache<>(new ConcurrentHashMap<>()))
+            .build();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<String>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(() -> cache.getOrLoad("k", k -> {
+                loads.incrementAndGet();
+                started.countDown();
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return "v";
+            })));
+            started.await();
+        }
+        for (Future<String> future : futures) {
+            Assert.assertEquals(future.get(30, TimeUnit.SECONDS), "v");
+        }
+        executor.shutdown();
+        Assert.assertEquals(loads.get(), 1);
+    }
+
+    @Test
+    public void testWeightedCache() {
+        for (boolean useGuava : new boolean[]{false, true}) {
+            Cache.Builder<String, String> builder = Cache.newBuilder();
+            Cache<String, String> cache = builder
+                .maxWeight(100)
+                .weigher((k, v) -> v.length())
+                .concurrencyLevel(1)
+                .useGuava(useGuava)
+                .build();
+            doTestCache(cache);
+            cache.invalidateAll();
+            for (int i = 0; i < 10; i++) {
+                cache.put("k" + i, "0123456789012345678901234567890123456789");
+            }
+            cache.cleanUp();
+            Assert.assertTrue(cache.getPresent(Arrays.asList("k0", "k1", "k2", "k3", "k4", "k5", "k6", "k7", "k8", "k9"))
+                .size() <= 2);
+        }
+
+        SizeEstimator estimator = SizeEstimator.DEFAULT;
+        Assert.assertEquals(estimator.estimate(null), 0);
+        Assert.assertEquals(estimator.estimate(new byte[100]), 120);
+        Assert.assertEquals(estimator.estimate(new long[10]), 96);
+        Assert.assertTrue(estimator.estimate("0123456789") > estimator.estimate("0"));
+        Assert.assertTrue(estimator.estimate(Arrays.asList(new byte[100], new byte[100])) > 240);
+        Assert.assertTrue(estimator.estimate(Collections.singletonMap("k", new byte[100])) > 120);
+
+        Cache.Builder<String, byte[]> builder = Cache.newBuilder();
+        Cache<String, byte[]> cache = builder.maxWeight(10 * 1024).concurrencyLevel(1).build();
+        for (int i = 0; i < 100; i++) {
+            cache.put("k" + i, new byte[1000]);
+        }
+        cache.cleanUp();
+        int count = 0;
+        for (int i = 0; i < 100; i++) {
+            if (cache.getOrNull("k" + i) != null) {
+                count++;
+            }
+        }
+        Assert.assertTrue(count <= 10);
+    }
+
+    @Test
+    public void testRefreshAheadCache() throws Exception {
+        AtomicInteger version = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        Cache.Builder<String, String> builder = Cache.newBuilder();
+        RefreshAheadCache<String, String> cache = (RefreshAheadCache<String, String>) builder
+            .maxSize(100)
+            .loader(k -> {
+                if (failures.get() > 0) {
+                    failures.decrementAndGet();
+                    throw new IllegalStateException("reload failed");
+                }
+                return k + version.incrementAndGet();
+            })
+            .refreshAhead(Duration.ofMillis(50), Runner.ASYNC_RUNNER, 1, Duration.ofMillis(100))
+            .build();
+        Assert.assertEquals(cache.get("b"), "b1");
+        cache.invalidate("b");
+        version.set(0);
+
+        cache.put("a", "a0");
+        Assert.assertEquals(cache.get("a"), "a0");
+        Thread.sleep(60);
+        //Stale value is returned and reloaded in background
+        Assert.assertEquals(cache.get("a"), "a0");
+        Thread.sleep(50);
+        Assert.assertEquals(cache.get("a"), "a1");
+
+        //Failed reload keeps old value
+        failures.set(1);
+        Thread.sleep(60);
+        Assert.assertEquals(cache.get("a"), "a1");
+        Thread.sleep(20);
+        Assert.assertEquals(cache.get("a"), "a1");
+        Assert.assertEquals(failures.get(), 0);
+        //In backoff
+        Thread.sleep(20);
+        Assert.assertEquals(cache.get("a"), "a1");
+        Thread.sleep(100);
+        Assert.assertEquals(cache.get("a"), "a1");
+        Thread.sleep(50);
+        Assert.assertEquals(cache.get("a"), "a2");
+
+        Assert.expectThrows(IllegalStateException.class, () -> {
+            Cache.Builder<String, String> noLoader = Cache.newBuilder();
+            noLoader.refreshAhead(Duration.ofSeconds(1)).build();
+        });
+    }
+
+    @Test
+    public void testCacheSnapshot() throws Exception {
+        Path path = Files.createTempFile("cache-snapshot", ".bin");
+        MapCache<String, String> mapCache = new MapCache<>(new ConcurrentHashMap<>());
+        mapCache.put("1", "111");
+        mapCache.put("2", "222", Duration.ofHours(1));
+        mapCache.put("3", "333", Duration.ofMillis(1));
+        Thread.sleep(10);
+        mapCache.snapshotTo(path, CacheCodec.STRING, CacheCodec.STRING);
+
+        Cache.Builder<String, String> builder = Cache.newBuilder();
+        Cache<String, String> cache = builder
+            .maxSize(100)
+            .warmFrom(path, CacheCodec.STRING, CacheCodec.STRING)
+            .build();
+        Assert.assertEquals(cache.getOrNull("1"), "111");
+        Assert.assertEquals(cache.getOrNull("2"), "222");
+        Assert.assertNull(cache.getOrNull("3"));
+
+        //Snapshot of caffeine cache, then warm in background
+        cache.snapshotTo(path, CacheCodec.STRING, CacheCodec.STRING);
+        Cache.Builder<String, String> asyncBuilder = Cache.newBuilder();
+        Cache<String, String> asyncWarmed = asyncBuilder
+            .maxSize(100)
+            .warmFrom(path, CacheCodec.STRING, CacheCodec.STRING, Runner.ASYNC_RUNNER)
+            .build();
+        for (int i = 0; i < 100 && asyncWarmed.getPresent(Arrays.asList("1", "2")).size() < 2; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(asyncWarmed.getOrNull("1"), "111");
+        Assert.assertEquals(asyncWarmed.getOrNull("2"), "222");
+
+        //Remaining time to live is kept, and warming neither loads nor notifies listeners
+        Cache.Builder<String, String> ttlBuilder = Cache.newBuilder();
+        Cache<String, String> ttlCache = ttlBuilder.maxSize(100).variableExpiry(true).build();
+        ttlCache.put("1", "111", Duration.ofMillis(300));
+        ttlCache.put("2", "222");
+        ttlCache.snapshotTo(path, CacheCodec.STRING, CacheCodec.STRING);
+        AtomicInteger created = new AtomicInteger();
+        Cache.Builder<String, String> statsBuilder = Cache.newBuilder();
+        Cache<String, String> ttlWarmed = statsBuilder
+            .maxSize(100)
+            .recordStats(true)
+            .createListener(new CacheCreateListener<String, String>() {
+                @Override
+                public void beforeCreate(String key) {
+                    created.incrementAndGet();
+                }
+
+                @Override
+                public void afterCreate(String key, String value) {
+                }
+            })
+            .warmFrom(path, CacheCodec.STRING, CacheCodec.STRING)
+            .build();
+        Assert.assertEquals(created.get(), 0);
+        Assert.assertEquals(ttlWarmed.stats().missCount(), 0);
+        Assert.assertEquals(ttlWarmed.stats().loadCount(), 0);
+        Map<String, Duration> remaining = new HashMap<>();
+        ttlWarmed.forEachEntry((k, v, d) -> {
+            remaining.put(k, d);
+            return null;
+        });
+        Assert.assertTrue(remaining.get("1").toMillis() <= 300);
+        Assert.assertNull(remaining.get("2"));
+        Thread.sleep(400);
+        Assert.assertNull(ttlWarmed.getOrNull("1"));
+        Assert.assertEquals(ttlWarmed.getOrNull("2"), "222");
+
+        //Temp file is deleted if writing fails
+        CacheCodec<String> brokenCodec = CacheCodec.of(v -> {
+            throw new IllegalStateException("broken");
+        }, String::new);
+        Assert.expectThrows(IllegalStateException.class, () -> ttlWarmed.snapshotTo(path, brokenCodec, brokenCodec));
+        Assert.assertFalse(Files.exists(path.resolveSibling(path.getFileName() + ".tmp")));
+
+        Files.delete(path);
+        Cache.Builder<String, String> missingBuilder = Cache.newBuilder();
+        Assert.assertNull(missingBuilder.warmFrom(path, CacheCodec.STRING, CacheCodec.STRING).build().getOrNull("1"));
+    }
+
+    @Test
+    public void testTinyLfuCache() {
+        doTestCache(Cache.newTinyLfuCache(100));
+
+        TinyLfuCache<String, String> cache = new TinyLfuCache<>(100, 1, true);
+        for (int i = 0; i < 50; i++) {
+            cache.put("hot" + i, "hot" + i);
+        }
+        for (int n = 0; n < 10; n++) {
+            for (int i = 0; i < 50; i++) {
+                Assert.assertEquals(cache.getOrNull("hot" + i), "hot" + i);
+            }
+        }
+        cache.cleanUp();
+        //Scan of cold keys should not flush hot keys
+        for (int i = 0; i < 1000; i++) {
+            cache.put("cold" + i, "cold" + i);
+        }
+        cache.cleanUp();
+        Assert.assertTrue(cache.size() <= 100);
+        int hotCount = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.getOrNull("hot" + i) != null) {
+                hotCount++;
+            }
+        }
+        Assert.assertEquals(hotCount, 50);
+        Assert.assertTrue(cache.stats().evictionCount() >= 950);
+
+        cache.invalidateAll();
+        Assert.assertEquals(cache.size(), 0);
+        Assert.assertNull(cache.getOrNull("hot0"));
+    }
+
+    @Test
+    public void testAsyncCache() throws Exception {
+        doTestAsyncCache(AsyncCache.newMapAsyncCache());
+        Cache.Builder<String, String> builder = Cache.newBuilder();
+        doTestAsyncCache(builder.maxSize(100).buildAsync());
+
+        Cache.Builder<String, String> statsBuilder = Cache.newBuilder();
+        statsBuilder.recordStats(true);
+        Assert.expectThrows(IllegalStateException.class, statsBuilder::buildAsync);
+    }
+
+    private void doTestAsyncCache(AsyncCache<String, String> cache) throws Exception {
+        AtomicInteger loadCount = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(cache.getAsync("1", k -> {
+                loadCount.incrementAndGet();
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return "111";
+            }));
+        }
+        latch.countDown();
+        for (CompletableFuture<String> future : futures) {
+            Assert.assertEquals(future.get(), "111");
+        }
+        Assert.assertEquals(loadCount.get(), 1);
+        Assert.assertEquals(cache.getIfPresent("1").get(), "111");
+
+        CompletableFuture<String> failed = cache.getAsync("2", k -> {
+            throw new IllegalStateException("load failed");
+        });
+        Assert.expectThrows(ExecutionException.class, failed::get);
+        Thread.sleep(50);
+        Assert.assertNull(cache.getIfPresent("2"));
+        Assert.assertEquals(cache.getAsync("2", k -> "222").get(), "222");
+
+        cache.invalidate("1");
+        Assert.assertNull(cache.getIfPresent("1"));
+    }
+
     private void doTestCache(Cache<String, String> cache) {
         cache.cleanUp();
         Assert.expectThrows(NoSuchElementException.class, () -> cache.get("1"));
@@ -52,13 +599,18 @@ public class CacheTest {
         map.put("1", "111");
         map.put("2", "222");
         map.put("5", "55");
-        Assert.assertEquals(cache.getAll(Arrays.asList("1", "2", "5"), it -> {
+        List<String> loadedKeys = new ArrayList<>();
+        Assert.assertEquals(cache.getAll(Arrays.asList("1", "2", "5", "5"), it -> {
             Map<String, String> result = new HashMap<>();
             for (String s : it) {
-                result.put(s, s + s);
+                loadedKeys.add(s);
+                //Interned to keep strong reference for weak-valued cache
+                result.put(s, (s + s).intern());
             }
             return result;
         }), map);
+        Assert.assertEquals(loadedKeys, Collections.singletonList("5"));
+        Assert.assertEquals(cache.getOrNull("5"), "55");
         map.remove("5");
         Assert.assertEquals(cache.getPresent(Arrays.asList("1", "2", "6")), map);
 
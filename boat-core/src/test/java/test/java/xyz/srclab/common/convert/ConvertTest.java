@@ -5,6 +5,8 @@ import org.jetbrains.annotations.Nullable;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 import xyz.srclab.common.collect.Collects;
+import xyz.srclab.common.convert.BeanConvertHandler;
+import xyz.srclab.common.convert.ConstructorBeanGenerator;
 import xyz.srclab.common.convert.ConvertChain;
 import xyz.srclab.common.convert.ConvertHandler;
 import xyz.srclab.common.convert.Converter;
@@ -12,6 +14,7 @@ import xyz.srclab.common.convert.Converts;
 import xyz.srclab.common.reflect.TypeRef;
 import xyz.srclab.common.test.TestLogger;
 
+import java.beans.ConstructorProperties;
 import java.lang.reflect.Type;
 import java.util.*;
 
@@ -54,6 +57,48 @@ public class ConvertTest {
         Assert.assertEquals(converter.convert(100L, String.class), "L100");
     }
 
+    @Test
+    public void testConstructorBeanGenerator() {
+        Converter converter = Converter.newConverter(ConvertHandler.defaultsWithBeanConvertHandler(
+            new BeanConvertHandler(new ConstructorBeanGenerator())));
+
+        Map<String, Object> map = new HashMap<>();
+        map.put("p1", "p1");
+        map.put("p2", "2");
+        ImmutableBean1 bean1 = converter.convert(map, ImmutableBean1.class);
+        Assert.assertEquals(bean1.getP1(), "p1");
+        Assert.assertEquals(bean1.getP2(), 2);
+
+        ImmutableBean2 bean2 = converter.convert(bean1, ImmutableBean2.class);
+        Assert.assertEquals(bean2.getP1(), "p1");
+        Assert.assertEquals(bean2.getP2(), 2L);
+
+        //Missing primitive is zero
+        map.remove("p2");
+        bean1 = converter.convert(map, ImmutableBean1.class);
+        Assert.assertEquals(bean1.getP1(), "p1");
+        Assert.assertEquals(bean1.getP2(), 0);
+
+        //Names of parameters of same type can't be guessed, so the no-arg constructor is used
+        map.clear();
+        map.put("first", "f");
+        map.put("last", "l");
+        NameBean name = converter.convert(map, NameBean.class);
+        Assert.assertEquals(name.getFirst(), "f");
+        Assert.assertEquals(name.getLast(), "l");
+
+        //Properties which are not constructor parameters are set by setters
+        map.clear();
+        map.put("p1", "p1");
+        map.put("p2", "2");
+        MixedBean mixed = converter.convert(map, MixedBean.class);
+        Assert.assertEquals(mixed.getP1(), "p1");
+        Assert.assertEquals(mixed.getP2(), 2);
+        mixed = converter.convert(bean1, MixedBean.class);
+        Assert.assertEquals(mixed.getP1(), "p1");
+        Assert.assertEquals(mixed.getP2(), 2);
+    }
+
     public static class IntToStringHandler implements ConvertHandler {
 
         @Nullable
@@ -83,4 +128,96 @@ public class ConvertTest {
     public static enum E {
         A, B, C
     }
+
+    public static final class ImmutableBean1 {
+
+        private final String p1;
+        private final int p2;
+
+        public ImmutableBean1(String p1, int p2) {
+            this.p1 = p1;
+            this.p2 = p2;
+        }
+
+        public String getP1() {
+            return p1;
+        }
+
+        public int getP2() {
+            return p2;
+        }
+    }
+
+    public static final class NameBean {
+
+        private String first;
+        private String last;
+
+        public NameBean() {
+        }
+
+        public NameBean(String last, String first) {
+            this.first = first;
+            this.last = last;
+        }
+
+        public String getFirst() {
+            return first;
+        }
+
+        public void setFirst(String first) {
+            this.first = first;
+        }
+
+        public String getLast() {
+            return last;
+        }
+
+        public void setLast(String last) {
+            this.last = last;
+        }
+    }
+
+    public static final class MixedBean {
+
+        private final String p1;
+        private int p2;
+
+        @ConstructorProperties({"p1"})
+        public MixedBean(String p1) {
+            this.p1 = p1;
+        }
+
+        public String getP1() {
+            return p1;
+        }
+
+        public int getP2() {
+            return p2;
+        }
+
+        public void setP2(int p2) {
+            this.p2 = p2;
+        }
+    }
+
+    public static final class ImmutableBean2 {
+
+        private final long p2;
+        private final String p1;
+
+        @ConstructorProperties({"p1", "p2"})
+        public ImmutableBean2(String p1, long p2) {
+            this.p1 = p1;
+            this.p2 = p2;
+        }
+
+        public String getP1() {
+            return p1;
+        }
+
+        public long getP2() {
+            return p2;
+        }
+    }
 }
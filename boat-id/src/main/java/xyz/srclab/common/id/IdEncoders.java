@@ -0,0 +1,89 @@
+package xyz.srclab.common.id;
+
+import java.util.UUID;
+
+/**
+ * Encoders to encode 64-bit and 128-bit ids to compact strings.
+ * <p>
+ * All ids are treated as unsigned and encoded in fixed width with ASCII-ordered alphabets, so lexicographic order of
+ * encoded strings is same with numeric order of ids:
+ * <ul>
+ *     <li>base62: {@code 0-9A-Za-z}, 11 chars for 64-bit, 22 chars for 128-bit;</li>
+ *     <li>base32 (Crockford): {@code 0-9A-Z} without {@code I L O U}, 13 chars for 64-bit, 26 chars for 128-bit.</li>
+ * </ul>
+ * Each encoding allocates only result string and one char array.
+ */
+public class IdEncoders {
+
+    private static final char[] BASE62_CHARS =
+        "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz".toCharArray();
+    private static final char[] BASE32_CHARS = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+    private static final int BASE62_64_LENGTH = 11;
+    private static final int BASE62_128_LENGTH = 22;
+    private static final int BASE32_64_LENGTH = 13;
+    private static final int BASE32_128_LENGTH = 26;
+
+    private static final long INT_MASK = 0xffffffffL;
+
+    public static String toBase62(long id) {
+        char[] chars = new char[BASE62_64_LENGTH];
+        long high = id >>> 32;
+        long low = id & INT_MASK;
+        for (int i = BASE62_64_LENGTH - 1; i >= 0; i--) {
+            long remainder = high % 62;
+            high = high / 62;
+            long current = (remainder << 32) | low;
+            low = current / 62;
+            chars[i] = BASE62_CHARS[(int) (current % 62)];
+        }
+        return new String(chars);
+    }
+
+    public static String toBase62(long mostSigBits, long leastSigBits) {
+        char[] chars = new char[BASE62_128_LENGTH];
+        long l0 = mostSigBits >>> 32;
+        long l1 = mostSigBits & INT_MASK;
+        long l2 = leastSigBits >>> 32;
+        long l3 = leastSigBits & INT_MASK;
+        for (int i = BASE62_128_LENGTH - 1; i >= 0; i--) {
+            long current = l0;
+            l0 = current / 62;
+            current = ((current % 62) << 32) | l1;
+            l1 = current / 62;
+            current = ((current % 62) << 32) | l2;
+            l2 = current / 62;
+            current = ((current % 62) << 32) | l3;
+            l3 = current / 62;
+            chars[i] = BASE62_CHARS[(int) (current % 62)];
+        }
+        return new String(chars);
+    }
+
+    public static String toBase62(UUID id) {
+        return toBase62(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    public static String toBase32(long id) {
+        char[] chars = new char[BASE32_64_LENGTH];
+        for (int i = BASE32_64_LENGTH - 1; i >= 0; i--) {
+            chars[i] = BASE32_CHARS[(int) (id & 0x1f)];
+            id >>>= 5;
+        }
+        return new String(chars);
+    }
+
+    public static String toBase32(long mostSigBits, long leastSigBits) {
+        char[] chars = new char[BASE32_128_LENGTH];
+        for (int i = BASE32_128_LENGTH - 1; i >= 0; i--) {
+            chars[i] = BASE32_CHARS[(int) (leastSigBits & 0x1f)];
+            leastSigBits = (leastSigBits >>> 5) | (mostSigBits << 59);
+            mostSigBits >>>= 5;
+        }
+        return new String(chars);
+    }
+
+    public static String toBase32(UUID id) {
+        return toBase32(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+}
@@ -0,0 +1,344 @@
+package xyz.srclab.common.id;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free SnowFlake id generator.
+ * <p>
+ * Unlike {@link SnowflakeIdGenerator}, this generator packs last timestamp and sequence into one {@link AtomicLong}
+ * and advances it by CAS, and waits for next millis by spinning and parking without holding any lock. Ids generated
+ * by this class have same layout with {@link SnowflakeIdGenerator}, and clock backward jumps are tolerated in same
+ * way with {@code maxBackwardsMillis}.
+ * <p>
+ * Full timestamp (with offset) is packed above sequence, so it must fit in {@code timestampBits + workerIdBits} bits.
+ * Layouts with short timestamp should set {@code timestampOffset} to make timestamp small, such as negative start
+ * time, or {@link IllegalArgumentException} will be thrown.
+ *
+ * @see SnowflakeIdGenerator
+ */
+public class LockFreeSnowflakeIdGenerator {
+
+    private static final int MAX_SPINS = 64;
+    private static final long PARK_NANOS = 50_000L;
+
+    private final long timestampOffset;
+
+    private final long timestampLeftShiftBits;
+    private final long sequenceBits;
+
+    private final long timestampMask;
+    private final long sequenceMask;
+    private final long maxPackedTimestamp;
+
+    private final long workerIdPart;
+
+    private final long maxBackwardsMillis;
+
+    private final LongAdder driftCounter = new LongAdder();
+    private final LongAdder borrowCounter = new LongAdder();
+    private final AtomicLong maxDriftMillis = new AtomicLong(0L);
+
+    /**
+     * Packed state: (timestamp + timestampOffset) << sequenceBits | sequence.
+     */
+    private final AtomicLong state = new AtomicLong(0L);
+
+    /**
+     * Last clock reading (with offset) which is behind timestamp of state, or has borrowed millis. Readings not behind
+     * are kept by state itself, so this is only written when clock is behind.
+     */
+    private final AtomicReference<ClockReading> lastClock = new AtomicReference<>();
+
+    public LockFreeSnowflakeIdGenerator(long workerId) {
+        this(0, 41, 10, workerId);
+    }
+
+    /**
+     * Note used timestamp is timestamp + timestampOffset。
+     *
+     * @param timestampOffset timestamp offset
+     * @param timestampBits   timestamp bits number
+     * @param workerIdBits    worker id bits number
+     * @param workerId        worker id value
+     */
+    public LockFreeSnowflakeIdGenerator(
+        long timestampOffset,
+        int timestampBits,
+        int workerIdBits,
+        long workerId
+    ) {
+        this(timestampOffset, timestampBits, workerIdBits, workerId, 0);
+    }
+
+    /**
+     * Note used timestamp is timestamp + timestampOffset。
+     *
+     * @param timestampOffset    timestamp offset
+     * @param timestampBits      timestamp bits number
+     * @param workerIdBits       worker id bits number
+     * @param workerId           worker id value
+     * @param maxBackwardsMillis max tolerated clock drift in milliseconds, 0 means never tolerate
+     * @see SnowflakeIdGenerator
+     */
+    public LockFreeSnowflakeIdGenerator(
+        long timestampOffset,
+        int timestampBits,
+        int workerIdBits,
+        long workerId,
+        long maxBackwardsMillis
+    ) {
+        if (maxBackwardsMillis < 0) {
+            throw new IllegalArgumentException("maxBackwardsMillis: " + maxBackwardsMillis);
+        }
+        if (timestampBits <= 0 || timestampBits >= 63) {
+            throw new IllegalArgumentException("timestampBits: " + timestampBits);
+        }
+        if (workerIdBits <= 0 || workerIdBits >= 63) {
+            throw new IllegalArgumentException("workerIdBits: " + workerIdBits);
+        }
+        if (timestampBits + workerIdBits >= 63) {
+            throw new IllegalArgumentException("timestampBits + workerIdBits: " + (timestampBits + workerIdBits));
+        }
+        this.timestampOffset = timestampOffset;
+        this.maxBackwardsMillis = maxBackwardsMillis;
+        this.sequenceBits = 63 - timestampBits - workerIdBits;
+
+        this.timestampLeftShiftBits = workerIdBits + sequenceBits;
+
+        this.timestampMask = 0xffffffffffffffffL >>> (64 - timestampBits);
+        long workerIdMask = 0xffffffffffffffffL >>> (64 - workerIdBits);
+        this.sequenceMask = 0xffffffffffffffffL >>> (64 - sequenceBits);
+
+        this.workerIdPart = (workerId & workerIdMask) << sequenceBits;
+
+        this.maxPackedTimestamp = Long.MAX_VALUE >>> sequenceBits;
+        long timestamp = timestamp() + timestampOffset;
+        if (timestamp < 0 || timestamp > maxPackedTimestamp) {
+            throw new IllegalArgumentException(
+                "Timestamp with offset cannot be packed in " + (63 - sequenceBits) + " bits: " + timestamp);
+        }
+    }
+
+    /**
+     * return next id.
+     */
+    public long next() {
+        while (true) {
+            long current = state.get();
+            long lastTimestamp = current >>> sequenceBits;
+            //Read before clock, so that it is not later than clock
+            ClockReading lastReading = lastClock.get();
+            long timestamp = packableTimestamp();
+            long next;
+            boolean borrowed = false;
+            if (timestamp > lastTimestamp) {
+                next = timestamp << sequenceBits;
+            } else {
+                checkBackwards(timestamp, lastTimestamp);
+                //Overflow
+                if ((current & sequenceMask) == sequenceMask) {
+                    if (!canBorrow(timestamp, lastTimestamp)) {
+                        awaitForNextMillis(lastTimestamp);
+                        continue;
+                    }
+                    next = (lastTimestamp + 1) << sequenceBits;
+                    borrowed = true;
+                } else {
+                    next = current + 1;
+                }
+            }
+            if (state.compareAndSet(current, next)) {
+                if (timestamp < lastTimestamp || borrowed) {
+                    count(lastReading, lastTimestamp, timestamp, next >>> sequenceBits, borrowed);
+                }
+                return toId(next);
+            }
+        }
+    }
+
+    /**
+     * Generates {@code n} ids into {@code dest}, from index 0.
+     * <p>
+     * For each millisecond, a contiguous sequence range is reserved by one CAS, so ids of one batch are in order and
+     * mostly share same timestamp.
+     *
+     * @param n    number of ids
+     * @param dest destination array
+     */
+    public void nextBatch(int n, long[] dest) {
+        if (n < 0 || n > dest.length) {
+            throw new IllegalArgumentException("n: " + n);
+        }
+        int filled = 0;
+        while (filled < n) {
+            long current = state.get();
+            long lastTimestamp = current >>> sequenceBits;
+            ClockReading lastReading = lastClock.get();
+            long timestamp = packableTimestamp();
+            long first;
+            long available;
+            boolean borrowed = false;
+            if (timestamp > lastTimestamp) {
+                first = timestamp << sequenceBits;
+                available = sequenceMask + 1;
+            } else {
+                checkBackwards(timestamp, lastTimestamp);
+                long sequence = current & sequenceMask;
+                //Overflow
+                if (sequence == sequenceMask) {
+                    if (!canBorrow(timestamp, lastTimestamp)) {
+                        awaitForNextMillis(lastTimestamp);
+                        continue;
+                    }
+                    first = (lastTimestamp + 1) << sequenceBits;
+                    available = sequenceMask + 1;
+                    borrowed = true;
+                } else {
+                    first = current + 1;
+                    available = sequenceMask - sequence;
+                }
+            }
+            int count = (int) Math.min(n - filled, available);
+            long last = first + count - 1;
+            if (!state.compareAndSet(current, last)) {
+                continue;
+            }
+            if (timestamp < lastTimestamp || borrowed) {
+                count(lastReading, lastTimestamp, timestamp, first >>> sequenceBits, borrowed);
+            }
+            for (long s = first; s <= last; s++) {
+                dest[filled++] = toId(s);
+            }
+        }
+    }
+
+    /**
+     * Returns {@code n} new ids.
+     *
+     * @param n number of ids
+     */
+    public long[] nextBatch(int n) {
+        long[] result = new long[n];
+        nextBatch(n, result);
+        return result;
+    }
+
+    private long toId(long packed) {
+        return (((packed >>> sequenceBits) & timestampMask) << timestampLeftShiftBits)
+            | workerIdPart
+            | (packed & sequenceMask);
+    }
+
+    /**
+     * Returns count of tolerated clock backward jumps, that is, times of clock read lower than its last reading. Ids
+     * generated while clock is behind borrowed millis are not counted.
+     * <p>
+     * A jump read by concurrent threads may be counted by each of them, so under contention this count is approximate.
+     */
+    public long driftCount() {
+        return driftCounter.sum();
+    }
+
+    /**
+     * Returns count of borrowed future millis.
+     */
+    public long borrowCount() {
+        return borrowCounter.sum();
+    }
+
+    /**
+     * Returns max tolerated lead of last timestamp over clock in milliseconds, including lead of borrowed millis.
+     */
+    public long maxDriftMillis() {
+        return maxDriftMillis.get();
+    }
+
+    private long packableTimestamp() {
+        long timestamp = timestamp() + timestampOffset;
+        if (timestamp < 0 || timestamp > maxPackedTimestamp) {
+            throw new IllegalStateException(
+                String.format("Timestamp with offset cannot be packed with sequence: %d", timestamp));
+        }
+        return timestamp;
+    }
+
+    private void checkBackwards(long timestamp, long lastTimestamp) {
+        //Clock moved backwards
+        long drift = lastTimestamp - timestamp;
+        if (drift > maxBackwardsMillis) {
+            throw new IllegalStateException(
+                String.format("Clock moved backwards. Refusing to generate id for %d milliseconds", drift));
+        }
+    }
+
+    private boolean canBorrow(long timestamp, long lastTimestamp) {
+        return lastTimestamp + 1 - timestamp <= maxBackwardsMillis;
+    }
+
+    /**
+     * Counts an id generated while {@code timestamp} (the clock) is behind {@code lastTimestamp}, or with borrowed
+     * millis, then records the reading with {@code nextTimestamp}, the timestamp of new state.
+     */
+    private void count(
+        ClockReading lastReading, long lastTimestamp, long timestamp, long nextTimestamp, boolean borrowed) {
+        if (timestamp < lastTimestamp) {
+            //Previous reading is kept by state unless it is behind or borrowed millis, only count jumps of clock itself
+            long previous = lastReading != null && lastReading.timestamp == lastTimestamp ?
+                lastReading.clock : lastTimestamp;
+            if (timestamp < previous) {
+                driftCounter.increment();
+            }
+            long drift = lastTimestamp - timestamp;
+            if (drift > maxDriftMillis.get()) {
+                maxDriftMillis.accumulateAndGet(drift, Math::max);
+            }
+        }
+        if (borrowed) {
+            borrowCounter.increment();
+        }
+        //Keep reading of latest state
+        if (lastReading != null && lastReading.timestamp == nextTimestamp && lastReading.clock == timestamp) {
+            return;
+        }
+        ClockReading reading = new ClockReading(nextTimestamp, timestamp);
+        ClockReading current = lastReading;
+        while (current == null || current.timestamp <= nextTimestamp) {
+            if (lastClock.compareAndSet(current, reading)) {
+                return;
+            }
+            current = lastClock.get();
+        }
+    }
+
+    /**
+     * Waits until timestamp (with offset) is greater than {@code lastTimestamp}, by spinning then parking.
+     */
+    protected void awaitForNextMillis(long lastTimestamp) {
+        int spins = 0;
+        while (timestamp() + timestampOffset <= lastTimestamp) {
+            if (spins < MAX_SPINS) {
+                spins++;
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+    }
+
+    protected long timestamp() {
+        return System.currentTimeMillis();
+    }
+
+    private static final class ClockReading {
+
+        private final long timestamp;
+        private final long clock;
+
+        private ClockReading(long timestamp, long clock) {
+            this.timestamp = timestamp;
+            this.clock = clock;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package xyz.srclab.common.id;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link SegmentStore} backed by a memory-mapped local file.
+ * <p>
+ * The file holds only one long value: start id of next segment. Each {@link #reserve(long)} advances the value under a
+ * file lock and forces it to storage device, so reserved segments are never reused after restart. Ids which are
+ * reserved but not used before shutdown are skipped.
+ */
+public class MappedFileSegmentStore implements SegmentStore, Closeable {
+
+    private static final int FILE_SIZE = Long.BYTES;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    public MappedFileSegmentStore(Path path) {
+        this(path, 0);
+    }
+
+    /**
+     * @param path         file path
+     * @param initialValue start id of first segment if file is new
+     */
+    public MappedFileSegmentStore(Path path, long initialValue) {
+        try {
+            this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            boolean isNew = channel.size() < FILE_SIZE;
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+            if (isNew) {
+                buffer.putLong(0, initialValue);
+                buffer.force();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public synchronized long reserve(long size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size: " + size);
+        }
+        try (FileLock ignored = channel.lock()) {
+            long start = buffer.getLong(0);
+            buffer.putLong(0, start + size);
+            buffer.force();
+            return start;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
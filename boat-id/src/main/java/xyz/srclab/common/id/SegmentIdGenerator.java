@@ -0,0 +1,121 @@
+package xyz.srclab.common.id;
+
+import xyz.srclab.common.run.Runner;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Segment id generator, generates dense and monotonically increasing ids.
+ * <p>
+ * This generator reserves a segment (range of ids) from {@link SegmentStore} and serves ids from memory by CAS, so
+ * only one store access is needed for each segment. When current segment is used up to {@code prefetchRatio}, next
+ * segment will be reserved asynchronously by given {@link Runner}.
+ *
+ * @see SegmentStore
+ * @see MappedFileSegmentStore
+ */
+public class SegmentIdGenerator {
+
+    private final SegmentStore store;
+    private final long segmentSize;
+    private final long prefetchOffset;
+    private final Runner runner;
+
+    private volatile Segment current;
+    private volatile Segment prefetched;
+    private volatile Future<?> prefetching;
+
+    public SegmentIdGenerator(SegmentStore store) {
+        this(store, 10000);
+    }
+
+    public SegmentIdGenerator(SegmentStore store, long segmentSize) {
+        this(store, segmentSize, 0.8, Runner.ASYNC_RUNNER);
+    }
+
+    /**
+     * @param store         segment store
+     * @param segmentSize   number of ids of each segment
+     * @param prefetchRatio used ratio of current segment to prefetch next segment, in (0, 1]
+     * @param runner        runner to prefetch next segment
+     */
+    public SegmentIdGenerator(SegmentStore store, long segmentSize, double prefetchRatio, Runner runner) {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("segmentSize: " + segmentSize);
+        }
+        if (prefetchRatio <= 0 || prefetchRatio > 1) {
+            throw new IllegalArgumentException("prefetchRatio: " + prefetchRatio);
+        }
+        this.store = store;
+        this.segmentSize = segmentSize;
+        this.prefetchOffset = Math.min(segmentSize - 1, (long) (segmentSize * prefetchRatio));
+        this.runner = runner;
+        this.current = reserve();
+    }
+
+    /**
+     * return next id.
+     */
+    public long next() {
+        while (true) {
+            Segment segment = current;
+            long id = segment.cursor.getAndIncrement();
+            if (id < segment.end) {
+                if (id == segment.prefetchId) {
+                    prefetch();
+                }
+                return id;
+            }
+            switchSegment(segment);
+        }
+    }
+
+    private synchronized void prefetch() {
+        prefetching = runner.run(() -> {
+            prefetched = reserve();
+        });
+    }
+
+    private synchronized void switchSegment(Segment usedUp) {
+        if (current != usedUp) {
+            return;
+        }
+        Future<?> future = prefetching;
+        if (future != null) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                //Failed prefetching, reserve again
+            }
+            prefetching = null;
+        }
+        Segment next = prefetched;
+        prefetched = null;
+        current = next == null || next.start < usedUp.end ? reserve() : next;
+    }
+
+    private Segment reserve() {
+        long start = store.reserve(segmentSize);
+        return new Segment(start, start + segmentSize, start + prefetchOffset);
+    }
+
+    private static final class Segment {
+
+        private final long start;
+        private final long end;
+        private final AtomicLong cursor;
+        private final long prefetchId;
+
+        private Segment(long start, long end, long prefetchId) {
+            this.start = start;
+            this.end = end;
+            this.cursor = new AtomicLong(start);
+            this.prefetchId = prefetchId;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package xyz.srclab.common.id;
+
+/**
+ * Persistent store of id segments for {@link SegmentIdGenerator}.
+ * <p>
+ * A segment is a range of ids [{@code start}, {@code start + size}). Implementation must make sure reserved ranges never
+ * overlap, even across restarts.
+ *
+ * @see SegmentIdGenerator
+ * @see MappedFileSegmentStore
+ */
+public interface SegmentStore {
+
+    /**
+     * Reserves a new segment of {@code size} ids and returns its start id.
+     *
+     * @param size number of ids of the segment
+     */
+    long reserve(long size);
+}
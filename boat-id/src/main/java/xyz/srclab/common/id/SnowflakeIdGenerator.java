@@ -2,6 +2,12 @@ package xyz.srclab.common.id;
 
 /**
  * SnowFlake id generator.
+ * <p>
+ * By default, this generator throws {@link IllegalStateException} if clock moved backwards. If
+ * {@code maxBackwardsMillis} is positive, a backward jump no more than it will be tolerated: generator continues from
+ * last timestamp (borrowing sequence space), and when sequence overflows, it borrows future millis as long as the lead
+ * to current clock is still no more than {@code maxBackwardsMillis}. Use {@link #driftCount()} and
+ * {@link #borrowCount()} to monitor these cases.
  */
 public class SnowflakeIdGenerator {
 
@@ -16,8 +22,15 @@ public class SnowflakeIdGenerator {
 
     private final long workerId;
 
+    private final long maxBackwardsMillis;
+
     private long sequence = 0L;
     private long lastTimestamp = -1L;
+    private long lastClock = -1L;
+
+    private volatile long driftCount = 0L;
+    private volatile long borrowCount = 0L;
+    private volatile long maxDriftMillis = 0L;
 
     public SnowflakeIdGenerator(long workerId) {
         this(0, 41, 10, workerId);
@@ -37,6 +50,28 @@ public class SnowflakeIdGenerator {
         int workerIdBits,
         long workerId
     ) {
+        this(timestampOffset, timestampBits, workerIdBits, workerId, 0);
+    }
+
+    /**
+     * Note used timestamp is timestamp + timestampOffset。
+     *
+     * @param timestampOffset    timestamp offset
+     * @param timestampBits      timestamp bits number
+     * @param workerIdBits       worker id bits number
+     * @param workerId           worker id value
+     * @param maxBackwardsMillis max tolerated clock drift in milliseconds, 0 means never tolerate
+     */
+    public SnowflakeIdGenerator(
+        long timestampOffset,
+        int timestampBits,
+        int workerIdBits,
+        long workerId,
+        long maxBackwardsMillis
+    ) {
+        if (maxBackwardsMillis < 0) {
+            throw new IllegalArgumentException("maxBackwardsMillis: " + maxBackwardsMillis);
+        }
         if (timestampBits <= 0 || timestampBits >= 63) {
             throw new IllegalArgumentException("timestampBits: " + timestampBits);
         }
@@ -48,6 +83,7 @@ public class SnowflakeIdGenerator {
         }
         this.timestampOffset = timestampOffset;
         this.workerId = workerId;
+        this.maxBackwardsMillis = maxBackwardsMillis;
         long sequenceBits = 63 - timestampBits - workerIdBits;
 
         this.timestampLeftShiftBits = workerIdBits + sequenceBits;
@@ -62,19 +98,33 @@ public class SnowflakeIdGenerator {
      * return next id.
      */
     public synchronized long next() {
-        long timestamp = timestamp();
+        long clock = timestamp();
+        long timestamp = clock;
 
-        //Clock moved backwards
+        //Clock moved backwards, or is still behind last timestamp
         if (timestamp < lastTimestamp) {
-            throw new IllegalStateException(
-                String.format("Clock moved backwards. Refusing to generate id for %d milliseconds", lastTimestamp - timestamp));
+            long drift = lastTimestamp - timestamp;
+            if (drift > maxBackwardsMillis) {
+                throw new IllegalStateException(
+                    String.format("Clock moved backwards. Refusing to generate id for %d milliseconds", drift));
+            }
+            //Only count jumps of clock itself, not lead of borrowed millis
+            if (clock < lastClock) {
+                driftCount++;
+            }
+            if (drift > maxDriftMillis) {
+                maxDriftMillis = drift;
+            }
+            //Continue from last timestamp
+            timestamp = lastTimestamp;
         }
 
+        lastClock = clock;
         if (lastTimestamp == timestamp) {
             sequence = (sequence + 1) & sequenceMask;
             //Overflow
             if (sequence == 0) {
-                timestamp = awaitForNextMillis(lastTimestamp);
+                timestamp = nextMillis(lastTimestamp);
             }
         } else {
             sequence = 0L;
@@ -85,6 +135,42 @@ public class SnowflakeIdGenerator {
             | (sequence & sequenceMask);
     }
 
+    /**
+     * Returns count of tolerated clock backward jumps, that is, times of clock read lower than its last reading. Ids
+     * generated while clock is behind borrowed millis are not counted.
+     */
+    public long driftCount() {
+        return driftCount;
+    }
+
+    /**
+     * Returns count of borrowed future millis.
+     */
+    public long borrowCount() {
+        return borrowCount;
+    }
+
+    /**
+     * Returns max tolerated lead of last timestamp over clock in milliseconds, including lead of borrowed millis.
+     */
+    public long maxDriftMillis() {
+        return maxDriftMillis;
+    }
+
+    private long nextMillis(long lastTimestamp) {
+        long timestamp = timestamp();
+        if (timestamp > lastTimestamp) {
+            return timestamp;
+        }
+        //Borrow future millis
+        long borrowed = lastTimestamp + 1;
+        if (borrowed - timestamp <= maxBackwardsMillis) {
+            borrowCount++;
+            return borrowed;
+        }
+        return awaitForNextMillis(lastTimestamp);
+    }
+
     protected long awaitForNextMillis(long lastTimestamp) {
         long timestamp = timestamp();
         while (timestamp <= lastTimestamp) {
@@ -0,0 +1,52 @@
+package xyz.srclab.common.id;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Time-ordered 128-bit id generator, generated ids have same layout with UUID version 7:
+ * <pre>
+ *     48 bits unix millis | 4 bits version (7) | 12 bits random | 2 bits variant (10) | 62 bits random
+ * </pre>
+ * Ids are ordered by millis, so they have better B-tree locality than {@link UUID#randomUUID()}. Random tails come from
+ * {@link ThreadLocalRandom} instead of {@link java.security.SecureRandom}, so they are fast but not unpredictable.
+ * <p>
+ * Use {@link IdEncoders} to encode ids to compact and still ordered strings.
+ *
+ * @see IdEncoders
+ */
+public class TimeOrderedIdGenerator implements IdGenerator<Long, Long, Long, UUID> {
+
+    private static final long VERSION = 0x7000L;
+    private static final long RANDOM_A_MASK = 0x0fffL;
+    private static final long VARIANT = 0x8000000000000000L;
+    private static final long RANDOM_B_MASK = 0x3fffffffffffffffL;
+
+    @Override
+    public UUID next() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long mostSigBits = (timestamp() << 16) | VERSION | (random.nextInt() & RANDOM_A_MASK);
+        long leastSigBits = VARIANT | (random.nextLong() & RANDOM_B_MASK);
+        return new UUID(mostSigBits, leastSigBits);
+    }
+
+    /**
+     * Returns next id encoded by {@link IdEncoders#toBase62(long, long)}.
+     */
+    public String nextBase62() {
+        UUID id = next();
+        return IdEncoders.toBase62(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    /**
+     * Returns next id encoded by {@link IdEncoders#toBase32(long, long)}.
+     */
+    public String nextBase32() {
+        UUID id = next();
+        return IdEncoders.toBase32(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    protected long timestamp() {
+        return System.currentTimeMillis();
+    }
+}
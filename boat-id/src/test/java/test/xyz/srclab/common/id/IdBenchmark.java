@@ -0,0 +1,61 @@
+package test.xyz.srclab.common.id;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import xyz.srclab.common.id.IdEncoders;
+import xyz.srclab.common.id.TimeOrderedIdGenerator;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link TimeOrderedIdGenerator} with {@link UUID#randomUUID()}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 3, time = 3)
+@Threads(16)
+@Fork(1)
+@State(value = Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IdBenchmark {
+
+    private TimeOrderedIdGenerator timeOrderedIdGenerator;
+
+    @Setup
+    public void init() {
+        timeOrderedIdGenerator = new TimeOrderedIdGenerator();
+    }
+
+    @Benchmark
+    public UUID withRandomUUID() {
+        return UUID.randomUUID();
+    }
+
+    @Benchmark
+    public String withRandomUUIDString() {
+        return UUID.randomUUID().toString();
+    }
+
+    @Benchmark
+    public UUID withTimeOrderedId() {
+        return timeOrderedIdGenerator.next();
+    }
+
+    @Benchmark
+    public String withTimeOrderedIdBase62() {
+        return timeOrderedIdGenerator.nextBase62();
+    }
+
+    @Benchmark
+    public String withTimeOrderedIdBase32() {
+        return IdEncoders.toBase32(timeOrderedIdGenerator.next());
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder().include(IdBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
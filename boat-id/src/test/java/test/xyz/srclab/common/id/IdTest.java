@@ -1,12 +1,27 @@
 package test.xyz.srclab.common.id;
 
+import org.testng.Assert;
 import org.testng.annotations.Test;
+import xyz.srclab.common.id.IdEncoders;
 import xyz.srclab.common.id.IdGenerator;
+import xyz.srclab.common.id.LockFreeSnowflakeIdGenerator;
+import xyz.srclab.common.id.MappedFileSegmentStore;
+import xyz.srclab.common.id.SegmentIdGenerator;
 import xyz.srclab.common.id.SnowflakeIdGenerator;
+import xyz.srclab.common.id.TimeOrderedIdGenerator;
 import xyz.srclab.common.lang.Nums;
 import xyz.srclab.common.test.TestLogger;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * @author sunqian
@@ -24,6 +39,185 @@ public class IdTest {
         }
     }
 
+    @Test
+    public void testLockFreeSnowflake() throws Exception {
+        LockFreeSnowflakeIdGenerator generator = new LockFreeSnowflakeIdGenerator(1);
+        int threads = 16;
+        int count = 10000;
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executorService.submit(() -> {
+                for (int i = 0; i < count; i++) {
+                    ids.add(generator.next());
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+        Assert.assertEquals(ids.size(), threads * count);
+
+        long[] batch = generator.nextBatch(10000);
+        for (int i = 1; i < batch.length; i++) {
+            Assert.assertTrue(batch[i] > batch[i - 1]);
+            Assert.assertFalse(ids.contains(batch[i]));
+        }
+        logger.log("Lock-free snowflake batch: " + batch[0] + " : " + Nums.toBinaryString(batch[0]));
+    }
+
+    @Test
+    public void testLockFreeSnowflakeShortTimestamp() {
+        //33 bits sequence, full timestamp cannot be packed above it
+        Assert.expectThrows(IllegalArgumentException.class, () -> new LockFreeSnowflakeIdGenerator(0, 20, 10, 1));
+
+        LockFreeSnowflakeIdGenerator generator =
+            new LockFreeSnowflakeIdGenerator(-System.currentTimeMillis(), 20, 10, 1);
+        long last = -1;
+        for (int i = 0; i < 100000; i++) {
+            long id = generator.next();
+            Assert.assertTrue(id > last);
+            last = id;
+        }
+        long[] batch = generator.nextBatch(1000);
+        Assert.assertTrue(batch[0] > last);
+        for (int i = 1; i < batch.length; i++) {
+            Assert.assertTrue(batch[i] > batch[i - 1]);
+        }
+    }
+
+    @Test
+    public void testSnowflakeClockDrift() {
+        long[] clock = {100};
+        //2 bits sequence: 4 ids per millis
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(0, 41, 20, 1, 5) {
+            @Override
+            protected long timestamp() {
+                return clock[0];
+            }
+        };
+        long last = -1;
+        for (int i = 0; i < 5; i++) {
+            long id = generator.next();
+            Assert.assertTrue(id > last);
+            last = id;
+        }
+        Assert.assertEquals(generator.borrowCount(), 1);
+        //Clock behind borrowed millis is not a drift
+        last = generator.next();
+        Assert.assertEquals(generator.driftCount(), 0);
+        clock[0] = 97;
+        Assert.assertTrue(generator.next() > last);
+        Assert.assertEquals(generator.driftCount(), 1);
+        Assert.assertEquals(generator.maxDriftMillis(), 4);
+        Assert.assertTrue(generator.next() > last);
+        Assert.assertEquals(generator.driftCount(), 1);
+        clock[0] = 90;
+        Assert.expectThrows(IllegalStateException.class, generator::next);
+
+        LockFreeSnowflakeIdGenerator lockFreeGenerator = new LockFreeSnowflakeIdGenerator(0, 41, 20, 1, 5) {
+            @Override
+            protected long timestamp() {
+                return clock[0];
+            }
+        };
+        clock[0] = 100;
+        long[] ids = lockFreeGenerator.nextBatch(5);
+        for (int i = 1; i < ids.length; i++) {
+            Assert.assertTrue(ids[i] > ids[i - 1]);
+        }
+        Assert.assertEquals(lockFreeGenerator.borrowCount(), 1);
+        //Clock behind borrowed millis is not a drift
+        last = lockFreeGenerator.next();
+        Assert.assertTrue(last > ids[4]);
+        Assert.assertEquals(lockFreeGenerator.driftCount(), 0);
+        clock[0] = 97;
+        Assert.assertTrue(lockFreeGenerator.next() > last);
+        Assert.assertEquals(lockFreeGenerator.driftCount(), 1);
+        Assert.assertEquals(lockFreeGenerator.maxDriftMillis(), 4);
+        Assert.assertTrue(lockFreeGenerator.next() > last);
+        Assert.assertEquals(lockFreeGenerator.driftCount(), 1);
+        clock[0] = 90;
+        Assert.expectThrows(IllegalStateException.class, lockFreeGenerator::next);
+    }
+
+    @Test
+    public void testSegmentId() throws Exception {
+        Path path = Files.createTempFile("segment", ".id");
+        long max = -1;
+        try (MappedFileSegmentStore store = new MappedFileSegmentStore(path)) {
+            SegmentIdGenerator generator = new SegmentIdGenerator(store, 100);
+            int threads = 8;
+            int count = 1000;
+            Set<Long> ids = ConcurrentHashMap.newKeySet();
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    long last = -1;
+                    for (int i = 0; i < count; i++) {
+                        long id = generator.next();
+                        Assert.assertTrue(id > last);
+                        last = id;
+                        ids.add(id);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+            Assert.assertEquals(ids.size(), threads * count);
+            for (Long id : ids) {
+                max = Math.max(max, id);
+            }
+        }
+        try (MappedFileSegmentStore store = new MappedFileSegmentStore(path)) {
+            SegmentIdGenerator generator = new SegmentIdGenerator(store, 100);
+            long id = generator.next();
+            logger.log("Segment id after restart: " + id);
+            Assert.assertTrue(id > max);
+        }
+        Files.delete(path);
+    }
+
+    @Test
+    public void testTimeOrderedId() {
+        TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator();
+        UUID id = generator.next();
+        logger.log("Time ordered id: " + id + " : " + IdEncoders.toBase62(id) + " : " + IdEncoders.toBase32(id));
+        Assert.assertEquals(id.version(), 7);
+        Assert.assertEquals(id.variant(), 2);
+        Assert.assertEquals(id.getMostSignificantBits() >>> 16, System.currentTimeMillis(), 1000);
+
+        Assert.assertEquals(IdEncoders.toBase62(0L), "00000000000");
+        Assert.assertEquals(IdEncoders.toBase62(61L), "0000000000z");
+        Assert.assertEquals(IdEncoders.toBase62(-1L), "LygHa16AHYF");
+        Assert.assertEquals(IdEncoders.toBase32(-1L), "FZZZZZZZZZZZZ");
+        Assert.assertEquals(IdEncoders.toBase62(-1L, -1L), "7n42DGM5Tflk9n8mt7Fhc7");
+        Assert.assertEquals(IdEncoders.toBase32(-1L, -1L), "7ZZZZZZZZZZZZZZZZZZZZZZZZZ");
+        Assert.assertEquals(IdEncoders.toBase32(0L, 32L), "00000000000000000000000010");
+        Assert.assertEquals(IdEncoders.toBase62(0L, 62L), "0000000000000000000010");
+
+        String last = "";
+        for (int i = 0; i < 100; i++) {
+            String s = IdEncoders.toBase62(i * 1000003L, i);
+            Assert.assertTrue(s.compareTo(last) > 0);
+            last = s;
+        }
+
+        SnowflakeIdGenerator snowflake = new SnowflakeIdGenerator(1);
+        IdGenerator<Long, Long, Long, String> snowflakeGenerator = IdGenerator.newIdGenerator(
+            System::currentTimeMillis,
+            s -> snowflake.next(),
+            s -> 0L,
+            (l, i) -> IdEncoders.toBase32(l)
+        );
+        logger.log("Snowflake base32: " + snowflakeGenerator.next());
+    }
+
     @Test
     public void testIdGenerator() {
         IdGenerator<String, String, String, String> idGenerator = IdGenerator.newIdGenerator(
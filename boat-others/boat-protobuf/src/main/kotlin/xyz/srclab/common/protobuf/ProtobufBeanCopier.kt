@@ -0,0 +1,383 @@
+package xyz.srclab.common.protobuf
+
+import com.google.protobuf.ByteString
+import com.google.protobuf.Descriptors
+import com.google.protobuf.Message
+import com.google.protobuf.MessageOrBuilder
+import xyz.srclab.annotations.Written
+import xyz.srclab.common.bean.BeanResolver
+import xyz.srclab.common.bean.PropertyType
+import xyz.srclab.common.collect.IterableType.Companion.toIterableType
+import xyz.srclab.common.collect.MapType.Companion.toMapType
+import xyz.srclab.common.convert.Converter
+import xyz.srclab.common.reflect.methodOrNull
+import xyz.srclab.common.reflect.rawClass
+import xyz.srclab.common.reflect.rawClassOrNull
+import xyz.srclab.common.reflect.toTypeSignature
+import xyz.srclab.common.reflect.toWrapperClass
+import java.lang.invoke.MethodHandle
+import java.lang.invoke.MethodHandles
+import java.lang.invoke.MethodType
+import java.lang.reflect.Method
+import java.lang.reflect.Modifier
+import java.lang.reflect.ParameterizedType
+import java.lang.reflect.Type
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+
+/**
+ * Copier to copy properties between protobuf [Message] and bean, driven by [Descriptors.FieldDescriptor].
+ *
+ * For each pair of (message class, bean class), this copier walks field descriptors of the message type once
+ * (see [ProtobufMessageType]), binds accessors of both sides by [MethodHandle] and caches them as a copy plan.
+ * Primitive, string, repeated and map fields of compatible types are copied directly, nested messages are copied
+ * by nested plans, and only the rest are passed to [converter].
+ *
+ * Property names of bean follow [ProtobufBeanResolveHandler]: `xxx` for simple field, `xxxList` for repeated field
+ * and `xxxMap` for map field. Null values of bean will not be copied into builder.
+ *
+ * @see ProtobufBeanResolveHandler
+ */
+open class ProtobufBeanCopier @JvmOverloads constructor(
+    private val beanResolver: BeanResolver = BeanResolver.DEFAULT,
+    private val converter: Converter = PROTOBUF_CONVERTER,
+) {
+
+    //Plans are kept as long as this copier, a weak-valued cache would create them again after each GC
+    private val toBeanPlans: ConcurrentMap<PlanKey, Array<FieldCopier>> = ConcurrentHashMap()
+    private val toBuilderPlans: ConcurrentMap<PlanKey, Array<FieldCopier>> = ConcurrentHashMap()
+
+    /**
+     * Copies fields of [message] into [bean].
+     */
+    fun <T : Any> copyToBean(message: MessageOrBuilder, @Written bean: T): T {
+        val messageClass = message.javaClass
+        val beanClass = bean.javaClass
+        val plan = planOf(toBeanPlans, PlanKey(messageClass, beanClass)) {
+            createToBeanPlan(messageClass, beanClass)
+        }
+        for (fieldCopier in plan) {
+            fieldCopier.copy(message, bean)
+        }
+        return bean
+    }
+
+    /**
+     * Copies properties of [bean] into [builder].
+     */
+    fun <T : Message.Builder> copyToBuilder(bean: Any, @Written builder: T): T {
+        val beanClass = bean.javaClass
+        val builderClass = builder.javaClass
+        val plan = planOf(toBuilderPlans, PlanKey(beanClass, builderClass)) {
+            createToBuilderPlan(builder, beanClass, builderClass)
+        }
+        for (fieldCopier in plan) {
+            fieldCopier.copy(bean, builder)
+        }
+        return builder
+    }
+
+    private inline fun planOf(
+        plans: ConcurrentMap<PlanKey, Array<FieldCopier>>,
+        key: PlanKey,
+        create: () -> Array<FieldCopier>,
+    ): Array<FieldCopier> {
+        //Not computeIfAbsent: plans of nested messages may be created while creating a plan
+        val plan = plans[key]
+        if (plan !== null) {
+            return plan
+        }
+        val created = create()
+        return plans.putIfAbsent(key, created) ?: created
+    }
+
+    private fun createToBeanPlan(messageClass: Class<*>, beanClass: Class<*>): Array<FieldCopier> {
+        val beanType = beanResolver.resolve(beanClass)
+        val fields = ProtobufMessageType.of(messageClass).fields
+        val fieldCopiers = ArrayList<FieldCopier>(fields.size)
+        for (field in fields) {
+            val property = beanType.properties[field.propertyName]
+            if (property === null || !property.isWriteable) {
+                continue
+            }
+            val descriptor = field.descriptor
+            val mapper = when {
+                descriptor.isMapField -> createToBeanMapMapper(field.type, property.type)
+                descriptor.isRepeated -> createToBeanListMapper(descriptor, field.type, property.type)
+                else -> createToBeanValueMapper(descriptor, field.getterMethod.returnType, property.type)
+            }
+            fieldCopiers.add(
+                FieldCopier(field.getterMethod.toGetter(), beanClass.beanSetter(property), mapper)
+            )
+        }
+        return fieldCopiers.toTypedArray()
+    }
+
+    private fun createToBeanValueMapper(
+        field: Descriptors.FieldDescriptor,
+        valueClass: Class<*>,
+        toType: Type
+    ): ((Any) -> Any?)? {
+        val toRawClass = toType.rawClassOrNull ?: return convertMapper(toType)
+        if (toRawClass.isDirectlyAssignableFrom(valueClass)) {
+            return null
+        }
+        val javaType = field.javaType
+        if (javaType == Descriptors.FieldDescriptor.JavaType.ENUM && toRawClass == String::class.java) {
+            return { value: Any -> (value as Enum<*>).name }
+        }
+        if (javaType == Descriptors.FieldDescriptor.JavaType.BYTE_STRING && toRawClass == ByteArray::class.java) {
+            return { value: Any -> (value as ByteString).toByteArray() }
+        }
+        if (javaType == Descriptors.FieldDescriptor.JavaType.MESSAGE) {
+            val beanConstructor = toRawClass.beanConstructorOrNull() ?: return convertMapper(toType)
+            return { value: Any -> copyToBean(value as MessageOrBuilder, beanConstructor()) }
+        }
+        return convertMapper(toType)
+    }
+
+    private fun createToBeanListMapper(
+        field: Descriptors.FieldDescriptor,
+        valueType: Type,
+        toType: Type
+    ): ((Any) -> Any?)? {
+        val toRawClass = toType.rawClassOrNull
+        val toComponentType = toType.iterableComponentTypeOrNull()
+        if (toRawClass === null
+            || toComponentType === null
+            || !toRawClass.isAssignableFrom(ArrayList::class.java)
+        ) {
+            return convertMapper(toType)
+        }
+        val componentClass = valueType.toTypeSignature(List::class.java).actualTypeArguments[0].rawClass
+        val componentMapper = createToBeanValueMapper(field, componentClass, toComponentType)
+            ?: return { value: Any -> ArrayList(value as List<*>) }
+        return { value: Any ->
+            val list = value as List<*>
+            list.mapTo(ArrayList(list.size)) { componentMapper(it ?: throw nullElementException(field)) }
+        }
+    }
+
+    private fun createToBeanMapMapper(valueType: Type, toType: Type): ((Any) -> Any?)? {
+        val toRawClass = toType.rawClassOrNull
+        if (toRawClass === null
+            || (toType !is Class<*> && toType !is ParameterizedType)
+            || !toRawClass.isAssignableFrom(LinkedHashMap::class.java)
+        ) {
+            return convertMapper(toType)
+        }
+        val toMapType = toType.toMapType()
+        val mapType = valueType.toTypeSignature(Map::class.java)
+        val keyClass = mapType.actualTypeArguments[0].rawClass
+        val valueClass = mapType.actualTypeArguments[1].rawClass
+        val toKeyClass = toMapType.keyType.rawClassOrNull
+        val toValueClass = toMapType.valueType.rawClassOrNull
+        if (toKeyClass === null
+            || toValueClass === null
+            || !toKeyClass.isDirectlyAssignableFrom(keyClass)
+            || !toValueClass.isDirectlyAssignableFrom(valueClass)
+        ) {
+            return convertMapper(toType)
+        }
+        return { value: Any -> LinkedHashMap(value as Map<*, *>) }
+    }
+
+    private fun createToBuilderPlan(
+        builder: Message.Builder,
+        beanClass: Class<*>,
+        builderClass: Class<*>
+    ): Array<FieldCopier> {
+        val beanType = beanResolver.resolve(beanClass)
+        val fields = ProtobufMessageType.of(builderClass).fields
+        val fieldCopiers = ArrayList<FieldCopier>(fields.size)
+        for (field in fields) {
+            val property = beanType.properties[field.propertyName]
+            if (property === null || !property.isReadable) {
+                continue
+            }
+            val setterMethod = field.setterMethod ?: continue
+            val clearMethod = field.clearMethod
+            val descriptor = field.descriptor
+            val mapper = when {
+                descriptor.isMapField -> createToBuilderMapMapper(property.type, field.type)
+                descriptor.isRepeated -> createToBuilderListMapper(builder, descriptor, property.type, field.type)
+                else -> createToBuilderValueMapper(builder, descriptor, property.type, field.getterMethod.returnType)
+            }
+            val setter =
+                if (clearMethod === null) setterMethod.toSetter() else clearAndSetAllSetter(clearMethod, setterMethod)
+            fieldCopiers.add(FieldCopier(beanClass.beanGetter(property), setter, mapper))
+        }
+        return fieldCopiers.toTypedArray()
+    }
+
+    private fun createToBuilderValueMapper(
+        builder: Message.Builder,
+        field: Descriptors.FieldDescriptor,
+        fromType: Type,
+        toClass: Class<*>
+    ): ((Any) -> Any?)? {
+        val fromRawClass = fromType.rawClassOrNull
+        if (fromRawClass !== null && toClass.isDirectlyAssignableFrom(fromRawClass)) {
+            return null
+        }
+        val javaType = field.javaType
+        if (javaType == Descriptors.FieldDescriptor.JavaType.BYTE_STRING && fromRawClass == ByteArray::class.java) {
+            return { value: Any -> ByteString.copyFrom(value as ByteArray) }
+        }
+        if (javaType == Descriptors.FieldDescriptor.JavaType.MESSAGE) {
+            val prototype = builder.newBuilderForField(field).defaultInstanceForType
+            return { value: Any ->
+                if (toClass.isInstance(value)) value else copyToBuilder(value, prototype.newBuilderForType()).build()
+            }
+        }
+        return convertMapper(toClass)
+    }
+
+    private fun createToBuilderListMapper(
+        builder: Message.Builder,
+        field: Descriptors.FieldDescriptor,
+        fromType: Type,
+        toType: Type
+    ): ((Any) -> Any?)? {
+        val fromRawClass = fromType.rawClassOrNull
+        val fromComponentType = fromType.iterableComponentTypeOrNull()
+        if (fromRawClass === null
+            || fromComponentType === null
+            || !Iterable::class.java.isAssignableFrom(fromRawClass)
+        ) {
+            return convertMapper(toType)
+        }
+        val componentClass = toType.toTypeSignature(List::class.java).actualTypeArguments[0].rawClass
+        val componentMapper = createToBuilderValueMapper(builder, field, fromComponentType, componentClass)
+            ?: return null
+        return { value: Any ->
+            (value as Iterable<*>).map { componentMapper(it ?: throw nullElementException(field)) }
+        }
+    }
+
+    /**
+     * Repeated field of protobuf can't contain null.
+     */
+    private fun nullElementException(field: Descriptors.FieldDescriptor): IllegalArgumentException {
+        return IllegalArgumentException("Null element of repeated field: ${field.fullName}")
+    }
+
+    private fun createToBuilderMapMapper(fromType: Type, toType: Type): ((Any) -> Any?)? {
+        val fromRawClass = fromType.rawClassOrNull
+        if (fromRawClass === null
+            || (fromType !is Class<*> && fromType !is ParameterizedType)
+            || !Map::class.java.isAssignableFrom(fromRawClass)
+        ) {
+            return convertMapper(toType)
+        }
+        val fromMapType = fromType.toMapType()
+        val mapType = toType.toTypeSignature(Map::class.java)
+        val fromKeyClass = fromMapType.keyType.rawClassOrNull
+        val fromValueClass = fromMapType.valueType.rawClassOrNull
+        if (fromKeyClass === null
+            || fromValueClass === null
+            || !mapType.actualTypeArguments[0].rawClass.isDirectlyAssignableFrom(fromKeyClass)
+            || !mapType.actualTypeArguments[1].rawClass.isDirectlyAssignableFrom(fromValueClass)
+        ) {
+            return convertMapper(toType)
+        }
+        return null
+    }
+
+    private fun convertMapper(toType: Type): (Any) -> Any? {
+        return { value: Any -> converter.convert(value, toType) }
+    }
+
+    private fun Class<*>.beanGetter(property: PropertyType): (Any) -> Any? {
+        val getterMethod = this.methodOrNull("get${property.name.capitalize()}")
+        if (getterMethod !== null && getterMethod.returnType == property.type.rawClassOrNull) {
+            return getterMethod.toGetter()
+        }
+        val getter = property.getter!!
+        return { getter.invoke(it) }
+    }
+
+    private fun Class<*>.beanSetter(property: PropertyType): (Any, Any?) -> Unit {
+        val propertyClass = property.type.rawClassOrNull
+        val setterMethod =
+            if (propertyClass === null) null else this.methodOrNull("set${property.name.capitalize()}", propertyClass)
+        if (setterMethod !== null) {
+            return setterMethod.toSetter()
+        }
+        val setter = property.setter!!
+        return { bean, value -> setter.invoke<Any?>(bean, value) }
+    }
+
+    private fun Method.toGetter(): (Any) -> Any? {
+        this.isAccessible = true
+        val handle = MethodHandles.lookup().unreflect(this).asType(GETTER_TYPE)
+        return { handle.invoke(it) }
+    }
+
+    private fun Method.toSetter(): (Any, Any?) -> Unit {
+        this.isAccessible = true
+        val handle = MethodHandles.lookup().unreflect(this).asType(SETTER_TYPE)
+        return { owner, value -> handle.invoke(owner, value) }
+    }
+
+    private fun clearAndSetAllSetter(clearMethod: Method, setAllMethod: Method): (Any, Any?) -> Unit {
+        val clearer = clearMethod.toGetter()
+        val setter = setAllMethod.toSetter()
+        return { owner, value ->
+            clearer(owner)
+            setter(owner, value)
+        }
+    }
+
+    private fun Class<*>.beanConstructorOrNull(): (() -> Any)? {
+        if (this.isInterface
+            || Modifier.isAbstract(this.modifiers)
+            || MessageOrBuilder::class.java.isAssignableFrom(this)
+            || Map::class.java.isAssignableFrom(this)
+            || Iterable::class.java.isAssignableFrom(this)
+        ) {
+            return null
+        }
+        val constructor = try {
+            this.getConstructor()
+        } catch (e: NoSuchMethodException) {
+            return null
+        }
+        val handle = MethodHandles.lookup().unreflectConstructor(constructor).asType(CONSTRUCTOR_TYPE)
+        return { handle.invoke() as Any }
+    }
+
+    private fun Type.iterableComponentTypeOrNull(): Type? {
+        if (this !is Class<*> && this !is ParameterizedType) {
+            return null
+        }
+        return this.toIterableType().componentType
+    }
+
+    private fun Class<*>.isDirectlyAssignableFrom(from: Class<*>): Boolean {
+        return this.toWrapperClass().isAssignableFrom(from.toWrapperClass())
+    }
+
+    private data class PlanKey(val from: Class<*>, val to: Class<*>)
+
+    private class FieldCopier(
+        private val getter: (Any) -> Any?,
+        private val setter: (Any, Any?) -> Unit,
+        private val mapper: ((Any) -> Any?)?,
+    ) {
+
+        fun copy(from: Any, to: Any) {
+            val value = getter(from) ?: return
+            val mapper = this.mapper
+            setter(to, if (mapper === null) value else mapper(value))
+        }
+    }
+
+    companion object {
+
+        private val GETTER_TYPE: MethodType = MethodType.methodType(Any::class.java, Any::class.java)
+        private val SETTER_TYPE: MethodType =
+            MethodType.methodType(Any::class.java, Any::class.java, Any::class.java)
+        private val CONSTRUCTOR_TYPE: MethodType = MethodType.methodType(Any::class.java)
+    }
+}
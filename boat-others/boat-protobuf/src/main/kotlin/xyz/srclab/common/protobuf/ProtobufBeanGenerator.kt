@@ -3,7 +3,6 @@ package xyz.srclab.common.protobuf
 import com.google.protobuf.Message
 import com.google.protobuf.MessageOrBuilder
 import xyz.srclab.common.convert.BeanConvertHandler
-import xyz.srclab.common.reflect.methodOrNull
 import xyz.srclab.common.reflect.rawClass
 import java.lang.reflect.Type
 
@@ -18,27 +17,12 @@ object ProtobufBeanGenerator : BeanConvertHandler.BeanGenerator {
         if (toType !is Class<*>) {
             return toType.rawClass.newInstance()
         }
-        when {
-            //Builder
-            Message.Builder::class.java.isAssignableFrom(toType) -> {
-                val outClass = toType.declaringClass
-                val newBuilderMethod = outClass.methodOrNull("newBuilder")
-                if (newBuilderMethod === null) {
-                    throw IllegalStateException("Cannot find newBuilder method for $outClass")
-                }
-                return newBuilderMethod.invoke(null)
-            }
-            //Message
-            MessageOrBuilder::class.java.isAssignableFrom(toType) -> {
-                val newBuilderMethod = toType.methodOrNull("newBuilder")
-                if (newBuilderMethod === null) {
-                    throw IllegalStateException("Cannot find newBuilder method for $toType")
-                }
-                return newBuilderMethod.invoke(null)
-            }
-            //Other bean
-            else -> return toType.newInstance()
+        if (MessageOrBuilder::class.java.isAssignableFrom(toType)) {
+            //Message or builder
+            return ProtobufMessageType.of(toType).newBuilder()
         }
+        //Other bean
+        return toType.newInstance()
     }
 
     //override fun builderType(toType: Type): Type {
@@ -2,6 +2,9 @@
 
 package xyz.srclab.common.protobuf
 
+import com.google.protobuf.Message
+import com.google.protobuf.MessageOrBuilder
+import xyz.srclab.annotations.Written
 import xyz.srclab.common.convert.BeanConvertHandler
 import xyz.srclab.common.convert.ConvertHandler
 import xyz.srclab.common.convert.Converter
@@ -16,4 +19,24 @@ val PROTOBUF_CONVERTER: Converter = Converter.newConverter(
     ConvertHandler.defaultsWithBeanConvertHandler(
         BeanConvertHandler(ProtobufBeanGenerator, PROTOBUF_BEAN_RESOLVER)
     )
-)
\ No newline at end of file
+)
+
+/**
+ * Default [ProtobufBeanCopier].
+ */
+@JvmField
+val PROTOBUF_BEAN_COPIER: ProtobufBeanCopier = ProtobufBeanCopier()
+
+/**
+ * Copies fields of [this] message into [bean] by [PROTOBUF_BEAN_COPIER].
+ */
+fun <T : Any> MessageOrBuilder.copyToBean(@Written bean: T): T {
+    return PROTOBUF_BEAN_COPIER.copyToBean(this, bean)
+}
+
+/**
+ * Copies properties of [this] bean into [builder] by [PROTOBUF_BEAN_COPIER].
+ */
+fun <T : Message.Builder> Any.copyToBuilder(@Written builder: T): T {
+    return PROTOBUF_BEAN_COPIER.copyToBuilder(this, builder)
+}
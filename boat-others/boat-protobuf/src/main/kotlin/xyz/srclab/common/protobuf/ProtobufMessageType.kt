@@ -0,0 +1,189 @@
+package xyz.srclab.common.protobuf
+
+import com.google.protobuf.Descriptors
+import com.google.protobuf.Message
+import com.google.protobuf.MessageOrBuilder
+import xyz.srclab.common.invoke.Invoker
+import xyz.srclab.common.invoke.MethodHandlerInvokerProvider
+import xyz.srclab.common.lang.INAPPLICABLE_JVM_NAME
+import xyz.srclab.common.lang.asAny
+import xyz.srclab.common.reflect.methodOrNull
+import xyz.srclab.common.reflect.rawClass
+import xyz.srclab.common.reflect.toTypeSignature
+import java.lang.reflect.Method
+import java.lang.reflect.Type
+
+/**
+ * Metadata of a protobuf message or builder class, includes [descriptor], builder factory and resolved accessors.
+ *
+ * Metadata is resolved once for each class and cached, use [newBuilder] to create builder without reflection.
+ *
+ * @see ProtobufFieldType
+ */
+class ProtobufMessageType private constructor(
+    @get:JvmName("type")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val type: Class<*>
+) {
+
+    /**
+     * Returns whether [type] is a [Message.Builder].
+     */
+    @get:JvmName("isBuilder")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val isBuilder: Boolean = Message.Builder::class.java.isAssignableFrom(type)
+
+    /**
+     * Class of message, it is [type] itself if [type] is not a builder, or else outer class of builder.
+     */
+    @get:JvmName("messageClass")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val messageClass: Class<*> = if (isBuilder) type.declaringClass else type
+
+    @get:JvmName("defaultInstance")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val defaultInstance: Message = run {
+        //static Message getDefaultInstance()
+        val getDefaultInstanceMethod = messageClass.methodOrNull("getDefaultInstance")
+            ?: throw IllegalStateException("Cannot find getDefaultInstance method for $messageClass")
+        getDefaultInstanceMethod.invoke(null) as Message
+    }
+
+    @get:JvmName("descriptor")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val descriptor: Descriptors.Descriptor = defaultInstance.descriptorForType
+
+    @get:JvmName("fields")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val fields: List<ProtobufFieldType> = descriptor.fields.mapNotNull { resolveField(it) }
+
+    /**
+     * Returns a new builder of [messageClass].
+     */
+    fun <T : Message.Builder> newBuilder(): T {
+        return defaultInstance.newBuilderForType().asAny()
+    }
+
+    private fun resolveField(field: Descriptors.FieldDescriptor): ProtobufFieldType? {
+        val fieldName = field.jsonName.capitalize()
+
+        //map
+        if (field.isMapField) {
+            val propertyName = field.jsonName + "Map"
+            val getterMethod = type.methodOrNull("get${fieldName}Map") ?: return null
+            val propertyType = getterMethod.genericReturnType.toTypeSignature(Map::class.java)
+            if (!isBuilder) {
+                return ProtobufFieldType(field, propertyName, propertyType, getterMethod, null, null)
+            }
+            val clearMethod = type.methodOrNull("clear$fieldName")
+                ?: throw IllegalStateException("Cannot find clear method of field: $propertyName")
+            val putAllMethod = type.methodOrNull("putAll$fieldName", Map::class.java)
+                ?: throw IllegalStateException("Cannot find put-all method of field: $propertyName")
+            return ProtobufFieldType(field, propertyName, propertyType, getterMethod, putAllMethod, clearMethod)
+        }
+
+        //repeated
+        if (field.isRepeated) {
+            val propertyName = field.jsonName + "List"
+            val getterMethod = type.methodOrNull("get${fieldName}List") ?: return null
+            val propertyType = getterMethod.genericReturnType.toTypeSignature(List::class.java)
+            if (!isBuilder) {
+                return ProtobufFieldType(field, propertyName, propertyType, getterMethod, null, null)
+            }
+            val clearMethod = type.methodOrNull("clear$fieldName")
+                ?: throw IllegalStateException("Cannot find clear method of field: $propertyName")
+            val addAllMethod = type.methodOrNull("addAll$fieldName", Iterable::class.java)
+                ?: throw IllegalStateException("Cannot find add-all method of field: $propertyName")
+            return ProtobufFieldType(field, propertyName, propertyType, getterMethod, addAllMethod, clearMethod)
+        }
+
+        // Simple object
+        val propertyName = field.jsonName
+        val getterMethod = type.methodOrNull("get$fieldName") ?: return null
+        val propertyType = getterMethod.genericReturnType
+        if (!isBuilder) {
+            return ProtobufFieldType(field, propertyName, propertyType, getterMethod, null, null)
+        }
+        val setterMethod = type.methodOrNull("set$fieldName", propertyType.rawClass)
+            ?: throw IllegalStateException("Cannot find setter method of field: $propertyName")
+        return ProtobufFieldType(field, propertyName, propertyType, getterMethod, setterMethod, null)
+    }
+
+    override fun toString(): String {
+        return "protobuf ${type.typeName}"
+    }
+
+    companion object {
+
+        //Kept with the class: a weak-valued cache would resolve field descriptors again after each GC
+        private val types: ClassValue<ProtobufMessageType> = object : ClassValue<ProtobufMessageType>() {
+            override fun computeValue(type: Class<*>): ProtobufMessageType {
+                if (!MessageOrBuilder::class.java.isAssignableFrom(type)) {
+                    throw IllegalArgumentException("Not a protobuf type: $type")
+                }
+                return ProtobufMessageType(type)
+            }
+        }
+
+        /**
+         * Returns [ProtobufMessageType] of [type], [type] must be a protobuf message or builder class.
+         */
+        @JvmStatic
+        fun of(type: Class<*>): ProtobufMessageType {
+            return types.get(type)
+        }
+    }
+}
+
+/**
+ * Field of [ProtobufMessageType], [getter] and [setter] are bound to the declaring class.
+ *
+ * For repeated and map field, [setterMethod] is add-all or put-all method, and [setter] will invoke [clearMethod]
+ * before it.
+ */
+class ProtobufFieldType internal constructor(
+    @get:JvmName("descriptor")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val descriptor: Descriptors.FieldDescriptor,
+    @get:JvmName("propertyName")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val propertyName: String,
+    @get:JvmName("type")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val type: Type,
+    @get:JvmName("getterMethod")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val getterMethod: Method,
+    @get:JvmName("setterMethod")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val setterMethod: Method?,
+    @get:JvmName("clearMethod")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val clearMethod: Method?,
+) {
+
+    @get:JvmName("getter")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val getter: Invoker = MethodHandlerInvokerProvider.forMethod(getterMethod)
+
+    @get:JvmName("setter")
+    @Suppress(INAPPLICABLE_JVM_NAME)
+    val setter: Invoker? = when {
+        setterMethod === null -> null
+        clearMethod === null -> MethodHandlerInvokerProvider.forMethod(setterMethod)
+        else -> {
+            val clearInvoker = MethodHandlerInvokerProvider.forMethod(clearMethod)
+            val setAllInvoker = MethodHandlerInvokerProvider.forMethod(setterMethod)
+            object : Invoker {
+                override fun <T> invokeWith(`object`: Any?, force: Boolean, vararg args: Any?): T {
+                    clearInvoker.invokeWith<Any?>(`object`, force)
+                    return setAllInvoker.invokeWith(`object`, force, *args)
+                }
+            }
+        }
+    }
+
+    override fun toString(): String {
+        return "$propertyName: ${type.typeName}"
+    }
+}
@@ -11,7 +11,9 @@ import xyz.srclab.common.collect.Collects;
 import xyz.srclab.common.lang.Anys;
 import xyz.srclab.common.protobuf.ProtobufBeans;
 import xyz.srclab.common.protobuf.ProtobufConverts;
+import xyz.srclab.common.protobuf.ProtobufFieldType;
 import xyz.srclab.common.protobuf.ProtobufJsons;
+import xyz.srclab.common.protobuf.ProtobufMessageType;
 import xyz.srclab.common.serialize.json.JsonSerials;
 import xyz.srclab.common.test.TestLogger;
 
@@ -140,6 +142,68 @@ public class ProtobufTest {
         );
     }
 
+    @Test
+    public void testProtobufCopier() {
+        MessageData messageData = MessageData.newBuilder()
+            .setType(MessageData.Type.TYPE_0)
+            .setMessage("666")
+            .addAllNumber(Arrays.asList("7", "8", "9"))
+            .putEntry("m1", "mm1")
+            .putEntry("m2", "mm2")
+            .build();
+        RequestMessage requestMessage = RequestMessage.newBuilder()
+            .setId("123")
+            .setData(messageData)
+            .build();
+
+        JavaRequestMessage javaRequestMessage =
+            ProtobufConverts.copyToBean(requestMessage, new JavaRequestMessage());
+        logger.log("javaRequestMessage: {}", JsonSerials.toJsonString(javaRequestMessage));
+        Assert.assertEquals(javaRequestMessage.getId(), "123");
+        Assert.assertEquals(javaRequestMessage.getData().getType(), "TYPE_0");
+        Assert.assertEquals(javaRequestMessage.getData().getMessage(), "666");
+        Assert.assertEquals(javaRequestMessage.getData().getNumberList(), Arrays.asList("7", "8", "9"));
+        Assert.assertEquals(
+            javaRequestMessage.getData().getEntryMap(),
+            Collects.newMap(new LinkedHashMap<>(), "m1", "mm1", "m2", "mm2")
+        );
+
+        javaRequestMessage.setId("999");
+        javaRequestMessage.getData().setType("type_1");
+        javaRequestMessage.getData().setNumberList(Arrays.asList("5", "6", "7"));
+        RequestMessage.Builder requestMessageBuilder =
+            ProtobufConverts.copyToBuilder(javaRequestMessage, RequestMessage.newBuilder());
+        logger.log(
+            "requestMessageBuilder: {}",
+            ProtobufJsons.PROTOBUF_JSON_SERIALIZER.toJsonString(requestMessageBuilder)
+        );
+        Assert.assertEquals(requestMessageBuilder.getId(), "999");
+        Assert.assertEquals(requestMessageBuilder.getData().getType(), MessageData.Type.TYPE_1);
+        Assert.assertEquals(requestMessageBuilder.getData().getMessage(), "666");
+        Assert.assertEquals(requestMessageBuilder.getData().getNumberList(), Arrays.asList("5", "6", "7"));
+        Assert.assertEquals(
+            requestMessageBuilder.getData().getEntryMap(),
+            Collects.newMap(new LinkedHashMap<>(), "m1", "mm1", "m2", "mm2")
+        );
+    }
+
+    @Test
+    public void testProtobufMessageType() {
+        ProtobufMessageType messageType = ProtobufMessageType.of(MessageData.class);
+        Assert.assertSame(ProtobufMessageType.of(MessageData.class), messageType);
+        Assert.assertFalse(messageType.isBuilder());
+        Assert.assertEquals(messageType.descriptor(), MessageData.getDescriptor());
+        Assert.assertTrue(messageType.newBuilder() instanceof MessageData.Builder);
+        Assert.assertEquals(messageType.fields().size(), 4);
+
+        ProtobufMessageType builderType = ProtobufMessageType.of(MessageData.Builder.class);
+        Assert.assertTrue(builderType.isBuilder());
+        Assert.assertEquals(builderType.messageClass(), MessageData.class);
+        for (ProtobufFieldType field : builderType.fields()) {
+            Assert.assertNotNull(field.setter());
+        }
+    }
+
     public static class JavaRequestMessage {
 
         private String id;
@@ -122,9 +122,16 @@ private class JsonSerializerImpl(
     }
 }
 
+/**
+ * Returns node tree of this [Json] if it is built by [JsonSerializer] of Jackson, or null.
+ */
+internal fun Json.jsonNodeOrNull(): JsonNode? {
+    return if (this is JsonImpl) this.jsonNode else null
+}
+
 private class JsonImpl(
     private val objectMapper: ObjectMapper,
-    private val jsonNode: JsonNode
+    val jsonNode: JsonNode
 ) : Json {
 
     override val type: JsonType = jsonNode.nodeType.toJsonType()
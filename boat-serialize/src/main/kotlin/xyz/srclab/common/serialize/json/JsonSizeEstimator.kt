@@ -0,0 +1,82 @@
+package xyz.srclab.common.serialize.json
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.node.POJONode
+import xyz.srclab.common.cache.DefaultSizeEstimator
+import java.util.*
+
+/**
+ * [DefaultSizeEstimator] which also supports [Json]. A [Json] built by Jackson is estimated by walking its node tree
+ * (without depth limit), other [Json] is estimated by its json string.
+ */
+open class JsonSizeEstimator : DefaultSizeEstimator() {
+
+    override fun estimateOther(value: Any): Long {
+        if (value is Json) {
+            val node = value.jsonNodeOrNull() ?: return estimate(value.toJsonString())
+            return estimateNode(node)
+        }
+        return super.estimateOther(value)
+    }
+
+    private fun estimateNode(root: JsonNode): Long {
+        var size = 0L
+        val nodes: Deque<JsonNode> = ArrayDeque()
+        nodes.push(root)
+        while (nodes.isNotEmpty()) {
+            val node = nodes.pop()
+            size += when {
+                node.isObject -> {
+                    var objectSize = NODE_SIZE + CONTAINER_SIZE + node.size().toLong() * ELEMENT_SIZE
+                    val fields = node.fields()
+                    while (fields.hasNext()) {
+                        val field = fields.next()
+                        objectSize += estimate(field.key)
+                        nodes.push(field.value)
+                    }
+                    objectSize
+                }
+                node.isArray -> {
+                    for (element in node) {
+                        nodes.push(element)
+                    }
+                    NODE_SIZE + CONTAINER_SIZE + node.size().toLong() * REFERENCE_SIZE
+                }
+                node.isTextual -> NODE_SIZE + estimate(node.textValue())
+                node.isBinary -> NODE_SIZE + estimate(node.binaryValue())
+                node.isBigInteger || node.isBigDecimal -> NODE_SIZE + BIG_NUMBER_SIZE
+                node.isLong || node.isDouble -> NODE_SIZE + 8
+                node is POJONode -> NODE_SIZE + estimate(node.pojo)
+                //Other numbers are small nodes, booleans and nulls are shared singletons
+                node.isNumber -> NODE_SIZE
+                else -> 0
+            }
+        }
+        return size
+    }
+
+    companion object {
+
+        /**
+         * Size of a node object with header and a small field.
+         */
+        private const val NODE_SIZE = 16L
+
+        /**
+         * Size of backing list or map of a container node.
+         */
+        private const val CONTAINER_SIZE = 64L
+
+        /**
+         * Size of an entry of object node.
+         */
+        private const val ELEMENT_SIZE = 32L
+
+        private const val REFERENCE_SIZE = 4L
+
+        private const val BIG_NUMBER_SIZE = 40L
+
+        @JvmField
+        val DEFAULT: JsonSizeEstimator = JsonSizeEstimator()
+    }
+}
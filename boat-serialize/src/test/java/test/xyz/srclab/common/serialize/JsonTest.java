@@ -7,6 +7,7 @@ import xyz.srclab.common.lang.Defaults;
 import xyz.srclab.common.serialize.json.Json;
 import xyz.srclab.common.serialize.json.JsonSerializer;
 import xyz.srclab.common.serialize.json.JsonSerials;
+import xyz.srclab.common.serialize.json.JsonSizeEstimator;
 import xyz.srclab.common.serialize.json.JsonType;
 import xyz.srclab.common.test.TestLogger;
 
@@ -247,4 +248,25 @@ public class JsonTest {
             return Objects.hash(string, longValue, map);
         }
     }
+
+    @Test
+    public void testJsonSizeEstimator() {
+        Json json = JsonSerials.toJson("{\"p1\":\"p1 value\",\"p2\":[1,2,3]}");
+        long size = JsonSizeEstimator.DEFAULT.estimate(json);
+        Assert.assertTrue(size > JsonSizeEstimator.DEFAULT.estimate("p1 value"));
+        //Node tree is walked: longer text weighs more
+        Json longerJson = JsonSerials.toJson("{\"p1\":\"p1 value with a much longer text\",\"p2\":[1,2,3]}");
+        Assert.assertTrue(JsonSizeEstimator.DEFAULT.estimate(longerJson) > size);
+        //Deeply nested json is not cut at max depth
+        StringBuilder nested = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            nested.append("[");
+        }
+        nested.append("\"leaf\"");
+        for (int i = 0; i < 100; i++) {
+            nested.append("]");
+        }
+        Assert.assertTrue(JsonSizeEstimator.DEFAULT.estimate(JsonSerials.toJson(nested.toString())) > 100 * 64);
+        Assert.assertEquals(JsonSizeEstimator.DEFAULT.estimate(new byte[100]), 120);
+    }
 }